@@ -0,0 +1,140 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.benchmarks
+
+import hudson.tasks.junit.CaseResult
+import hudson.tasks.junit.SuiteResult
+import org.jenkinsci.squashtm.core.JobInformations
+import org.jenkinsci.squashtm.core.TestResult
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+
+/**
+ * Generates the synthetic test suites used by the benchmarks. The tests are spread over 
+ * packages and classes of a realistic size (20 tests per class, 10 classes per package), and one 
+ * test out of ten fails.
+ */
+class BenchmarkData {
+	
+	static final String JOB_NAME = 'bench-job'
+	
+	static final int TESTS_PER_CLASS = 20
+	
+	static final int CLASSES_PER_PACKAGE = 10
+	
+	static JobInformations jobInformations(){
+		new JobInformations(
+			jobName : JOB_NAME,
+			hostURL : 'http://localhost:8080/jenkins',
+			systemUnderTest : 'bench-sut'
+		)
+	}
+	
+	static String className(int i){
+		int classIdx = i / TESTS_PER_CLASS
+		int packageIdx = classIdx / CLASSES_PER_PACKAGE
+		return "org.example.module${packageIdx % 7}.package${packageIdx}.BenchClass${classIdx}"
+	}
+	
+	static String testName(int i){
+		"testMethod${i % TESTS_PER_CLASS}"
+	}
+	
+	static boolean isFailed(int i){
+		i % 10 == 9
+	}
+	
+	/**
+	 * @return the paths of size tests, as the extractor would compute them
+	 */
+	static List<String> paths(int size){
+		List<String> paths = new ArrayList<String>(size)
+		for (int i = 0; i < size; i++){
+			paths << "/${JOB_NAME}/${className(i).replace('.', '/')}/${testName(i)}".toString()
+		}
+		return paths
+	}
+	
+	/**
+	 * @return size junit case results, grouped by class in suites
+	 */
+	static List<CaseResult> caseResults(int size){
+		List<CaseResult> results = new ArrayList<CaseResult>(size)
+		SuiteResult suite = null
+		for (int i = 0; i < size; i++){
+			if (i % TESTS_PER_CLASS == 0){
+				suite = new SuiteResult(className(i), '', '')
+			}
+			String trace = isFailed(i) ? "java.lang.AssertionError: expected 1 but was 2\n\tat ${className(i)}.${testName(i)}(BenchClass.java:42)" : null
+			CaseResult result = new CaseResult(suite, testName(i), trace)
+			suite.addCase result
+			results << result
+		}
+		return results
+	}
+	
+	/**
+	 * @return size results of our own, as handed to the posters
+	 */
+	static List<TestResult> testResults(int size){
+		List<String> paths = paths(size)
+		List<TestResult> results = new ArrayList<TestResult>(size)
+		for (int i = 0; i < size; i++){
+			TestResult result = new TestResult()
+			result.systemUnderTest = 'bench-sut'
+			result.projectName = JOB_NAME
+			result.testID = paths[i]
+			result.path = paths[i]
+			result.name = testName(i)
+			result.status = isFailed(i) ? ExecutionStatus.FAILURE : ExecutionStatus.SUCCESS
+			result.message = isFailed(i) ? '<p>expected 1 but was 2</p>' : ''
+			result.host = 'http://localhost:8080/jenkins'
+			result.resultURL = "http://localhost:8080/jenkins/job/${JOB_NAME}/1/testReport/${paths[i]}".toString()
+			results << result
+		}
+		return results
+	}
+	
+	/**
+	 * Writes a test suite descriptor of size tests, in the shape Squash TM sends it (see 'testsuite.json').
+	 */
+	static void writeTestSuite(File file, int size){
+		List<String> paths = paths(size)
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), 'UTF-8'))
+		try{
+			writer.write '{"test":['
+			for (int i = 0; i < size; i++){
+				if (i > 0){
+					writer.write ','
+				}
+				String script = paths[i].substring(JOB_NAME.length() + 2)
+				writer.write "{\"id\":${100000 + i},\"script\":\"${script}\",\"param\":{}}"
+			}
+			writer.write ']}'
+		}
+		finally{
+			writer.close()
+		}
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.benchmarks
+
+import org.jenkinsci.squashtm.core.TestResultActionExtractor
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Extraction of the results of a simple (non aggregated) test report, see 
+ * {@link TestResultActionExtractor#fromSimple(Object, Closure, Closure)}.
+ */
+@State(Scope.Benchmark)
+class ExtractionBenchmark {
+	
+	@Param(["1000", "10000", "100000"])
+	public int size
+	
+	SyntheticTestResultAction action
+	
+	TestResultActionExtractor extractor
+	
+	@Setup
+	public void setup(){
+		action = new SyntheticTestResultAction(BenchmarkData.caseResults(size))
+		extractor = new TestResultActionExtractor(
+			info : BenchmarkData.jobInformations(),
+			buildUrl : "job/${BenchmarkData.JOB_NAME}/1/".toString()
+		)
+	}
+	
+	@Benchmark
+	public void iterateResults(Blackhole hole){
+		Iterator results = extractor.fromSimple(action, { true }){ act, jenres, String path -> 
+			extractor.toTestResult act, jenres, path 
+		}
+		while (results.hasNext()){
+			hole.consume results.next()
+		}
+	}
+	
+	@Benchmark
+	public void collectPaths(Blackhole hole){
+		Iterator paths = extractor.fromSimple(action, { true }){ act, jenres, String path -> path }
+		while (paths.hasNext()){
+			hole.consume paths.next()
+		}
+	}
+	
+}
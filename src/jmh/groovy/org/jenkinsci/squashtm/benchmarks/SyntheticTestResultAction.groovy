@@ -0,0 +1,80 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.benchmarks
+
+import hudson.tasks.junit.CaseResult
+import hudson.tasks.test.AbstractTestResultAction
+import hudson.tasks.test.TestResult
+
+/**
+ * A test result action that holds the synthetic results in memory, like a build would 
+ * after its report was loaded.
+ */
+class SyntheticTestResultAction extends AbstractTestResultAction<SyntheticTestResultAction>{
+	
+	private final List<CaseResult> passed
+	private final List<CaseResult> failed
+	
+	SyntheticTestResultAction(List<CaseResult> results){
+		passed = results.findAll{ it.passed }
+		failed = results.findAll{ it.failed }
+	}
+	
+	@Override
+	public int getFailCount(){
+		failed.size()
+	}
+	
+	@Override
+	public int getTotalCount(){
+		passed.size() + failed.size()
+	}
+	
+	@Override
+	public Object getResult(){
+		this
+	}
+	
+	@Override
+	public List<CaseResult> getPassedTests(){
+		passed
+	}
+	
+	@Override
+	public List<CaseResult> getFailedTests(){
+		failed
+	}
+	
+	@Override
+	public List<CaseResult> getSkippedTests(){
+		Collections.emptyList()
+	}
+	
+	// the default implementation needs a stapler request
+	@Override
+	public String getTestResultPath(TestResult it){
+		"testReport/${it.fullName.replace('.', '/')}".toString()
+	}
+	
+}
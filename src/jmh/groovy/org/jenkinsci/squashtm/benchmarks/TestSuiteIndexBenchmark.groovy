@@ -0,0 +1,65 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.benchmarks
+
+import org.jenkinsci.squashtm.tawrapper.TestSuiteIndexCallable
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * Indexing of the test suite sent by Squash TM, as done by SquashTAPoster.jsonFileToMap() on the 
+ * node that holds the file.
+ */
+@State(Scope.Benchmark)
+class TestSuiteIndexBenchmark {
+	
+	@Param(["1000", "10000", "100000"])
+	public int size
+	
+	File testsuite
+	
+	TestSuiteIndexCallable callable
+	
+	@Setup
+	public void setup(){
+		testsuite = File.createTempFile('testsuite', '.json')
+		BenchmarkData.writeTestSuite testsuite, size
+		callable = new TestSuiteIndexCallable(prefix : "/${BenchmarkData.JOB_NAME}/".toString())
+	}
+	
+	@TearDown
+	public void tearDown(){
+		testsuite.delete()
+	}
+	
+	@Benchmark
+	public Map<String, String> jsonFileToMap(){
+		callable.invoke testsuite, null
+	}
+	
+}
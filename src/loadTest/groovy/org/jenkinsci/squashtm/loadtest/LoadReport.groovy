@@ -0,0 +1,96 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.loadtest
+
+import groovy.json.JsonOutput
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryPoolMXBean
+import java.lang.management.MemoryType
+
+/**
+ * <p>
+ * 	Measures the publications of the load tests and gathers the figures : end-to-end publish time, requests per second 
+ * 	seen by the stub and peak heap. The figures are printed, and written to results.json in the directory given by the 
+ * 	system property 'loadtest.reportDir' (build/reports/loadtest by default).
+ * </p>
+ * 
+ * <p>
+ * 	The peak heap is the sum of the peaks of the heap pools since the beginning of the publication. The pools don't peak 
+ * 	at the same time, so this is an upper bound.
+ * </p>
+ */
+class LoadReport {
+	
+	final List<Map> rows = []
+	
+	
+	Map measure(String scenario, int tests, StubTMServer stub, Closure publish){
+		
+		List<MemoryPoolMXBean> heap = ManagementFactory.memoryPoolMXBeans.findAll { it.type == MemoryType.HEAP }
+		
+		System.gc()
+		heap*.resetPeakUsage()
+		
+		long requestsBefore = stub.requests.get()
+		long start = System.nanoTime()
+		
+		publish()
+		
+		long millis = Math.max(1L, (System.nanoTime() - start).intdiv(1000000L))
+		long requests = stub.requests.get() - requestsBefore
+		long peakHeap = heap.sum(0L) { it.peakUsage.used }
+		
+		Map row = [
+			scenario : scenario,
+			tests : tests,
+			publishMillis : millis,
+			requests : requests,
+			requestsPerSecond : (requests * 1000L).intdiv(millis),
+			testsPerSecond : (tests * 1000L).intdiv(millis),
+			peakHeapMB : peakHeap.intdiv(1024L * 1024L),
+			received : stub.statuses.get(),
+			errors : stub.errors.get(),
+			throttled : stub.throttled.get(),
+			kilobytesReceived : stub.bytes.get().intdiv(1024L)
+		]
+		
+		synchronized(rows){
+			rows << row
+		}
+		
+		println "[load test] ${scenario}, ${tests} tests : ${millis} ms, ${row.requestsPerSecond} req/s, " + 
+				"${row.testsPerSecond} tests/s, peak heap ${row.peakHeapMB} MB, ${row.received} received, " + 
+				"${row.errors} errors, ${row.throttled} throttled"
+		
+		return row
+	}
+	
+	void write(){
+		File dir = new File(System.getProperty("loadtest.reportDir", "build/reports/loadtest"))
+		dir.mkdirs()
+		new File(dir, "results.json").setText(JsonOutput.prettyPrint(JsonOutput.toJson(rows)), "UTF-8")
+	}
+	
+}
@@ -0,0 +1,165 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.loadtest
+
+import org.jenkinsci.squashtm.core.ResultPoster
+import org.jenkinsci.squashtm.core.TMServer
+import org.jenkinsci.squashtm.core.TMServerRegistry
+import org.jenkinsci.squashtm.tawrapper.SquashTAPoster
+import org.jenkinsci.squashtm.testutils.NullPrintStream
+
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * <p>
+ * 	End-to-end publications against a {@link StubTMServer}, through the real http stack. Run them with 'gradle loadTest', 
+ * 	they are not part of the regular tests. Everything happens on the loopback interface.
+ * </p>
+ * 
+ * <p>
+ * 	The sizes of the builds are given by the system property 'loadtest.tests' (comma separated, default 1000,10000). The 
+ * 	figures of each scenario are reported by the {@link LoadReport}.
+ * </p>
+ * 
+ * <p>
+ * 	The scenarios marked 'stub only' post to endpoints that Squash TM doesn't have (see {@link StubTMServer}) : the 
+ * 	bulk test statuses of Squash TA (batches of more than one), and the test results of the {@link ResultPoster}.
+ * </p>
+ */
+class PublicationLoadTest extends Specification{
+	
+	static final List<Integer> SIZES = System.getProperty("loadtest.tests", "1000,10000").split(',')*.trim()*.toInteger()
+	
+	@Shared
+	LoadReport report = new LoadReport()
+	
+	File buildDir
+	
+	StubTMServer stub
+	
+	def setup(){
+		// Files.createTempDirectory is a Java 7 API, the plugin targets Java 6
+		buildDir = File.createTempFile 'load', 'tmp'
+		buildDir.delete()
+		buildDir.mkdir()
+	}
+	
+	def cleanup(){
+		stub?.stop()
+		buildDir.deleteDir()
+	}
+	
+	def cleanupSpec(){
+		report.write()
+	}
+	
+	
+	def "the stub should tell that Squash is alive"(){
+		
+		given :
+			stub = new StubTMServer().start()
+		
+		expect :
+			new URL(stub.url + TMServer.IS_ALIVE_PATH).text == TMServer.SQUASH_IS_ALIVE
+	}
+	
+	@Unroll
+	def "Squash TA publication of #tests tests, batches of #batchSize, #latency ms latency, #errorRate errors, #throttleRate throttled"(){
+		
+		given :
+			stub = new StubTMServer(latency : latency, errorRate : errorRate, throttleRate : throttleRate).start()
+			
+			TMServer server = stubServer()
+			server.batchSize = batchSize
+			
+			def build = new SyntheticBuild(tests, buildDir)
+			def results = build.results()
+			
+			def poster = new SquashTAPoster(new TMServerRegistry([server]), build.info(stub.url), new NullPrintStream())
+		
+		when :
+			report.measure("Squash TA, batches of ${batchSize}${(batchSize > 1) ? ' (stub only)' : ''}, ${latency} ms, " + 
+							"${errorRate} errors, ${throttleRate} throttled", tests, stub){
+				poster.postResults results
+			}
+		
+		then :
+			poster.stats.posted == stub.statuses.get()
+			(errorRate + throttleRate > 0) || poster.stats.posted == tests
+		
+		where :
+			[tests, batchSize, latency, errorRate, throttleRate] << taScenarios()
+	}
+	
+	@Unroll
+	def "bulk publication of #tests tests, #perRequest per request, #latency ms latency (stub only)"(){
+		
+		given :
+			stub = new StubTMServer(latency : latency).start()
+			
+			def build = new SyntheticBuild(tests, buildDir)
+			def results = build.results()
+			
+			def poster = new ResultPoster([stubServer()], build.info(stub.url), new NullPrintStream())
+			poster.maxResultsPerRequest = perRequest
+			poster.enabled = true
+		
+		when :
+			report.measure("bulk results (stub only), ${perRequest} per request, ${latency} ms", tests, stub){
+				poster.postResults results
+			}
+		
+		then :
+			stub.statuses.get() == tests
+			poster.stats.posted == tests
+		
+		where :
+			[tests, perRequest, latency] << SIZES.collect { [it, 1000, 20] }
+	}
+	
+	
+	// ***************** utilities ****************************
+	
+	/*
+	 * for each size : one request per test, batches, and one request per test against a server that fails now and then
+	 */
+	static List taScenarios(){
+		SIZES.collectMany { int size ->
+			[
+				[size, 1, 5, 0d, 0d],
+				[size, 500, 20, 0d, 0d],
+				[size, 1, 5, 0.02d, 0.001d]
+			]
+		}
+	}
+	
+	TMServer stubServer(){
+		TMServer server = new TMServer("stub", stub.url, "admin", "admin")
+		server.maxConcurrentRequests = 16
+		return server
+	}
+	
+}
@@ -0,0 +1,215 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.loadtest
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import hudson.util.DaemonThreadFactory
+import hudson.util.NamingThreadFactory
+import org.apache.commons.io.input.CountingInputStream
+import org.jenkinsci.squashtm.core.TMServer
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+
+/**
+ * <p>
+ * 	A stub of Squash TM that listens on a random port of the loopback interface, for the load tests. It answers 
+ * 	{@link TMServer#IS_ALIVE_PATH} and accepts anything posted under /automated-executions/, whether it is a single 
+ * 	json object or a json array of them.
+ * </p>
+ * 
+ * <p>
+ * 	Only the test statuses posted one by one (/automated-executions/{id}/test-status) reach an endpoint that Squash TM 
+ * 	has. The bulk endpoint of the test statuses ({@link org.jenkinsci.squashtm.tawrapper.SquashTAPoster#BULK_STATUS_PATH}) 
+ * 	and the endpoint of the test results ({@link org.jenkinsci.squashtm.core.ResultPoster#RESULTS_PATH}) are accepted 
+ * 	as well, though Squash TM doesn't know them : the scenarios that use them measure the plugin, not a real server.
+ * </p>
+ * 
+ * <p>
+ * 	Each request is delayed by {@link #latency} milliseconds, then a share of them fails : {@link #errorRate} of the 
+ * 	requests are answered with a 500, and {@link #throttleRate} of them with a 429 and a Retry-After of {@link #retryAfter} 
+ * 	seconds. The draw of a request only depends on the {@link #seed} and on the rank of the request : the same number 
+ * 	of requests always gets the same failures, whichever thread handles them. Which request of a scenario gets which 
+ * 	rank depends on the order they arrive in, which is not deterministic when they are sent concurrently.
+ * </p>
+ */
+class StubTMServer {
+	
+	static final String CONTEXT = "/squash"
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
+	
+	// the constants of SplitMix64, see draw()
+	private static final long GOLDEN_GAMMA = -7046029254386353131L
+	private static final long MIX_1 = -4658895280553007687L
+	private static final long MIX_2 = -7723592293110705685L
+	
+	// in milliseconds
+	long latency = 0
+	
+	double errorRate = 0
+	
+	double throttleRate = 0
+	
+	// in seconds
+	int retryAfter = 1
+	
+	long seed = 42
+	
+	// what the stub received
+	final AtomicLong requests = new AtomicLong()
+	final AtomicLong statuses = new AtomicLong()
+	final AtomicLong errors = new AtomicLong()
+	final AtomicLong throttled = new AtomicLong()
+	final AtomicLong bytes = new AtomicLong()
+	
+	private HttpServer server
+	private ExecutorService executor
+	
+	
+	StubTMServer start(){
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0)
+		
+		// the latency is simulated by the handler threads, which must not queue behind each other
+		executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "stub Squash TM"))
+		server.executor = executor
+		
+		server.createContext(CONTEXT + TMServer.IS_ALIVE_PATH, { HttpExchange exchange -> 
+			respond exchange, 200, TMServer.SQUASH_IS_ALIVE 
+		} as HttpHandler)
+		
+		server.createContext(CONTEXT + "/automated-executions/", { HttpExchange exchange -> 
+			receive exchange 
+		} as HttpHandler)
+		
+		server.start()
+		
+		return this
+	}
+	
+	void stop(){
+		server?.stop 0
+		executor?.shutdownNow()
+	}
+	
+	/**
+	 * the url to configure in the TMServer
+	 */
+	String getUrl(){
+		"http://127.0.0.1:${server.address.port}${CONTEXT}"
+	}
+	
+	
+	private void receive(HttpExchange exchange){
+		try{
+			long rank = requests.incrementAndGet()
+			
+			int count = countStatuses exchange
+			
+			if (latency > 0){
+				Thread.sleep latency
+			}
+			
+			double draw = draw(rank)
+			
+			if (draw < errorRate){
+				errors.incrementAndGet()
+				respond exchange, 500, "stub error"
+			}
+			else if (draw < errorRate + throttleRate){
+				throttled.incrementAndGet()
+				exchange.responseHeaders.add "Retry-After", String.valueOf(retryAfter)
+				respond exchange, 429, "slow down"
+			}
+			else{
+				statuses.addAndGet count
+				respond exchange, 200, ""
+			}
+		}
+		catch(Exception ex){
+			respond exchange, 400, ex.toString()
+		}
+	}
+	
+	/*
+	 * A number in [0, 1) that only depends on the seed and the rank of the request, unlike the draws of a Random 
+	 * shared by the handler threads. The rank is mixed as SplitMix64 does : the Randoms seeded with consecutive 
+	 * values start with nearly the same numbers.
+	 */
+	private double draw(long rank){
+		long z = seed + rank * GOLDEN_GAMMA
+		z = (z ^ (z >>> 30)) * MIX_1
+		z = (z ^ (z >>> 27)) * MIX_2
+		z = z ^ (z >>> 31)
+		return (z >>> 11) / (double) (1L << 53)
+	}
+	
+	// a single status (a json object), or a json array of them
+	private int countStatuses(HttpExchange exchange){
+		
+		CountingInputStream wire = new CountingInputStream(exchange.requestBody)
+		
+		InputStream body = "gzip".equalsIgnoreCase(exchange.requestHeaders.getFirst("Content-Encoding")) ? 
+							new GZIPInputStream(wire) : wire
+		
+		JsonParser parser = JSON_FACTORY.createParser body
+		
+		try{
+			if (parser.nextToken() != JsonToken.START_ARRAY){
+				parser.skipChildren()
+				return 1
+			}
+			
+			int count = 0
+			while (parser.nextToken() == JsonToken.START_OBJECT){
+				parser.skipChildren()
+				count++
+			}
+			return count
+		}
+		finally{
+			parser.close()
+			body.close()
+			bytes.addAndGet wire.byteCount
+		}
+	}
+	
+	private void respond(HttpExchange exchange, int code, String text){
+		byte[] content = text.getBytes("UTF-8")
+		exchange.sendResponseHeaders code, (content.length == 0) ? -1 : content.length
+		if (content.length > 0){
+			exchange.responseBody.write content
+		}
+		exchange.close()
+	}
+	
+}
@@ -0,0 +1,148 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.loadtest
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
+import org.jenkinsci.squashtm.core.JobInformations
+import org.jenkinsci.squashtm.core.TestResult
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+import org.jenkinsci.squashtm.tawrapper.TAParametersAction
+import org.jenkinsci.squashtm.tawrapper.TAParametersAction.FileBuildParameter
+import org.jenkinsci.squashtm.tawrapper.TAParametersAction.StringBuildParameter
+
+import static org.jenkinsci.squashtm.tawrapper.TA.*
+
+/**
+ * A synthetic Squash TA build of a given number of tests : its results, the matching 'testsuite.json' written in 
+ * the given build directory, and the informations of the job. One test out of ten fails, with a message of about 
+ * 2 KB (40 frames of stack trace).
+ */
+class SyntheticBuild {
+	
+	static final String JOB_NAME = 'load-job'
+	
+	static final int TESTS_PER_CLASS = 20
+	
+	final int size
+	
+	final File buildDir
+	
+	
+	SyntheticBuild(int size, File buildDir){
+		this.size = size
+		this.buildDir = buildDir
+	}
+	
+	static String script(int i){
+		int classIdx = i / TESTS_PER_CLASS
+		"org/example/package${classIdx % 50}/LoadClass${classIdx}/testMethod${i % TESTS_PER_CLASS}"
+	}
+	
+	/**
+	 * the test suite that Squash TM would have sent, the execution ids being the index of the tests
+	 */
+	File writeTestSuite(){
+		File file = new File(buildDir, 'testsuite.json')
+		
+		JsonGenerator generator = new JsonFactory().createGenerator(file, com.fasterxml.jackson.core.JsonEncoding.UTF8)
+		try{
+			generator.writeStartObject()
+			generator.writeArrayFieldStart 'test'
+			for (int i = 0; i < size; i++){
+				generator.writeStartObject()
+				generator.writeStringField 'id', String.valueOf(i)
+				generator.writeStringField 'script', script(i)
+				generator.writeEndObject()
+			}
+			generator.writeEndArray()
+			generator.writeEndObject()
+		}
+		finally{
+			generator.close()
+		}
+		
+		return file
+	}
+	
+	List<TestResult> results(){
+		List<TestResult> results = new ArrayList<TestResult>(size)
+		for (int i = 0; i < size; i++){
+			String path = "/${JOB_NAME}/${script(i)}".toString()
+			boolean failed = (i % 10 == 9)
+			
+			results << new TestResult(
+				systemUnderTest : 'load-sut',
+				projectName : JOB_NAME,
+				testID : path,
+				path : path,
+				name : "testMethod${i % TESTS_PER_CLASS}".toString(),
+				status : failed ? ExecutionStatus.FAILURE : ExecutionStatus.SUCCESS,
+				message : failed ? failure(i) : "",
+				host : 'http://localhost:8080/jenkins',
+				resultURL : "http://localhost:8080/jenkins/job/${JOB_NAME}/1/testReport${path}".toString()
+			)
+		}
+		return results
+	}
+	
+	/**
+	 * the informations of a build run for Squash TA, on behalf of the server at that url
+	 */
+	JobInformations info(String notificationUrl){
+		
+		File testsuite = writeTestSuite()
+		
+		TAParametersAction params = new TAParametersAction(
+			parameters : [
+				new StringBuildParameter(PRM_OPERATION, "run"),
+				new StringBuildParameter(PRM_EXTERNAL_JOB_ID, "load-test"),
+				new StringBuildParameter(PRM_NOTIFICATION_URL, notificationUrl),
+				new FileBuildParameter(name : PRM_TEST_SUITE_JSON, absoluteLocation : true, location : testsuite.absolutePath)
+			]
+		)
+		
+		new JobInformations(
+			systemUnderTest : 'load-sut',
+			jobName : JOB_NAME,
+			buildPath : buildDir,
+			buildNum : 1,
+			buildParameters : [:],
+			usesTAWrapper : true,
+			tawrapperParameters : params,
+			hostURL : 'http://localhost:8080/jenkins',
+			jobURL : "job/${JOB_NAME}/1/".toString()
+		)
+	}
+	
+	private String failure(int i){
+		"""<p>
+	expected:&lt;${i}&gt; but was:&lt;${i + 1}&gt;
+	<br/>
+	java.lang.AssertionError: expected:<${i}> but was:<${i + 1}>
+${(1..40).collect { "\tat org.example.Frame${it}.call(Frame${it}.java:${it})" }.join('\n')}
+</p>""".toString()
+	}
+	
+}
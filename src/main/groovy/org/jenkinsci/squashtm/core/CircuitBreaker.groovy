@@ -0,0 +1,245 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import org.jenkinsci.squashtm.lang.Messages
+
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * <p>
+ * 	Tracks the health of a Squash TM server and spares it (and us) the requests that are bound to fail. There is one 
+ * 	CircuitBreaker per server, shared by all the builds and fed by the requests they send and by the {@link TMServerHealthMonitor}.
+ * </p>
+ * 
+ * <p>
+ * 	The breaker is closed as long as the server answers. After {@link #FAILURE_THRESHOLD} consecutive failures (errors, 
+ * 	timeouts or 5xx responses) it opens : no request is sent for {@link #OPEN_DURATION}, then a single trial request is 
+ * 	let through (half open), which either closes the breaker or opens it again.
+ * </p>
+ * 
+ * <p>
+ * 	Independently, a server may ask us to slow down with a 429 or a 503 response and a Retry-After header : the requests 
+ * 	are then held until that time (see {@link #getThrottleDelay()}).
+ * </p>
+ */
+class CircuitBreaker {
+	
+	static enum State{
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	static final int FAILURE_THRESHOLD = 5
+	
+	// in milliseconds
+	static final long OPEN_DURATION = 60 * 1000L
+	
+	// the registry, keyed by url
+	private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>()
+	
+	final String name
+	
+	private State state = State.CLOSED
+	private int consecutiveFailures = 0
+	private String lastError
+	private long retryAt = 0
+	private long throttledUntil = 0
+	private long lastContact = 0
+	
+	
+	CircuitBreaker(String name){
+		this.name = name
+	}
+	
+	/**
+	 * Returns the breaker of that server, creating it if needed. 
+	 * 
+	 * @param server
+	 * @return
+	 */
+	static CircuitBreaker forServer(TMServer server){
+		String key = normalize server.url
+		
+		CircuitBreaker breaker = BREAKERS.get key
+		
+		if (breaker == null){
+			CircuitBreaker created = new CircuitBreaker(key)
+			breaker = BREAKERS.putIfAbsent(key, created) ?: created
+		}
+		
+		return breaker
+	}
+	
+	
+	// ******************* before a request *******************
+	
+	/**
+	 * Tells whether a request may be sent now. When the breaker is open and the delay elapsed, this lets a single trial 
+	 * request through : the caller must then report its outcome with {@link #recordSuccess()} or {@link #recordFailure(String)}.
+	 * 
+	 * @return
+	 */
+	synchronized boolean allowRequest(){
+		switch(state){
+			case State.CLOSED : 
+				return true
+				
+			case State.OPEN :
+				if (System.currentTimeMillis() < retryAt){
+					return false
+				}
+				state = State.HALF_OPEN
+				return true
+			
+			default :
+				// a trial request is already in flight
+				return false
+		}
+	}
+	
+	/**
+	 * Same as {@link #allowRequest()}, without letting a trial request through.
+	 * 
+	 * @return
+	 */
+	synchronized boolean isAvailable(){
+		(state == State.CLOSED) || (state == State.OPEN && System.currentTimeMillis() >= retryAt)
+	}
+	
+	/**
+	 * @return how long the server asked us to wait before the next request, in milliseconds (0 if it didn't)
+	 */
+	synchronized long getThrottleDelay(){
+		Math.max(0, throttledUntil - System.currentTimeMillis())
+	}
+	
+	synchronized State getState(){
+		state
+	}
+	
+	
+	// ******************* after a request *******************
+	
+	synchronized void recordSuccess(){
+		state = State.CLOSED
+		consecutiveFailures = 0
+		lastError = null
+		lastContact = System.currentTimeMillis()
+	}
+	
+	synchronized void recordFailure(String error){
+		long now = System.currentTimeMillis()
+		
+		consecutiveFailures++
+		lastError = error
+		lastContact = now
+		
+		if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD){
+			state = State.OPEN
+			retryAt = now + OPEN_DURATION
+		}
+	}
+	
+	/**
+	 * Holds the requests until the given time (typically because of a Retry-After header)
+	 * 
+	 * @param until
+	 */
+	synchronized void throttle(long until){
+		throttledUntil = Math.max(throttledUntil, until)
+	}
+	
+	
+	// ******************* display *******************
+	
+	/**
+	 * @return a description of the state of the server, for the global configuration
+	 */
+	synchronized String describe(){
+		long now = System.currentTimeMillis()
+		
+		if (state != State.CLOSED){
+			long wait = Math.max(0, retryAt - now).intdiv(1000)
+			return Messages.tmpublisher_globalconf_status_unavailable(consecutiveFailures, lastError, wait)
+		}
+		else if (throttledUntil > now){
+			return Messages.tmpublisher_globalconf_status_throttled((throttledUntil - now).intdiv(1000))
+		}
+		else if (lastContact == 0){
+			return Messages.tmpublisher_globalconf_status_unknown()
+		}
+		else{
+			return Messages.tmpublisher_globalconf_status_available()
+		}
+	}
+	
+	
+	// ******************* utils *******************
+	
+	/**
+	 * Parses the value of a Retry-After header, which is either a delay in seconds or an http date. 
+	 * 
+	 * @param value
+	 * @param now
+	 * @return the time until which we should wait, or null if the value can't be parsed
+	 */
+	static Long parseRetryAfter(String value, long now){
+		if (value == null){
+			return null
+		}
+		
+		value = value.trim()
+		
+		if (value.isLong()){
+			return now + value.toLong() * 1000
+		}
+		
+		try{
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US)
+			format.timeZone = TimeZone.getTimeZone("GMT")
+			return format.parse(value).time
+		}
+		catch(ParseException ex){
+			return null
+		}
+	}
+	
+	static String normalize(String url){
+		url?.replaceAll(/\/*$/, '')
+	}
+	
+	
+	/**
+	 * Raised instead of sending a request to a server that is considered unavailable.
+	 */
+	static class UnavailableException extends IOException{
+		UnavailableException(String message){
+			super(message)
+		}
+	}
+	
+}
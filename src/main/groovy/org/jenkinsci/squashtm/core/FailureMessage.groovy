@@ -0,0 +1,94 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+/**
+ * <p>
+ * 	The message of a failed test, as formatted by {@link FailureMessages#format(String, String)} : the details and the 
+ * 	stack trace, truncated, along with the fingerprint of the stack trace which tells the tests that failed the same way. 
+ * 	The text sent to Squash TM is built from them (see {@link #getText()}).
+ * </p>
+ */
+class FailureMessage implements Serializable {
+	
+	private static final long serialVersionUID = 1L
+	
+	/**
+	 * The message of a test that didn't fail, its text is empty
+	 */
+	static final FailureMessage NONE = new FailureMessage(null, null, null)
+	
+	final String details
+	final String trace
+	
+	// null when there is no stack trace, see FailureMessages#fingerprint(String)
+	final String fingerprint
+	
+	// built on first use
+	private transient String text
+	
+	
+	FailureMessage(String details, String trace, String fingerprint){
+		this.details = details
+		this.trace = trace
+		this.fingerprint = fingerprint
+	}
+	
+	/**
+	 * Returns the message as sent to Squash TM, "" if the test didn't fail
+	 */
+	String getText(){
+		if (text == null){
+			text = render(trace)
+		}
+		return text
+	}
+	
+	/**
+	 * Returns the message as sent to Squash TM, with the stack trace replaced by a reference to the test that carries it 
+	 * (see {@link FailureMessages#deduplicate(String, FailureMessage)}).
+	 */
+	String referringTo(String path){
+		render "same stack trace as ${path}"
+	}
+	
+	private String render(String shownTrace){
+		
+		if (details == null){
+			return ""
+		}
+		
+"""<p>
+	${details}
+	<br/>
+	${shownTrace}
+</p>"""
+	}
+	
+	@Override
+	String toString(){
+		getText()
+	}
+	
+}
@@ -0,0 +1,140 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.Util
+
+import java.security.MessageDigest
+
+/**
+ * <p>
+ * 	Formats the messages of the failed tests (see {@link #format(String, String)}) : the details and the stack trace, 
+ * 	truncated to {@link #maxLength} characters each.
+ * </p>
+ * 
+ * <p>
+ * 	The messages are then shortened within one request body (see {@link #deduplicate(String, FailureMessage)}), an instance 
+ * 	per body. The failures are fingerprinted by their normalized stack trace when they are formatted : the frames, without 
+ * 	the message of the exception nor the numbers of the generated classes. Only the first test of the body with a given stack trace carries 
+ * 	it, the next ones refer to that test instead : when an outage fails thousands of tests with the same trace it is 
+ * 	sent once per request, not thousands of times. A test never refers to a test of another request, which may have 
+ * 	failed, been deferred, or gone to another server.
+ * </p>
+ */
+class FailureMessages {
+	
+	static final int MAX_LENGTH = Integer.getInteger(FailureMessages.class.name + ".maxLength", 10000)
+	
+	// eg GeneratedMethodAccessor123, $Proxy45, Foo$$EnhancerByCGLIB$$1a2b3c
+	private static final String GENERATED_SUFFIX = /(GeneratedMethodAccessor|GeneratedConstructorAccessor|\$Proxy|\$\$[A-Za-z]+\$\$)[0-9a-f]+/
+	
+	private static final String CAUSED_BY = "Caused by:"
+	
+	private static final byte NEWLINE = 10
+	
+	final int maxLength
+	
+	// fingerprint -> path of the first test of the body that failed with it
+	private final Map<String, String> firstOccurrences = new HashMap<String, String>()
+	
+	
+	FailureMessages(int maxLength = MAX_LENGTH){
+		this.maxLength = maxLength
+	}
+	
+	/**
+	 * Returns the message of a test, {@link FailureMessage#NONE} if it has none
+	 */
+	FailureMessage format(String details, String stack){
+		
+		if (details == null){
+			return FailureMessage.NONE
+		}
+		
+		String fingerprint = (stack == null || stack.isEmpty()) ? null : fingerprint(stack)
+		
+		return new FailureMessage(truncate(details), truncate(stack), fingerprint)
+	}
+	
+	/**
+	 * Returns the message of a test as it should be written in the request body : as is if no other test of the body 
+	 * carries the same stack trace, else with its trace replaced by a reference to the test that carries it.
+	 * 
+	 * @param path the path of the test, see {@link TestResult#getPath()}
+	 * @param message the message, as formatted by {@link #format(String, String)}
+	 */
+	synchronized String deduplicate(String path, FailureMessage message){
+		
+		if (message.fingerprint == null){
+			return message.text
+		}
+		
+		String first = firstOccurrences.get message.fingerprint
+		
+		if (first == null){
+			firstOccurrences.put message.fingerprint, path
+			return message.text
+		}
+		if (first == path){
+			return message.text
+		}
+		
+		return message.referringTo(first)
+	}
+	
+	String truncate(String text){
+		if (text == null || text.length() <= maxLength){
+			return text
+		}
+		return text.substring(0, maxLength) + "... (${text.length() - maxLength} more characters)"
+	}
+	
+	/**
+	 * The digest of the frames of the stack trace. Of the lines that introduce an exception (the first one and the 
+	 * causes) only the class of the exception is kept, not its message.
+	 */
+	static String fingerprint(String stack){
+		
+		MessageDigest digest = MessageDigest.getInstance "SHA-1"
+		
+		stack.eachLine { String line, int index ->
+			String normalized = line.trim()
+			if (index == 0 || normalized.startsWith(CAUSED_BY)){
+				normalized = exceptionClass(normalized)
+			}
+			digest.update normalized.replaceAll(GENERATED_SUFFIX, '$1').getBytes("UTF-8")
+			digest.update NEWLINE
+		}
+		
+		return Util.toHexString(digest.digest())
+	}
+	
+	// eg "Caused by: java.io.IOException: connection refused" -> "Caused by: java.io.IOException"
+	private static String exceptionClass(String line){
+		int start = line.startsWith(CAUSED_BY) ? CAUSED_BY.length() : 0
+		int colon = line.indexOf(':', start)
+		(colon < 0) ? line : line.substring(0, colon)
+	}
+	
+}
@@ -0,0 +1,115 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.Util
+import hudson.remoting.VirtualChannel
+import jenkins.MasterToSlaveFileCallable
+import org.apache.tools.ant.DirectoryScanner
+
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * <p>
+ * 	Parses the JUnit reports of the workspace that match {@link #includes}, like the JUnit publisher does, except that 
+ * 	the reports listed in {@link #parsed} are skipped unless they were modified since. This happens on the node of the 
+ * 	workspace, and returns the tests of the new reports along with the updated list of the parsed reports.
+ * </p>
+ * 
+ * <p>
+ * 	The reports older than the build are left out, they belong to a previous build. A report that cannot be parsed is 
+ * 	left out as well and will be read again next time : it may still be in the making.
+ * </p>
+ */
+class JUnitReportScanner extends MasterToSlaveFileCallable<JUnitReportScanner.Reports> {
+	
+	private static final long serialVersionUID = 1L
+	
+	private static final Logger LOGGER = Logger.getLogger(JUnitReportScanner.class.getName())
+	
+	// the clocks of the controller and of the agent may differ a bit, same margin as the JUnit publisher
+	static final long ERROR_MARGIN = 3000
+	
+	/**
+	 * an ant pattern, relative to the workspace
+	 */
+	String includes
+	
+	/**
+	 * the reports parsed already : relative path -> last modification
+	 */
+	HashMap<String, Long> parsed = new HashMap<String, Long>()
+	
+	/**
+	 * when the build started
+	 */
+	long buildTime
+	
+	
+	@Override
+	public Reports invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+		
+		DirectoryScanner scanner = Util.createFileSet(workspace, includes).directoryScanner
+		
+		Reports reports = new Reports(parsed : new HashMap<String, Long>(parsed))
+		
+		scanner.includedFiles.each{ String name ->
+			
+			File file = new File(scanner.basedir, name)
+			long modified = file.lastModified()
+			
+			if (modified < buildTime - ERROR_MARGIN || parsed.get(name) == modified){
+				return
+			}
+			
+			try{
+				reports.result.parse file
+				reports.parsed.put name, modified
+				reports.files++
+			}
+			catch(Exception ex){
+				LOGGER.log(Level.FINE, "[TM-PLUGIN] : could not parse the test report ${file}, it will be read again later", ex)
+			}
+		}
+		
+		reports.result.tally()
+		
+		return reports
+	}
+	
+	
+	static final class Reports implements Serializable{
+		
+		private static final long serialVersionUID = 1L
+		
+		hudson.tasks.junit.TestResult result = new hudson.tasks.junit.TestResult()
+		
+		HashMap<String, Long> parsed
+		
+		// how many reports were parsed this time
+		int files
+	}
+	
+}
@@ -100,6 +100,11 @@ class JobInformations implements Serializable {
 	 */
 	transient File buildPath
 	
+	/**
+	 * the directory of the build itself (see {@link hudson.model.Run#getRootDir()}). Internal usage only.
+	 */
+	transient File buildRootDir
+	
 	
 	/**
 	 * the number of the build
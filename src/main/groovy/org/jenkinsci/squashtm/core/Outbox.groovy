@@ -0,0 +1,405 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import net.sf.json.JSONObject
+import org.apache.http.StatusLine
+
+import java.util.logging.Level
+import java.util.logging.Logger
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * <p>
+ * 	The Outbox stores on disk the requests that could not be delivered to Squash TM, so that they can be retried later 
+ * 	by the {@link OutboxDrainer} even after a restart of Jenkins. There is one outbox per job, located in the 
+ * 	directory given by {@link JobInformations#buildPath}.
+ * </p>
+ * 
+ * <p>
+ * 	Each undelivered request is an entry, stored in its own file : the first line holds the metadata of the entry (as json), 
+ * 	and the rest of the file is the payload verbatim. Entries are written to a temporary file first then renamed, 
+ * 	so that the drainer never reads an incomplete entry.
+ * </p>
+ * 
+ * <p>
+ * 	The publications still queued are kept there too (see {@link PendingPublication}), serialized in their own 
+ * 	file, until they complete.
+ * </p>
+ * 
+ * <p>
+ * 	The entries given up on are kept for {@link #FAILED_RETENTION_HOURS} hours for diagnostic purpose, then deleted 
+ * 	(see {@link #purgeDiscarded(long)}).
+ * </p>
+ * 
+ * <p>
+ * 	The outboxes that hold anything are registered in memory (see {@link #pending()}), so that the drainer doesn't 
+ * 	have to look into every job. The registry is rebuilt from the disk once after a restart (see {@link #register(File)}).
+ * </p>
+ */
+class Outbox {
+	
+	private final static Logger LOGGER = Logger.getLogger(Outbox.class.getName());
+	
+	static final String OUTBOX_DIR = 'squashtm-outbox'
+	
+	private static final String ENTRY_EXT = '.json'
+	private static final String TEMP_EXT = '.tmp'
+	private static final String FAILED_EXT = '.failed'
+	private static final String PUBLICATION_EXT = '.publication'
+	
+	static final int FAILED_RETENTION_HOURS = Integer.getInteger(Outbox.class.name + ".failedRetentionHours", 7 * 24)
+	
+	// the build directories of the jobs whose outbox holds something
+	private static final Set<File> PENDING = new HashSet<File>()
+	
+	File dir
+	
+	
+	private final File buildPath
+	
+	
+	Outbox(File buildPath){
+		this.buildPath = buildPath
+		dir = new File(buildPath, OUTBOX_DIR)
+	}
+	
+	
+	boolean exists(){
+		dir.isDirectory()
+	}
+	
+	/**
+	 * Tells whether this outbox holds nothing at all : no entry, no publication, no discarded file.
+	 */
+	boolean isEmpty(){
+		String[] names = dir.list()
+		return (names == null) || (names.length == 0)
+	}
+	
+	
+	// ******************* registry ************************
+	
+	/**
+	 * Registers the outbox of the given build directory if it holds something. Called for every job once 
+	 * after a restart, the outboxes register themselves afterwards when something is stored.
+	 */
+	static void register(File buildPath){
+		Outbox outbox = new Outbox(buildPath)
+		if (! outbox.isEmpty()){
+			synchronized(PENDING){
+				PENDING.add buildPath
+			}
+		}
+	}
+	
+	/**
+	 * @return the outboxes that hold something, or did when last checked
+	 */
+	static List<Outbox> pending(){
+		synchronized(PENDING){
+			return PENDING.collect { new Outbox(it) }
+		}
+	}
+	
+	/**
+	 * Forgets this outbox if it holds nothing anymore. The check is done under the lock of the registry, 
+	 * the stores register after the file is written : an entry stored meanwhile is never missed.
+	 */
+	void unregisterIfEmpty(){
+		synchronized(PENDING){
+			if (isEmpty()){
+				PENDING.remove buildPath
+			}
+		}
+	}
+	
+	private void registerSelf(){
+		synchronized(PENDING){
+			PENDING.add buildPath
+		}
+	}
+	
+	
+	// ******************* entries ************************
+	
+	/**
+	 * Stores a request that should be posted later
+	 * 
+	 * @param server the server the request was intended to 
+	 * @param url the url to post to
+	 * @param payload the json payload
+	 */
+	void put(TMServer server, String url, String payload){
+		long now = System.currentTimeMillis()
+		
+		Entry entry = new Entry(
+			server : server.identifier,
+			serverUrl : server.url,
+			url : url,
+			payload : payload,
+			attempts : 0,
+			created : now,
+			nextAttempt : now
+		)
+		
+		dir.mkdirs()
+		entry.file = new File(dir, "${now}-${UUID.randomUUID()}${ENTRY_EXT}")
+		
+		write entry
+		registerSelf()
+	}
+	
+	/**
+	 * @return the entries currently stored, oldest first
+	 */
+	List<Entry> entries(){
+		def files = dir.listFiles({ File d, String name -> name.endsWith ENTRY_EXT } as FilenameFilter)
+		
+		if (files == null){
+			return []
+		}
+		
+		files.sort { it.name }.collect{ read it }.grep { it != null }
+	}
+	
+	/**
+	 * Saves the updated state of an entry (attempts etc)
+	 */
+	void update(Entry entry){
+		write entry
+	}
+	
+	/**
+	 * Removes an entry that was delivered
+	 */
+	void remove(Entry entry){
+		entry.file.delete()
+	}
+	
+	/**
+	 * Gives up on an entry. The file is kept for diagnostic purpose but won't be retried anymore, 
+	 * see {@link #purgeDiscarded(long)}.
+	 */
+	void discard(Entry entry){
+		discardFile entry.file
+	}
+	
+	/**
+	 * Deletes the files given up on for longer than the given time. Returns the number of deleted files.
+	 */
+	int purgeDiscarded(long maxAge){
+		def files = dir.listFiles({ File d, String name -> name.endsWith FAILED_EXT } as FilenameFilter)
+		
+		if (files == null){
+			return 0
+		}
+		
+		long limit = System.currentTimeMillis() - maxAge
+		files.findAll { it.lastModified() < limit }.count { it.delete() }
+	}
+	
+	
+	/**
+	 * Stores a publication that is queued, until it completes
+	 */
+	void putPublication(PendingPublication publication){
+		dir.mkdirs()
+		
+		File file = publicationFile publication.id
+		File temp = new File(dir, file.name + TEMP_EXT)
+		
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(temp)))
+		try{
+			out.writeObject publication
+		}
+		finally{
+			out.close()
+		}
+		
+		if (! temp.renameTo(file)){
+			temp.delete()
+			throw new IOException("could not write the pending publication ${file}")
+		}
+		
+		registerSelf()
+	}
+	
+	/**
+	 * @return the publications stored, oldest first
+	 */
+	List<PendingPublication> publications(){
+		def files = dir.listFiles({ File d, String name -> name.endsWith PUBLICATION_EXT } as FilenameFilter)
+		
+		if (files == null){
+			return []
+		}
+		
+		files.sort { it.lastModified() }.collect{ readPublication it }.grep { it != null }
+	}
+	
+	boolean hasPublication(String id){
+		publicationFile(id).exists()
+	}
+	
+	/**
+	 * Removes a publication that completed
+	 */
+	void removePublication(PendingPublication publication){
+		publicationFile(publication.id).delete()
+	}
+	
+	
+	/**
+	 * Tells whether a failed post is worth another attempt later : network errors, server errors, 
+	 * timeouts and throttling are, other client errors are not.
+	 * 
+	 * @param outcome the status line of the response, or the exception that prevented it
+	 * @return
+	 */
+	static boolean isWorthRetrying(outcome){
+		if (outcome instanceof IOException){
+			return true
+		}
+		if (outcome instanceof StatusLine){
+			int code = outcome.statusCode
+			return (code >= 500) || (code == 408) || (code == 429)
+		}
+		return false
+	}
+	
+	
+	// ******************* internals ************************
+	
+	private void write(Entry entry){
+		File temp = new File(dir, entry.file.name + TEMP_EXT)
+		temp.setText "${entry.metadata()}\n${entry.payload}", 'UTF-8'
+		
+		// renameTo won't overwrite on some platforms
+		entry.file.delete()
+		if (! temp.renameTo(entry.file)){
+			throw new IOException("could not write outbox entry ${entry.file}")
+		}
+	}
+	
+	// the retention of the discarded files starts now
+	private void discardFile(File file){
+		File discarded = new File(dir, file.name + FAILED_EXT)
+		if (file.renameTo(discarded)){
+			discarded.setLastModified System.currentTimeMillis()
+		}
+	}
+	
+	private File publicationFile(String id){
+		new File(dir, id + PUBLICATION_EXT)
+	}
+	
+	private PendingPublication readPublication(File file){
+		try{
+			ObjectInputStream input = new PluginObjectInputStream(new GZIPInputStream(new FileInputStream(file)))
+			try{
+				return (PendingPublication) input.readObject()
+			}
+			finally{
+				input.close()
+			}
+		}
+		catch(Exception ex){
+			// most likely written by another version of the plugin
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not read the pending publication ${file}, discarding it : ${ex.message}")
+			discardFile file
+			return null
+		}
+	}
+	
+	private Entry read(File file){
+		try{
+			String content = file.getText 'UTF-8'
+			int eol = content.indexOf '\n'
+			
+			JSONObject json = JSONObject.fromObject content.substring(0, eol)
+			
+			return new Entry(
+				file : file,
+				server : json.getString('server'),
+				serverUrl : json.getString('serverUrl'),
+				url : json.getString('url'),
+				payload : content.substring(eol + 1),
+				attempts : json.getInt('attempts'),
+				created : json.getLong('created'),
+				nextAttempt : json.getLong('nextAttempt')
+			)
+		}
+		catch(Exception ex){
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not read outbox entry ${file}, ignoring it : ${ex.message}")
+			return null
+		}
+	}
+	
+	
+	// the classes of the publication are those of the plugin, which the class loader of the caller may not see
+	private static final class PluginObjectInputStream extends ObjectInputStream{
+		
+		PluginObjectInputStream(InputStream input){
+			super(input)
+		}
+		
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try{
+				return Class.forName(desc.name, false, Outbox.class.classLoader)
+			}
+			catch(ClassNotFoundException ex){
+				return super.resolveClass(desc)
+			}
+		}
+	}
+	
+	
+	static final class Entry{
+		transient File file
+		
+		String server
+		String serverUrl
+		String url
+		String payload
+		int attempts
+		long created
+		long nextAttempt
+		
+		// the payload is not part of it
+		JSONObject metadata(){
+			JSONObject json = new JSONObject()
+			json.put 'server', server
+			json.put 'serverUrl', serverUrl
+			json.put 'url', url
+			json.put 'attempts', attempts
+			json.put 'created', created
+			json.put 'nextAttempt', nextAttempt
+			return json
+		}
+	}
+	
+}
@@ -0,0 +1,181 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.Extension
+import hudson.model.AsyncPeriodicWork
+import hudson.model.Job
+import hudson.model.TaskListener
+import jenkins.model.Jenkins
+import org.apache.http.StatusLine
+import org.jenkinsci.squashtm.core.Outbox.Entry
+import org.jenkinsci.squashtm.core.SquashTMPublisher.PublisherStepDescriptor
+import org.jenkinsci.squashtm.utils.HttpClient
+
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * <p>
+ * 	This background task periodically goes through the {@link Outbox}es that hold something (see {@link Outbox#pending()}) 
+ * 	and retries the requests that could not be delivered at build time. Failed attempts are retried with an exponential 
+ * 	backoff, and after {@link #MAX_ATTEMPTS} attempts the entry is discarded. The discarded entries are deleted after 
+ * 	a while (see {@link Outbox#FAILED_RETENTION_HOURS}). 
+ * </p>
+ * 
+ * <p>
+ * 	The first run after a restart looks into every job once, to register the outboxes left on the disk.
+ * </p>
+ * 
+ * <p>
+ * 	Since the outbox lives on the disk, the pending requests survive a restart of Jenkins. So do the publications 
+ * 	that were still queued : they are resumed here (see {@link PublicationTask#resume(PendingPublication, Outbox, TMServerRegistry)}).
+ * </p>
+ * 
+ * <p>
+ * 	The entries for a server whose {@link CircuitBreaker} is open are left alone until it closes.
+ * </p>
+ */
+@Extension
+class OutboxDrainer extends AsyncPeriodicWork {
+	
+	private final static Logger LOGGER = Logger.getLogger(OutboxDrainer.class.getName());
+	
+	// backoff, in milliseconds
+	static final long INITIAL_BACKOFF = 30 * 1000L
+	static final long MAX_BACKOFF = 60 * 60 * 1000L
+	
+	// with the backoff above, that's about two days
+	static final int MAX_ATTEMPTS = 60
+	
+	// whether the outboxes left on the disk were registered, see execute()
+	private boolean registered = false
+	
+	
+	OutboxDrainer(){
+		super("Squash TM outbox drainer")
+	}
+	
+	@Override
+	public long getRecurrencePeriod(){
+		MIN
+	}
+	
+	@Override
+	protected void execute(TaskListener listener){
+		
+		def descriptor = Jenkins.instance.getDescriptorByType PublisherStepDescriptor
+		TMServerRegistry servers = descriptor?.registry ?: new TMServerRegistry([])
+		
+		if (! registered){
+			Jenkins.instance.getAllItems(Job).each{ Job job -> Outbox.register job.buildDir }
+			registered = true
+		}
+		
+		long retention = Outbox.FAILED_RETENTION_HOURS * HOUR
+		
+		Outbox.pending().each{ Outbox outbox ->
+			resume outbox, servers, listener
+			drain outbox, servers, listener
+			outbox.purgeDiscarded retention
+			outbox.unregisterIfEmpty()
+		}
+	}
+	
+	void drain(Outbox outbox, TMServerRegistry servers, TaskListener listener){
+		
+		long now = System.currentTimeMillis()
+		
+		outbox.entries().findAll { it.nextAttempt <= now }.each{ Entry entry ->
+			
+			TMServer server = servers.findByIdentifier entry.server
+			
+			// no need to try (and to count an attempt) while the server is known to be down
+			if (server != null && ! CircuitBreaker.forServer(server).isAvailable()){
+				return
+			}
+			
+			def outcome
+			
+			if (server == null){
+				outcome = new IOException("server '${entry.server}' is not configured anymore")
+			}
+			else{
+				try{
+					outcome = HttpClient.withServer(server){ HttpClient client -> client.postJson(entry.url, entry.payload) }
+				}
+				catch(IOException ex){
+					outcome = ex
+				}
+			}
+			
+			if (isSuccess(outcome)){
+				listener.logger.println "[TM-PLUGIN] : delivered ${entry.url} after ${entry.attempts + 1} attempt(s)"
+				outbox.remove entry
+			}
+			else if (Outbox.isWorthRetrying(outcome) && (entry.attempts + 1 < MAX_ATTEMPTS)){
+				entry.attempts++
+				entry.nextAttempt = now + backoff(entry.attempts)
+				outbox.update entry
+			}
+			else{
+				LOGGER.log(Level.WARNING, "[TM-PLUGIN] : giving up on ${entry.url} for server '${entry.server}' after ${entry.attempts + 1} attempt(s), last outcome : ${outcome}")
+				outbox.discard entry
+			}
+		}
+	}
+	
+	/**
+	 * Queues again the publications interrupted by a restart
+	 */
+	void resume(Outbox outbox, TMServerRegistry servers, TaskListener listener){
+		
+		outbox.publications().findAll { ! PublicationTask.isLive(it.id) }.each{ PendingPublication publication ->
+			
+			PublicationTask task = PublicationTask.resume(publication, outbox, servers)
+			
+			if (task == null){
+				return
+			}
+			
+			listener.logger.println "[TM-PLUGIN] : resuming the publication of ${publication}"
+			
+			if (! PublishQueue.offer(task)){
+				// same as the builds do
+				task.publish listener.logger
+			}
+		}
+	}
+	
+	// the delay before the next attempt : doubles after each attempt, up to MAX_BACKOFF
+	static long backoff(int attempts){
+		long delay = INITIAL_BACKOFF << Math.min(attempts - 1, 20)
+		Math.min(delay, MAX_BACKOFF)
+	}
+	
+	private boolean isSuccess(outcome){
+		(outcome instanceof StatusLine) && (outcome.statusCode >= 200) && (outcome.statusCode < 300)
+	}
+	
+}
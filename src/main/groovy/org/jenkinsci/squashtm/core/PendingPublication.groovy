@@ -0,0 +1,67 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+/**
+ * <p>
+ * 	What a publication needs in order to post, taken when the build enqueues it (see {@link PublicationTask}) : which build 
+ * 	the results are read from, and where they go. The results themselves are not part of it : they are read from the test 
+ * 	reports of the build as they are posted (see {@link TestResultActionExtractor}).
+ * </p>
+ * 
+ * <p>
+ * 	It is stored in the {@link Outbox} of the job until the publication completes, so that a publication interrupted 
+ * 	by a restart of Jenkins is resumed (see {@link OutboxDrainer}).
+ * </p>
+ */
+class PendingPublication implements Serializable {
+	
+	private static final long serialVersionUID = 2L
+	
+	String id = UUID.randomUUID().toString()
+	
+	// the build, see Job#getFullName()
+	String jobName
+	int buildNumber
+	
+	PublicationStats stats
+	
+	// posting as normal : the identifiers of the selected servers
+	List<String> servers
+	
+	// posting as Squash TA : the endpoint, and the index of the test suite which tells the tests to post
+	String endpointUrl
+	Map<String, String> testmap
+	
+	
+	boolean isForSquashTA(){
+		endpointUrl != null
+	}
+	
+	@Override
+	String toString(){
+		"${jobName} #${buildNumber}"
+	}
+	
+}
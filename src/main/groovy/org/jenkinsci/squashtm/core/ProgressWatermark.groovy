@@ -0,0 +1,134 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.model.InvisibleAction
+import hudson.model.Run
+
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * <p>
+ * 	The watermark of a build that publishes its progress (see {@link SquashTMProgressPublisher}) : which tests were sent 
+ * 	already, and which test reports were read already. Each call to the step only reads the new or modified reports and 
+ * 	only sends the tests that were not sent yet. The final publication then skips them as well (see {@link SquashTMPublisher}).
+ * </p>
+ * 
+ * <p>
+ * 	Only the number of tests sent is saved with the build. The rest is kept in memory for as long as the build runs : 
+ * 	should Jenkins restart in the meantime, the tests are simply sent again.
+ * </p>
+ * 
+ * <p>
+ * 	The calls of the step for a build take turns (see {@link #publishing(Closure)}) : otherwise two calls made at the 
+ * 	same time would read the same reports, and send the same tests before either of them marks them as sent.
+ * </p>
+ */
+class ProgressWatermark extends InvisibleAction {
+	
+	// relative path of a report -> its last modification when it was read
+	private transient HashMap<String, Long> reports
+	
+	// the paths of the tests sent already, see TestResult#path
+	private transient Set<String> sent
+	
+	private int sentCount
+	
+	// held by the call of the step that is publishing, see publishing()
+	private transient ReentrantLock publishingLock
+	
+	
+	/**
+	 * Returns the watermark of the build, created if needed.
+	 */
+	static ProgressWatermark of(Run build){
+		synchronized(build){
+			ProgressWatermark watermark = build.getAction ProgressWatermark
+			if (watermark == null){
+				watermark = new ProgressWatermark()
+				build.addAction watermark
+			}
+			return watermark
+		}
+	}
+	
+	
+	/**
+	 * Runs the given work, from the reading of the reports to the marking of the tests sent, once the other calls 
+	 * of the step for that build are done. 
+	 * 
+	 * The watermark itself is not locked meanwhile : the tests are posted by other threads, which read it.
+	 */
+	public <T> T publishing(Closure<T> work){
+		ReentrantLock lock = getPublishingLock()
+		lock.lock()
+		try{
+			return work()
+		}
+		finally{
+			lock.unlock()
+		}
+	}
+	
+	
+	synchronized boolean isSent(String path){
+		getSent().contains path
+	}
+	
+	synchronized void markSent(Collection<String> paths){
+		getSent().addAll paths
+		sentCount = sent.size()
+	}
+	
+	synchronized int getSentCount(){
+		sentCount
+	}
+	
+	/**
+	 * The reports read already, as a copy.
+	 */
+	synchronized HashMap<String, Long> getReports(){
+		new HashMap<String, Long>(reports ?: [:])
+	}
+	
+	synchronized void setReports(Map<String, Long> reports){
+		this.reports = new HashMap<String, Long>(reports)
+	}
+	
+	
+	private synchronized ReentrantLock getPublishingLock(){
+		if (publishingLock == null){
+			publishingLock = new ReentrantLock()
+		}
+		return publishingLock
+	}
+	
+	private Set<String> getSent(){
+		if (sent == null){
+			sent = new HashSet<String>()
+		}
+		return sent
+	}
+	
+}
@@ -0,0 +1,207 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.model.Run
+import jenkins.model.RunAction2
+import org.jenkinsci.squashtm.lang.Messages
+import org.kohsuke.stapler.export.Exported
+import org.kohsuke.stapler.export.ExportedBean
+
+/**
+ * Attached to a build when its publication is queued (see {@link PublishQueue}) : shows the state of the publication, 
+ * its figures (see {@link PublicationStats}) and its log in a page of the build, and in the remote api of the build ('api/json').
+ *
+ */
+@ExportedBean
+class PublicationAction implements RunAction2 {
+	
+	static enum State {
+		QUEUED,
+		RUNNING,
+		DONE,
+		FAILED
+	}
+	
+	PublicationStats stats
+	
+	// null for the builds published by older versions, which published before the build completed
+	State state
+	
+	// why the publication failed, if it did
+	String error
+	
+	// the publication while it is queued or running
+	transient PublicationTask task
+	
+	// the id of the pending publication, see Outbox#putPublication()
+	String publicationId
+	
+	private transient Run run
+	
+	PublicationAction(PublicationStats stats){
+		this.stats = stats
+	}
+	
+	@Override
+	public void onAttached(Run run){
+		this.run = run
+	}
+	
+	@Override
+	public void onLoad(Run run){
+		this.run = run
+	}
+	
+	@Override
+	public String getUrlName(){
+		"squashtm-publication"
+	}
+	
+	@Override
+	public String getIconFileName(){
+		"clipboard.png"
+	}
+	
+	@Override
+	public String getDisplayName(){
+		Messages.tmpublisher_publication_title()
+	}
+	
+	
+	// ************ the state ************
+	
+	/**
+	 * @return the state of the publication. A publication that was queued or running when Jenkins 
+	 * stopped is reported as queued until it is resumed (see {@link OutboxDrainer}), or as failed 
+	 * if it can't be.
+	 */
+	@Exported
+	public State getState(){
+		if (state == null){
+			return State.DONE
+		}
+		if ((state == State.QUEUED || state == State.RUNNING) && task == null){
+			return isPending() ? State.QUEUED : State.FAILED
+		}
+		return state
+	}
+	
+	// whether the publication is still stored in the outbox of the job, waiting to be resumed
+	private boolean isPending(){
+		(publicationId != null) && (run != null) && new Outbox(run.parent.buildDir).hasPublication(publicationId)
+	}
+	
+	/**
+	 * @return the position of the publication in the queue, or 0 if it is not waiting
+	 */
+	@Exported
+	public int getQueuePosition(){
+		(task != null) ? PublishQueue.positionOf(task) : 0
+	}
+	
+	@Exported
+	public String getError(){
+		(error == null && getState() == State.FAILED) ? Messages.tmpublisher_publication_state_interrupted() : error
+	}
+	
+	public String getStatus(){
+		switch(getState()){
+			case State.QUEUED : return Messages.tmpublisher_publication_state_queued(getQueuePosition())
+			case State.RUNNING : return Messages.tmpublisher_publication_state_running()
+			case State.FAILED : return Messages.tmpublisher_publication_state_failed(getError())
+			default : return Messages.tmpublisher_publication_state_done()
+		}
+	}
+	
+	/**
+	 * @return the log of a publication that ran in the background, or null
+	 */
+	public String getLog(){
+		File file = (run != null) ? new File(run.rootDir, PublicationTask.LOG_FILENAME) : null
+		(file?.exists()) ? file.getText("UTF-8") : null
+	}
+	
+	
+	// ************ exported figures ************
+	
+	@Exported
+	public String getServer(){
+		stats.server
+	}
+	
+	/**
+	 * @return how the posting went for each server, when the results were sent to several servers
+	 */
+	@Exported
+	public Map<String, Map> getServerOutcomes(){
+		stats.serverOutcomes
+	}
+	
+	@Exported
+	public Map<String, Long> getPhases(){
+		stats.phases
+	}
+	
+	@Exported
+	public long getTotalTime(){
+		stats.totalTime
+	}
+	
+	@Exported
+	public int getPosted(){
+		stats.posted
+	}
+	
+	@Exported
+	public int getSkipped(){
+		stats.skipped
+	}
+	
+	@Exported
+	public int getFailed(){
+		stats.failed
+	}
+	
+	@Exported
+	public int getDeferred(){
+		stats.deferred
+	}
+	
+	@Exported
+	public int getRequests(){
+		stats.requests
+	}
+	
+	@Exported
+	public long getMeanRequestTime(){
+		stats.meanRequestTime
+	}
+	
+	@Exported
+	public long getMaxRequestTime(){
+		stats.maxRequestTime
+	}
+	
+}
@@ -0,0 +1,172 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import groovy.json.JsonOutput
+import hudson.Extension
+import hudson.model.RootAction
+import jenkins.model.Jenkins
+import org.jenkinsci.squashtm.utils.LatencyHistogram
+import org.kohsuke.stapler.StaplerRequest
+import org.kohsuke.stapler.StaplerResponse
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * <p>
+ * 	The controller-wide figures of the publications, served as json at the url '/squashtm-metrics/' : 
+ * 	<ul>
+ * 		<li>per Squash TM server : the number of requests, of failed requests, and the histogram of their latency,</li>
+ * 		<li>per phase of the publication : the histogram of its duration,</li>
+ * 		<li>the total numbers of test statuses posted, skipped, failed and deferred,</li>
+ * 		<li>the state of the {@link PublishQueue}.</li>
+ * 	</ul>
+ * </p>
+ * 
+ * <p>
+ * 	The figures are kept in memory since the start of Jenkins. See {@link PublicationStats} for those of a single build.
+ * </p>
+ */
+@Extension
+class PublicationMetrics implements RootAction {
+	
+	private static final ConcurrentMap<String, ServerMetrics> SERVERS = new ConcurrentHashMap<String, ServerMetrics>()
+	private static final ConcurrentMap<String, LatencyHistogram> PHASES = new ConcurrentHashMap<String, LatencyHistogram>()
+	
+	private static final AtomicLong PUBLICATIONS = new AtomicLong()
+	private static final AtomicLong POSTED = new AtomicLong()
+	private static final AtomicLong SKIPPED = new AtomicLong()
+	private static final AtomicLong FAILED = new AtomicLong()
+	private static final AtomicLong DEFERRED = new AtomicLong()
+	
+	
+	// ******************** recording ********************
+	
+	/**
+	 * Records a request sent to a server.
+	 * 
+	 * @param server the identifier of the server
+	 * @param millis how long it took
+	 * @param success whether it succeeded (2xx)
+	 */
+	static void recordRequest(String server, long millis, boolean success){
+		ServerMetrics metrics = serverMetrics server
+		metrics.latency.record millis
+		if (! success){
+			metrics.failures.incrementAndGet()
+		}
+	}
+	
+	/**
+	 * Records the figures of a build once it is published.
+	 * 
+	 * @param stats
+	 */
+	static void recordPublication(PublicationStats stats){
+		PUBLICATIONS.incrementAndGet()
+		
+		stats.phases.each{ String phase, Long millis ->
+			phaseHistogram(phase).record millis
+		}
+		
+		POSTED.addAndGet stats.posted
+		SKIPPED.addAndGet stats.skipped
+		FAILED.addAndGet stats.failed
+		DEFERRED.addAndGet stats.deferred
+	}
+	
+	private static ServerMetrics serverMetrics(String server){
+		ServerMetrics metrics = SERVERS.get server
+		if (metrics == null){
+			ServerMetrics created = new ServerMetrics()
+			metrics = SERVERS.putIfAbsent(server, created) ?: created
+		}
+		return metrics
+	}
+	
+	private static LatencyHistogram phaseHistogram(String phase){
+		LatencyHistogram histogram = PHASES.get phase
+		if (histogram == null){
+			LatencyHistogram created = new LatencyHistogram()
+			histogram = PHASES.putIfAbsent(phase, created) ?: created
+		}
+		return histogram
+	}
+	
+	
+	// ******************** reporting ********************
+	
+	static Map snapshot(){
+		[
+			publications : PUBLICATIONS.get(),
+			tests : [
+				posted : POSTED.get(),
+				skipped : SKIPPED.get(),
+				failed : FAILED.get(),
+				deferred : DEFERRED.get()
+			],
+			phases : PHASES.collectEntries{ phase, histogram -> [phase, histogram.toMap()] },
+			servers : SERVERS.collectEntries{ server, metrics -> 
+				[server, [failures : metrics.failures.get(), latency : metrics.latency.toMap()]]
+			},
+			queue : PublishQueue.snapshot()
+		]
+	}
+	
+	public void doIndex(StaplerRequest req, StaplerResponse rsp){
+		Jenkins.instance.checkPermission Jenkins.READ
+		
+		rsp.setContentType "application/json;charset=UTF-8"
+		rsp.setHeader "Cache-Control", "no-cache"
+		rsp.writer.write JsonOutput.toJson(snapshot())
+	}
+	
+	
+	// ******************** Action ********************
+	
+	@Override
+	public String getUrlName(){
+		"squashtm-metrics"
+	}
+	
+	// invisible in the user interface
+	@Override
+	public String getIconFileName(){
+		null
+	}
+	
+	@Override
+	public String getDisplayName(){
+		null
+	}
+	
+	
+	private static final class ServerMetrics{
+		final LatencyHistogram latency = new LatencyHistogram()
+		final AtomicLong failures = new AtomicLong()
+	}
+	
+}
@@ -0,0 +1,213 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+/**
+ * <p>
+ * 	The figures of the publication of a build : how long each phase took, how many test statuses were posted, skipped 
+ * 	(not part of the test suite) or failed, and how long the requests took. They are kept with the build 
+ * 	(see {@link PublicationAction}) and also fed to the controller-wide {@link PublicationMetrics}.
+ * </p>
+ * 
+ * <p>
+ * 	The requests may complete on other threads, hence the synchronization.
+ * </p>
+ */
+class PublicationStats implements Serializable{
+	
+	private static final long serialVersionUID = 1L
+	
+	// the phase names
+	static final String JOB_INFORMATION = "job information"
+	static final String TEST_LIST = "test list"
+	static final String TEST_SUITE_INDEX = "test suite index"
+	static final String TEST_REPORTS = "test reports"
+	static final String POSTING = "posting"
+	
+	// the identifier of the server, if known
+	String server
+	
+	// phase -> duration (ms), in the order they ran
+	private Map<String, Long> phases = new LinkedHashMap<String, Long>()
+	
+	private int posted = 0
+	private int skipped = 0
+	private int failed = 0
+	private int deferred = 0
+	
+	private int requests = 0
+	private long requestTime = 0
+	private long maxRequestTime = 0
+	
+	// server -> [posted, failed, error], when the results are sent to several servers
+	private Map<String, Map> serverOutcomes = new LinkedHashMap<String, Map>()
+	
+	// the paths of the failed tests that won't be retried in the background, see TestResult#path. Not kept with the build.
+	private transient Set<String> undelivered
+	
+	
+	/**
+	 * Runs the given closure and records how long it took under the given phase name.
+	 * 
+	 * @param phase
+	 * @param work
+	 * @return what the closure returned
+	 */
+	def time(String phase, Closure work){
+		long start = System.nanoTime()
+		try{
+			return work()
+		}
+		finally{
+			addPhase phase, (System.nanoTime() - start).intdiv(1000000)
+		}
+	}
+	
+	synchronized void addPhase(String phase, long millis){
+		phases[phase] = (phases[phase] ?: 0L) + millis
+	}
+	
+	synchronized void recordRequest(long millis){
+		requests++
+		requestTime += millis
+		maxRequestTime = Math.max(maxRequestTime, millis)
+	}
+	
+	synchronized void addPosted(int count){
+		posted += count
+	}
+	
+	synchronized void addSkipped(int count){
+		skipped += count
+	}
+	
+	synchronized void addFailed(int count){
+		failed += count
+	}
+	
+	synchronized void addDeferred(int count){
+		deferred += count
+	}
+	
+	/**
+	 * Records the paths of tests that failed and won't be retried in the background, so that the caller may send 
+	 * them again later (see {@link SquashTMProgressPublisher}). They are counted as failed separately.
+	 */
+	synchronized void addUndelivered(Collection<String> paths){
+		if (undelivered == null){
+			undelivered = new HashSet<String>()
+		}
+		undelivered.addAll paths
+	}
+	
+	/**
+	 * Adds the figures of the given stats to these ones : the test counts, the undelivered tests and the requests. 
+	 */
+	void merge(PublicationStats other){
+		// lock one at a time
+		int[] counts
+		long[] times
+		synchronized(other){
+			counts = [other.posted, other.skipped, other.failed, other.deferred, other.requests] as int[]
+			times = [other.requestTime, other.maxRequestTime] as long[]
+		}
+		Set<String> otherUndelivered = other.getUndelivered()
+		synchronized(this){
+			if (! otherUndelivered.isEmpty()){
+				addUndelivered otherUndelivered
+			}
+			posted += counts[0]
+			skipped += counts[1]
+			failed += counts[2]
+			deferred += counts[3]
+			requests += counts[4]
+			requestTime += times[0]
+			maxRequestTime = Math.max(maxRequestTime, times[1])
+		}
+	}
+	
+	/**
+	 * Records how the posting to one server went.
+	 * 
+	 * @param server the identifier of the server
+	 * @param posted how many results it got
+	 * @param failed how many results it didn't get
+	 * @param error why not, or null if all went well
+	 */
+	synchronized void recordServer(String server, int posted, int failed, String error){
+		// builds saved by older versions
+		if (serverOutcomes == null){
+			serverOutcomes = new LinkedHashMap<String, Map>()
+		}
+		serverOutcomes[server] = [posted : posted, failed : failed, error : error]
+	}
+	
+	
+	// ************** getters **************
+	
+	synchronized Map<String, Long> getPhases(){
+		new LinkedHashMap<String, Long>(phases)
+	}
+	
+	synchronized int getPosted(){
+		posted
+	}
+	
+	synchronized int getSkipped(){
+		skipped
+	}
+	
+	synchronized int getFailed(){
+		failed
+	}
+	
+	synchronized int getDeferred(){
+		deferred
+	}
+	
+	synchronized Set<String> getUndelivered(){
+		(undelivered != null) ? new HashSet<String>(undelivered) : Collections.<String>emptySet()
+	}
+	
+	synchronized Map<String, Map> getServerOutcomes(){
+		(serverOutcomes != null) ? new LinkedHashMap<String, Map>(serverOutcomes) : [:]
+	}
+	
+	synchronized int getRequests(){
+		requests
+	}
+	
+	synchronized long getMeanRequestTime(){
+		(requests == 0) ? 0 : requestTime.intdiv(requests)
+	}
+	
+	synchronized long getMaxRequestTime(){
+		maxRequestTime
+	}
+	
+	synchronized long getTotalTime(){
+		phases.values().sum(0L)
+	}
+	
+}
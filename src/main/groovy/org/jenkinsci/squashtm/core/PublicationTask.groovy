@@ -0,0 +1,230 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.model.Job
+import hudson.model.Run
+import jenkins.model.Jenkins
+import org.jenkinsci.squashtm.core.PublicationAction.State
+import org.jenkinsci.squashtm.tawrapper.SquashTAPoster
+import org.jenkinsci.squashtm.utils.JobInformationsFactory
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * <p>
+ * 	The posting of the results of a build, once the build has gathered what it needs (see {@link PendingPublication}) : 
+ * 	the job informations and the index of the test suite in TA mode. The results are read from the test reports of the 
+ * 	build while they are posted (see {@link TestResultActionExtractor}). It normally runs in the 
+ * 	{@link PublishQueue}, after the build completed : its log is then written to the file {@link #LOG_FILENAME} of the build, 
+ * 	shown by the {@link PublicationAction}.
+ * </p>
+ * 
+ * <p>
+ * 	The pending publication is stored in the {@link Outbox} of the job until the task completes. If Jenkins stops meanwhile, 
+ * 	the {@link OutboxDrainer} resumes it after the restart (see {@link #resume(PendingPublication, Outbox, TMServerRegistry)}).
+ * </p>
+ */
+class PublicationTask implements Runnable {
+	
+	private final static Logger LOGGER = Logger.getLogger(PublicationTask.class.getName())
+	
+	static final String LOG_FILENAME = "squashtm-publication.log"
+	
+	// the publications of this session that are not complete, the drainer must not resume them
+	private static final Set<String> LIVE = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+	
+	Run build
+	PendingPublication publication
+	PublicationStats stats
+	PublicationAction action
+	
+	// reads the results of the build
+	TestResultActionExtractor extractor
+	
+	// where the pending publication is stored, if it is
+	Outbox outbox
+	
+	// either one, depending on whether the build runs for Squash TA
+	SquashTAPoster taPoster
+	ResultPoster poster
+	
+	
+	/**
+	 * Stores the pending publication in the given outbox, until the task completes. If it can't be stored the 
+	 * publication goes on, it just won't survive a restart.
+	 */
+	void persist(Outbox outbox){
+		LIVE.add publication.id
+		try{
+			outbox.putPublication publication
+			this.outbox = outbox
+		}
+		catch(IOException ex){
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not store the publication of ${publication}, it won't be resumed after a restart", ex)
+		}
+	}
+	
+	/**
+	 * Publishes in the background, see {@link PublishQueue}.
+	 */
+	@Override
+	public void run(){
+		PrintStream log = new PrintStream(new FileOutputStream(getLogFile(), true), true, "UTF-8")
+		try{
+			publish log
+		}
+		finally{
+			log.close()
+		}
+	}
+	
+	/**
+	 * Publishes and logs to the given stream.
+	 */
+	void publish(PrintStream logger){
+		
+		action.state = State.RUNNING
+		
+		try{
+			if (taPoster != null){
+				taPoster.logger = logger
+				taPoster.postResults extractor
+			}
+			else{
+				poster.logger = logger
+				poster.postResults extractor
+			}
+			
+			int duplicates = extractor.duplicatePaths.size()
+			if (duplicates > 0){
+				logger.println "[TM-PLUGIN] : warning : ${duplicates} test(s) were reported by more than one child build, "+
+								"only the first occurrence of each was kept"
+			}
+			
+			logger.println "[TM-PLUGIN] : publication took ${stats.totalTime} ms, ${stats.posted} test status(es) posted, " +
+							"${stats.skipped} skipped, ${stats.failed} failed"
+			
+			action.state = State.DONE
+		}
+		catch(Exception ex){
+			logger.println "[TM-PLUGIN] : the publication failed : ${ex.message}"
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : the publication of ${build.fullDisplayName} failed", ex)
+			action.error = ex.toString()
+			action.state = State.FAILED
+		}
+		finally{
+			action.task = null
+			PublicationMetrics.recordPublication stats
+			save()
+			
+			outbox?.removePublication publication
+			LIVE.remove publication.id
+		}
+	}
+	
+	File getLogFile(){
+		new File(build.rootDir, LOG_FILENAME)
+	}
+	
+	// the action of the build holds the figures and the state of the publication
+	private void save(){
+		try{
+			build.save()
+		}
+		catch(IOException ex){
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not save ${build.fullDisplayName}", ex)
+		}
+	}
+	
+	
+	/**
+	 * @return whether that publication was queued or run since Jenkins started
+	 */
+	static boolean isLive(String id){
+		LIVE.contains id
+	}
+	
+	/**
+	 * Rebuilds the task of a publication that was stored in the given outbox before Jenkins stopped. Returns null 
+	 * if it can't be resumed, in which case it is removed from the outbox.
+	 */
+	static PublicationTask resume(PendingPublication publication, Outbox outbox, TMServerRegistry registry){
+		
+		Job job = Jenkins.instance.getItemByFullName(publication.jobName, Job)
+		Run build = job?.getBuildByNumber(publication.buildNumber)
+		
+		if (build == null){
+			LOGGER.log(Level.INFO, "[TM-PLUGIN] : the build of the pending publication ${publication} doesn't exist anymore, discarding it")
+			outbox.removePublication publication
+			return null
+		}
+		
+		// the workspace is only needed to index the test suite, which was done before the restart
+		JobInformations info = JobInformationsFactory.create build, null
+		
+		PublicationTask task = new PublicationTask(build : build, publication : publication, stats : publication.stats, outbox : outbox)
+		
+		task.extractor = new TestResultActionExtractor(
+			build : build,
+			info : info,
+			watermark : build.getAction(ProgressWatermark)
+		)
+		
+		if (publication.isForSquashTA()){
+			SquashTAPoster taPoster = new SquashTAPoster(registry, info, null)
+			taPoster.stats = publication.stats
+			if (! taPoster.resume(publication)){
+				LOGGER.log(Level.WARNING, "[TM-PLUGIN] : the pending publication ${publication} can't be resumed " + 
+										"(${publication.endpointUrl} is not configured anymore, or the test suite is unknown), discarding it")
+				outbox.removePublication publication
+				return null
+			}
+			task.taPoster = taPoster
+		}
+		else{
+			ResultPoster poster = new ResultPoster(registry.findAllByIdentifiers(publication.servers), info, null)
+			poster.stats = publication.stats
+			task.poster = poster
+		}
+		
+		PublicationAction action = build.getAction(PublicationAction)
+		if (action == null){
+			action = new PublicationAction(publication.stats)
+			build.addAction action
+		}
+		
+		action.stats = publication.stats
+		action.state = State.QUEUED
+		action.task = task
+		task.action = action
+		
+		LIVE.add publication.id
+		
+		return task
+	}
+	
+}
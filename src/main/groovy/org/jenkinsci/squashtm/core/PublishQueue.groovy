@@ -0,0 +1,152 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.util.DaemonThreadFactory
+import hudson.util.NamingThreadFactory
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * <p>
+ * 	The controller-wide queue of the publications (see {@link PublicationTask}) : the builds enqueue their publication 
+ * 	and complete without waiting for Squash TM. The publications are run by a bounded pool of workers.
+ * </p>
+ * 
+ * <p>
+ * 	The queue itself is bounded too. When it is full the build publishes by itself ({@link #offer(PublicationTask)} 
+ * 	returns false) : a Squash TM that can't keep up slows the builds down instead of filling the memory of the controller.
+ * </p>
+ * 
+ * <p>
+ * 	Also, no more than {@link #PER_SERVER_LIMIT} publications post to the same server at the same time (see 
+ * 	{@link #withServerPermit(TMServer, Closure)}), so that a slow server doesn't get all the workers.
+ * </p>
+ * 
+ * <p>
+ * 	The sizes can be set with the system properties 'org.jenkinsci.squashtm.core.PublishQueue.workers', 
+ * 	'.capacity' and '.perServer'.
+ * </p>
+ */
+class PublishQueue {
+	
+	static final int WORKERS = Integer.getInteger(PublishQueue.class.name + ".workers", 4)
+	
+	static final int CAPACITY = Integer.getInteger(PublishQueue.class.name + ".capacity", 100)
+	
+	static final int PER_SERVER_LIMIT = Integer.getInteger(PublishQueue.class.name + ".perServer", 2)
+	
+	private static final ThreadPoolExecutor EXECUTOR = createExecutor()
+	
+	// server url -> permits
+	private static final ConcurrentMap<String, Semaphore> SERVER_PERMITS = new ConcurrentHashMap<String, Semaphore>()
+	
+	
+	/**
+	 * Enqueues the given publication.
+	 * 
+	 * @param task
+	 * @return true if it was queued, false if the queue is full, in which case the caller should run it itself
+	 */
+	static boolean offer(PublicationTask task){
+		try{
+			EXECUTOR.execute task
+			return true
+		}
+		catch(RejectedExecutionException ex){
+			return false
+		}
+	}
+	
+	/**
+	 * @param task
+	 * @return the position (starting at 1) of that publication in the queue, or 0 if it is not waiting
+	 */
+	static int positionOf(PublicationTask task){
+		int position = 1
+		for (Runnable queued : EXECUTOR.queue){
+			if (queued.is(task)){
+				return position
+			}
+			position++
+		}
+		return 0
+	}
+	
+	/**
+	 * Runs the given closure once this publication may post to that server, see {@link #PER_SERVER_LIMIT}.
+	 * 
+	 * @return what the closure returned
+	 */
+	static withServerPermit(TMServer server, Closure work){
+		Semaphore permits = serverPermits server
+		permits.acquire()
+		try{
+			return work()
+		}
+		finally{
+			permits.release()
+		}
+	}
+	
+	/**
+	 * @return the state of the queue, for the metrics
+	 */
+	static Map snapshot(){
+		[
+			queued : EXECUTOR.queue.size(),
+			running : EXECUTOR.activeCount,
+			workers : WORKERS,
+			capacity : CAPACITY
+		]
+	}
+	
+	
+	private static Semaphore serverPermits(TMServer server){
+		String key = CircuitBreaker.normalize(server.url)
+		Semaphore permits = SERVER_PERMITS.get key
+		if (permits == null){
+			Semaphore created = new Semaphore(PER_SERVER_LIMIT, true)
+			permits = SERVER_PERMITS.putIfAbsent(key, created) ?: created
+		}
+		return permits
+	}
+	
+	private static ThreadPoolExecutor createExecutor(){
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			WORKERS, WORKERS, 60, TimeUnit.SECONDS, 
+			new LinkedBlockingQueue<Runnable>(CAPACITY),
+			new NamingThreadFactory(new DaemonThreadFactory(), "SquashTM publication")
+		)
+		executor.allowCoreThreadTimeOut true
+		return executor
+	}
+	
+}
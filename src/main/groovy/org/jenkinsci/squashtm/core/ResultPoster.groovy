@@ -23,8 +23,347 @@
  */
 package org.jenkinsci.squashtm.core
 
+import com.fasterxml.jackson.core.JsonGenerator
+import hudson.util.DaemonThreadFactory
+import hudson.util.NamingThreadFactory
+import org.apache.http.StatusLine
+import org.jenkinsci.squashtm.tawrapper.SquashTAPoster
+import org.jenkinsci.squashtm.utils.HttpClient
+import org.jenkinsci.squashtm.utils.JsonWritable
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * <p>
+ * 	Posts the results of a build that was not run for Squash TA to the servers selected in the job configuration 
+ * 	(see {@link SquashTMPublisher#getSelectedServers()}). 
+ * </p>
+ * 
+ * <p>
+ * 	Squash TM has no endpoint for such results yet : {@link #RESULTS_PATH} is only a placeholder. Until there is one 
+ * 	the poster sends nothing, unless the system property <code>org.jenkinsci.squashtm.core.ResultPoster.enabled</code> 
+ * 	is set to <code>true</code> (see {@link #ENABLED}).
+ * </p>
+ * 
+ * <p>
+ * 	The results are uploaded in bulk : each request carries a json array of {@link TestResult} records, up to 
+ * 	{@link #maxResultsPerRequest} of them. The records are read from the iterator as the request body is written 
+ * 	(with the chunked transfer encoding), so that a request body is never built in memory. The results themselves 
+ * 	come from whatever the iterator reads, for each server a new iterator is asked for.
+ * </p>
+ * 
+ * <p>
+ * 	When several servers are selected the results are sent to all of them in parallel, each with its own iterator 
+ * 	over the results. How it went for each server is recorded separately (see {@link PublicationStats#getServerOutcomes()}) : 
+ * 	a server that is down doesn't prevent the others from getting the results.
+ * </p>
+ * 
+ * <p>
+ * 	When a request fails for a reason that might be temporary (see {@link Outbox#isWorthRetrying(Object)}) the server 
+ * 	is given up on : the results of that request and all the remaining ones are stored in the {@link Outbox} of the job, 
+ * 	and retried in the background. A request whose payload was refused only fails its own results. A Squash TM that 
+ * 	answers with one of {@link SquashTAPoster#BULK_REJECTED_CODES} doesn't know the endpoint, and gets nothing more. 
+ * 	The results that were not delivered are counted as failed either way.
+ * </p>
+ */
 class ResultPoster {
-	void postResults(JobInformations info, Collection<TestResult> results, PrintStream logger){
-		// NOOP for now
+	
+	private final static Logger LOGGER = Logger.getLogger(ResultPoster.class.getName())
+	
+	// sends to the servers in parallel. The number of publications is bounded by the PublishQueue, and so is this pool
+	private static final ExecutorService FAN_OUT = Executors.newCachedThreadPool(
+		new NamingThreadFactory(new DaemonThreadFactory(), "SquashTM result fan-out")
+	)
+	
+	/*
+	 * The endpoint that accepts the test results. Its payload is a json array of TestResult. 
+	 * 
+	 * Squash TM doesn't have it yet, which is why nothing is posted unless ENABLED.
+	 */
+	static final String RESULTS_PATH = "/automated-executions/test-results"
+	
+	static final boolean ENABLED = Boolean.getBoolean(ResultPoster.class.name + ".enabled")
+	
+	static final int MAX_RESULTS_PER_REQUEST = Integer.getInteger(ResultPoster.class.name + ".maxResultsPerRequest", 5000)
+	
+	// must be initialized
+	Collection<TMServer> servers = []
+	JobInformations info
+	PrintStream logger
+	
+	int maxResultsPerRequest = MAX_RESULTS_PER_REQUEST
+	
+	boolean enabled = ENABLED
+	
+	// the figures of the publication, see SquashTMPublisher
+	PublicationStats stats = new PublicationStats()
+	
+	// where the requests that failed are kept for later, see defer()
+	private Outbox outbox
+	
+	
+	ResultPoster(){
+		
+	}
+	
+	ResultPoster(Collection<TMServer> servers, JobInformations info, PrintStream logger){
+		this.servers = servers
+		this.info = info
+		this.logger = logger
+	}
+	
+	void postResults(Collection<TestResult> results){
+		postResultsFrom { results.iterator() }
+	}
+	
+	void postResults(TestResultBatch results){
+		postResultsFrom { results.iterator() }
+	}
+	
+	void postResults(TestResultActionExtractor extractor){
+		postResultsFrom { extractor.iterateResults() }
+	}
+	
+	/*
+	 * 'resultSource' returns a new iterator over the results to post, it is called once per server
+	 */
+	private void postResultsFrom(Closure<Iterator<TestResult>> resultSource){
+		
+		if (! enabled){
+			logln "[TM-PLUGIN] : Squash TM doesn't accept the results of builds not run for Squash TA yet, no data sent"
+			return
+		}
+		
+		if (servers.isEmpty()){
+			logln "[TM-PLUGIN] : no Squash TM server selected for this job, no data sent"
+			return
+		}
+		
+		stats.server = servers.collect{ it.identifier }.join(', ')
+		
+		stats.time(PublicationStats.POSTING){
+			
+			if (servers.size() == 1){
+				postToServer servers.iterator().next(), resultSource
+			}
+			else{
+				Map<TMServer, Future> futures = new LinkedHashMap<TMServer, Future>()
+				servers.each{ TMServer server ->
+					futures[server] = FAN_OUT.submit({ postToServer server, resultSource } as Callable)
+				}
+				futures.each{ TMServer server, Future future -> await server, future }
+			}
+		}
+		
+		def outcomes = stats.serverOutcomes
+		def failing = outcomes.findAll { it.value.error != null }.keySet()
+		if (outcomes.size() > 1){
+			logln "[TM-PLUGIN] : results delivered to ${outcomes.size() - failing.size()} server(s) out of ${outcomes.size()}" + 
+					(failing.isEmpty() ? "" : ", failed for : ${failing.join(', ')}")
+		}
+	}
+	
+	private void postToServer(TMServer server, Closure<Iterator<TestResult>> resultSource){
+		try{
+			PublishQueue.withServerPermit(server){
+				HttpClient.withServer(server){ HttpClient client -> postTo server, client, resultSource() }
+			}
+		}
+		catch(Exception ex){
+			// the other servers still get their results
+			logln "[TM-PLUGIN] : could not send the results to ${server.identifier} : ${ex.message}"
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not send the results to ${server.identifier}", ex)
+			stats.recordServer server.identifier, 0, 0, ex.toString()
+		}
+	}
+	
+	private void await(TMServer server, Future future){
+		try{
+			future.get()
+		}
+		catch(ExecutionException ex){
+			// postToServer already handles the exceptions, this is unexpected
+			LOGGER.log(Level.WARNING, "[TM-PLUGIN] : posting to ${server.identifier} failed", ex.cause)
+		}
+	}
+	
+	
+	void postTo(TMServer server, HttpClient httpclient, Iterator<TestResult> results){
+		
+		logln "[TM-PLUGIN] : sending results to ${server.identifier}"
+		
+		String url = normalize(server.url) + RESULTS_PATH
+		
+		int posted = 0
+		int failed = 0
+		int requests = 0
+		String error = null
+		
+		while (results.hasNext()){
+			
+			ResultBatch batch = new ResultBatch(results, maxResultsPerRequest)
+			def outcome
+			long start = System.nanoTime()
+			
+			try{
+				outcome = httpclient.postOnce url, batch
+			}
+			catch(IOException ex){
+				outcome = ex
+			}
+			finally{
+				stats.recordRequest((System.nanoTime() - start).intdiv(1000000))
+			}
+			
+			requests++
+			
+			if (isSuccess(outcome)){
+				posted += batch.written
+				continue
+			}
+			
+			error = describe(outcome)
+			failed += batch.written
+			
+			if ((outcome instanceof StatusLine) && (outcome.statusCode in SquashTAPoster.BULK_REJECTED_CODES)){
+				// that version of Squash TM doesn't know the endpoint, there is no point in sending the rest nor in retrying
+				stats.addUndelivered batch.results*.path
+				int unsent = skip(results)
+				failed += unsent
+				logln "[TM-PLUGIN] : ${server.identifier} doesn't accept the test results (${describe(outcome)}), " +
+						"${batch.written + unsent} result(s) not delivered"
+			}
+			else if (Outbox.isWorthRetrying(outcome) && canDefer()){
+				// the server is likely down : this batch and the ones to come wait in the outbox
+				defer server, url, batch.results
+				int unsent = deferRemaining(server, url, results)
+				failed += unsent
+				logln "[TM-PLUGIN] : request ${requests} to ${server.identifier} -> ${describe(outcome)}, " +
+						"${batch.written + unsent} result(s) not delivered, they will be retried later"
+			}
+			else if (Outbox.isWorthRetrying(outcome)){
+				stats.addUndelivered batch.results*.path
+				int unsent = skip(results)
+				failed += unsent
+				logln "[TM-PLUGIN] : request ${requests} to ${server.identifier} -> ${describe(outcome)}, " +
+						"${batch.written + unsent} result(s) not delivered, giving up on that server"
+			}
+			else{
+				// that payload was refused, the next ones may not be
+				stats.addUndelivered batch.results*.path
+				logln "[TM-PLUGIN] : request ${requests} to ${server.identifier} -> ${describe(outcome)}, " +
+						"${batch.written} result(s) not delivered"
+				continue
+			}
+			
+			break
+		}
+		
+		stats.addPosted posted
+		stats.addFailed failed
+		stats.recordServer server.identifier, posted, failed, error
+		
+		logln "[TM-PLUGIN] : ${posted} result(s) sent to ${server.identifier} in ${requests} request(s)"
+	}
+	
+	
+	// ***********************private methods ***********************
+	
+	private boolean canDefer(){
+		info?.buildPath != null
+	}
+	
+	// stores the results in the outbox of the job, see OutboxDrainer
+	private synchronized void defer(TMServer server, String url, List<TestResult> results){
+		if (outbox == null){
+			outbox = new Outbox(info.buildPath)
+		}
+		outbox.put server, url, HttpClient.toJson(new ResultBatch(results.iterator(), results.size()))
+		stats.addDeferred 1
+	}
+	
+	// defers what remains of the results, in requests of the usual size, and returns how many there were
+	private int deferRemaining(TMServer server, String url, Iterator<TestResult> results){
+		int count = 0
+		while (results.hasNext()){
+			List<TestResult> chunk = []
+			while (chunk.size() < maxResultsPerRequest && results.hasNext()){
+				chunk << results.next()
+			}
+			defer server, url, chunk
+			count += chunk.size()
+		}
+		return count
+	}
+	
+	// consumes what remains of the results, which won't be delivered, and returns how many there were
+	private int skip(Iterator<TestResult> results){
+		List<String> paths = []
+		while (results.hasNext()){
+			paths << results.next().path
+		}
+		stats.addUndelivered paths
+		return paths.size()
+	}
+	
+	private boolean isSuccess(outcome){
+		(outcome instanceof StatusLine) && (outcome.statusCode >= 200) && (outcome.statusCode < 300)
+	}
+	
+	private String describe(outcome){
+		(outcome instanceof Throwable) ? "error : ${outcome.message}" : outcome.toString()
+	}
+	
+	private normalize(String url){
+		return url?.replaceAll('\\/*$', "")
+	}
+	
+	void logln(String message){	logger.println message }
+	
+	
+	// *********************** inner classes ***************************
+	
+	/*
+	 * The body of a request : up to 'max' results read from the iterator as the body is written.
+	 */
+	private static final class ResultBatch implements JsonWritable{
+		
+		private final Iterator<TestResult> source
+		private final int max
+		
+		// what was written, so that it can be deferred if the request fails
+		final List<TestResult> results = []
+		
+		// the stack traces are sent once per request
+		private final FailureMessages messages = new FailureMessages()
+		
+		ResultBatch(Iterator<TestResult> source, int max){
+			this.source = source
+			this.max = max
+		}
+		
+		int getWritten(){
+			results.size()
+		}
+		
+		@Override
+		public void writeJson(JsonGenerator generator) throws IOException {
+			generator.writeStartArray()
+			while (results.size() < max && source.hasNext()){
+				TestResult result = source.next()
+				FailureMessage failure = result.failure
+				result.writeJson generator, (failure != null) ? messages.deduplicate(result.path, failure) : result.message
+				results << result
+			}
+			generator.writeEndArray()
+		}
+		
 	}
+	
 }
@@ -0,0 +1,200 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.Extension
+import hudson.FilePath
+import hudson.Launcher
+import hudson.Util
+import hudson.model.AbstractProject
+import hudson.model.Run
+import hudson.model.TaskListener
+import hudson.tasks.BuildStepDescriptor
+import hudson.tasks.Builder
+import jenkins.model.Jenkins
+import jenkins.tasks.SimpleBuildStep
+import org.jenkinsci.Symbol
+import org.jenkinsci.squashtm.core.SquashTMPublisher.PublisherStepDescriptor
+import org.jenkinsci.squashtm.lang.Messages
+import org.jenkinsci.squashtm.tawrapper.SquashTAPoster
+import org.jenkinsci.squashtm.utils.JobInformationsFactory
+import org.kohsuke.stapler.DataBoundConstructor
+import org.kohsuke.stapler.DataBoundSetter
+
+/**
+ * <p>
+ * 	A build step that publishes the results of the build while it's still running, so that Squash TM can follow the 
+ * 	progress of a long test suite instead of receiving everything at the end. It can be called as many times as needed 
+ * 	during the build (eg after each test stage, or in a loop in a parallel branch of a pipeline). The calls made at the 
+ * 	same time for a build take turns.
+ * </p>
+ * 
+ * <p>
+ * 	Each call reads the JUnit reports of the workspace that match {@link #testResults} and that are new or modified 
+ * 	since the previous call (see {@link JUnitReportScanner}), and sends the tests that were not sent yet. What was sent 
+ * 	is remembered by the {@link ProgressWatermark} of the build, which the final publication (see {@link SquashTMPublisher}) 
+ * 	honors as well.
+ * </p>
+ * 
+ * <p>
+ * 	The results go where the final publication would send them : to the requesting server for a Squash TA run, else to 
+ * 	the servers listed in {@link #servers}, or by default to those selected for the {@link SquashTMPublisher} of the job. 
+ * 	Squash TM can't receive the latter yet : unless the {@link ResultPoster} was explicitly enabled, the step does nothing 
+ * 	for a build that is not a Squash TA run.
+ * 	Unlike the final publication, the results are posted right away : the step is meant to be called with a few results 
+ * 	at a time.
+ * </p>
+ */
+public class SquashTMProgressPublisher extends Builder implements SimpleBuildStep {
+	
+	/**
+	 * the JUnit reports to read, as an ant pattern relative to the workspace
+	 */
+	final String testResults
+	
+	/**
+	 * the identifiers of the servers, comma separated. Used when the build doesn't run for Squash TA.
+	 */
+	String servers
+	
+	
+	@DataBoundConstructor
+	public SquashTMProgressPublisher(String testResults){
+		this.testResults = testResults
+	}
+	
+	@DataBoundSetter
+	public void setServers(String servers){
+		this.servers = Util.fixEmptyAndTrim(servers)
+	}
+	
+	
+	@Override
+	public void perform(Run build, FilePath workspace, Launcher launcher, TaskListener listener){
+		
+		def logger = listener.logger
+		
+		PublicationStats stats = new PublicationStats()
+		
+		JobInformations info = stats.time(PublicationStats.JOB_INFORMATION){ JobInformationsFactory.create build, workspace }
+		
+		boolean forSquashTA = info.usesTAWrapper && info.tawrapperParameters?.isTestRunBuild()
+		
+		// Squash TM can't receive the other results yet, see ResultPoster
+		if (! forSquashTA && ! ResultPoster.ENABLED){
+			logger.println "[TM-PLUGIN] : the progress is only published for the Squash TA runs, no data sent"
+			return
+		}
+		
+		ProgressWatermark watermark = ProgressWatermark.of build
+		
+		// the calls made at the same time for that build would send the same tests
+		watermark.publishing {
+			
+			JUnitReportScanner.Reports reports = stats.time(PublicationStats.TEST_REPORTS){
+				workspace.act new JUnitReportScanner(
+					includes : testResults, 
+					parsed : watermark.reports, 
+					buildTime : build.startTimeInMillis
+				)
+			}
+			
+			if (reports.files == 0){
+				logger.println "[TM-PLUGIN] : no new test report, nothing to publish"
+				return
+			}
+			
+			logger.println "[TM-PLUGIN] : publishing the progress of the build, ${reports.files} new test report(s)"
+			
+			def extractor = new TestResultActionExtractor(
+				build : build,
+				info : info,
+				reports : reports.result,
+				watermark : watermark,
+				extractedPaths : Collections.synchronizedSet(new HashSet<String>())
+			)
+			
+			def conf = Jenkins.instance.getDescriptorByType PublisherStepDescriptor
+			
+			if (forSquashTA){
+				def poster = new SquashTAPoster(conf.registry, info, logger)
+				poster.stats = stats
+				poster.postResults extractor
+			}
+			else{
+				def poster = new ResultPoster(getTMServers(build, conf), info, logger)
+				poster.stats = stats
+				poster.postResults extractor
+			}
+			
+			PublicationMetrics.recordPublication stats
+			
+			// the tests that failed for good will be sent again, by the next call or by the final publication : their 
+			// reports are read again. Those retried in the background (see Outbox) count as sent.
+			Set<String> undelivered = stats.undelivered
+			
+			watermark.markSent extractor.extractedPaths.findAll { ! undelivered.contains(it) }
+			
+			if (undelivered.isEmpty()){
+				watermark.reports = reports.parsed
+			}
+			
+			logger.println "[TM-PLUGIN] : ${stats.posted} test status(es) posted, ${stats.skipped} skipped, ${stats.failed} failed, " + 
+							"${watermark.sentCount} sent since the beginning of the build"
+		}
+	}
+	
+	
+	// the servers listed, or those of the final publication
+	private List<TMServer> getTMServers(Run build, PublisherStepDescriptor conf){
+		
+		if (servers != null){
+			return conf.registry.findAllByIdentifiers(servers.split(',')*.trim())
+		}
+		
+		def job = build.parent
+		SquashTMPublisher publisher = (job in AbstractProject) ? job.publishersList.get(SquashTMPublisher) : null
+		
+		return (publisher != null) ? conf.registry.findAllByIdentifiers(publisher.selectedServers*.identifier) : []
+	}
+	
+	
+	// ************************* Descriptor section *************************************
+	
+	@Extension
+	@Symbol("squashtmProgress")
+	public static class DescriptorImpl extends BuildStepDescriptor<Builder>{
+		
+		@Override
+		public String getDisplayName() {
+			Messages.tmpublisher_progress_displayname()
+		}
+		
+		public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+			true
+		}
+		
+	}
+	
+}
@@ -40,6 +40,7 @@ import org.jenkinsci.Symbol
 import org.jenkinsci.squashtm.lang.Messages
 import org.jenkinsci.squashtm.tawrapper.SquashTAPoster
 import org.jenkinsci.squashtm.tawrapper.TestListSaver
+import org.jenkinsci.squashtm.utils.HttpClient
 import org.jenkinsci.squashtm.utils.JobInformationsFactory
 import org.kohsuke.stapler.DataBoundConstructor
 import org.kohsuke.stapler.StaplerRequest
@@ -92,20 +93,24 @@ public class SquashTMPublisher extends Notifier implements SimpleBuildStep{
 	public void perform(Run build, FilePath workspace, Launcher launcher, TaskListener listener){
 		
 		def logger = listener.logger
+		
+		// how long each phase takes, and what was posted
+		PublicationStats stats = new PublicationStats()
 				
 		// create the job information
 		logger.println "[TM-PLUGIN] : extracting job information"
-		JobInformations info = JobInformationsFactory.create build, workspace
+		JobInformations info = stats.time(PublicationStats.JOB_INFORMATION){ JobInformationsFactory.create build, workspace }
 				
 		// extract the test data
 		logger.println "[TM-PLUGIN] : collecting test result data"		
 		def extractor = new TestResultActionExtractor(
 			build : build,
-			info : info
+			info : info,
+			// the tests sent already while the build was running, if any (see SquashTMProgressPublisher)
+			watermark : build.getAction(ProgressWatermark)
 		)
 		
-		def results = extractor.collectResults()
-		
+		// the tests are extracted lazily by the consumers below, which only extract what they need
 		
 		// saving the test list for later use in the TestListAction
 		if (info.usesTAWrapper){
@@ -113,28 +118,84 @@ public class SquashTMPublisher extends Notifier implements SimpleBuildStep{
 			
 			logger.println "[TM-PLUGIN] : saving the test list"
 			def saver = new TestListSaver(info, logger)
-			saver.saveTestList results
+			stats.time(PublicationStats.TEST_LIST){ saver.saveTestPaths extractor.collectPaths() }
 		}
 		
 		/*
 		 * posting the results : 
 		 * - either as Squash TA if the wrapper is enabled (and the TA wrapper was invoked for a 'run tests' build, 
-		 * - either as normal. 
+		 * - either as normal, to the servers selected for this job. 
 		 * 
-		 *  For now the normal case is not yet supported.	
+		 * What needs the workspace is done now (the test suite index in TA mode), the posting itself is queued 
+		 * (see PublishQueue) so that the build doesn't wait for Squash TM. The results are read from the test reports 
+		 * of the build as they are posted.
 		 */
 		
 		def conf = getDescriptor()
 		
+		def publication = new PendingPublication(
+			jobName : build.parent.fullName,
+			buildNumber : build.number,
+			stats : stats
+		)
+		
+		def task = new PublicationTask(
+			build : build,
+			publication : publication,
+			stats : stats
+		)
+		
 		if (info.usesTAWrapper && info.tawrapperParameters.isTestRunBuild()){
 			// post as Squash TA
-			def poster = new SquashTAPoster(conf.tmServers, info, logger)
-			poster.postResults results
+			def poster = new SquashTAPoster(conf.registry, info, logger)
+			poster.stats = stats
+			
+			if (! poster.prepare()){
+				return
+			}
+			task.taPoster = poster
+			
+			publication.endpointUrl = poster.endpointUrl
+			publication.testmap = poster.testmap
 		
 		}else{
-			// post as normal (not yet supported)
-			def poster = new ResultPoster()
-			poster.postResults info, results, logger
+			// post as normal, if there is anywhere to post to
+			if (! ResultPoster.ENABLED){
+				logger.println "[TM-PLUGIN] : Squash TM doesn't accept the results of builds not run for Squash TA yet, no data sent"
+				return
+			}
+			
+			def selected = getSelectedTMServers(conf)
+			if (selected.isEmpty()){
+				logger.println "[TM-PLUGIN] : no Squash TM server selected for this job, no data sent"
+				return
+			}
+			
+			def poster = new ResultPoster(selected, info, logger)
+			poster.stats = stats
+			task.poster = poster
+			
+			publication.servers = selected.collect { it.identifier }
+		}
+		
+		// the tests are read from the build as they are posted, only what the publication needs to find them is stored
+		task.extractor = extractor
+		task.persist new Outbox(info.buildPath)
+		
+		def action = new PublicationAction(stats)
+		action.publicationId = publication.id
+		action.state = PublicationAction.State.QUEUED
+		action.task = task
+		task.action = action
+		build.addAction action
+		
+		if (PublishQueue.offer(task)){
+			logger.println "[TM-PLUGIN] : the results will be posted in the background, see the page '${action.displayName}' of the build"
+		}
+		else{
+			// backpressure : the queue is full, let's publish ourselves
+			logger.println "[TM-PLUGIN] : the publication queue is full, posting the results now"
+			task.publish logger
 		}
 				
 		logger.println "[TM-PLUGIN] : job done"
@@ -142,6 +203,16 @@ public class SquashTMPublisher extends Notifier implements SimpleBuildStep{
 
 	
 	
+	public List<SelectedServer> getSelectedServers(){
+		selectedServers
+	}
+	
+	// the configured servers this job posts to
+	private List<TMServer> getSelectedTMServers(PublisherStepDescriptor conf){
+		conf.registry.findAllByIdentifiers selectedServers.collect { it.identifier }
+	}
+	
+	
 	// ************************* Descriptor section *************************************
 
 	/*
@@ -160,10 +231,22 @@ public class SquashTMPublisher extends Notifier implements SimpleBuildStep{
 		
 		List<TMServer> tmServers
 		
+		// the index of the servers, rebuilt when the configuration is loaded or saved
+		private transient volatile TMServerRegistry registry
+		
 		public PublisherStepDescriptor(){
 			load();
 		}
 		
+		public TMServerRegistry getRegistry(){
+			TMServerRegistry current = registry
+			if (current == null){
+				current = new TMServerRegistry(tmServers)
+				registry = current
+			}
+			return current
+		}
+		
 		private void reset(){
 			tmServers = []
 		}
@@ -186,10 +269,15 @@ public class SquashTMPublisher extends Notifier implements SimpleBuildStep{
 			
 			req.bindJSON(this, json)
 			
+			registry = new TMServerRegistry(tmServers)
+			
 			// we save the configuration even when it's invalid,
 			// because dumping the user conf over a petty typo in a URL and not letting the user know is so jerk-ish
 			// the user had a chance to validate before applying the configuration so let's assume he knows what he's doing.
 			save();
+			
+			// the shared http clients may refer to obsolete servers, they are closed once the publications are done with them
+			HttpClient.closeAll()
 
 			true
 			
@@ -30,6 +30,7 @@ import hudson.util.FormValidation
 import hudson.util.FormValidation.URLCheck
 import org.jenkinsci.squashtm.lang.Messages
 import org.kohsuke.stapler.DataBoundConstructor
+import org.kohsuke.stapler.DataBoundSetter
 import org.kohsuke.stapler.QueryParameter
 
 import javax.servlet.ServletException
@@ -44,15 +45,62 @@ import java.util.logging.Logger
  *
  */
 // TODO : delegate the login and password to Jenkins credential manager instead ?
-public final class TMServer extends AbstractDescribableImpl<TMServer>{
+public final class TMServer extends AbstractDescribableImpl<TMServer> implements Serializable{
+	
+	private static final long serialVersionUID = 1L
 	
 	private final static Logger LOGGER = Logger.getLogger(TMServer.class.getName());
 	
+	static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4
+	
+	// in seconds
+	static final int DEFAULT_CONNECT_TIMEOUT = 10
+	static final int DEFAULT_SOCKET_TIMEOUT = 60
+	
+	static final String IS_ALIVE_PATH = '/isSquashAlive'
+	static final String SQUASH_IS_ALIVE = "Squash is Alive!"
+	
 	String identifier
 	String url
 	String login
 	String password
 	
+	/**
+	 * How many test statuses are sent in a single request when posting as Squash TA. A value of 1 or less 
+	 * disables the batched mode (one request per test). 
+	 */
+	int batchSize = 1
+	
+	/**
+	 * How many requests can be in flight for that server at any time (this is also the size of the connection pool).
+	 */
+	int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS
+	
+	/**
+	 * How long we wait for a connection to that server, in seconds.
+	 */
+	int connectTimeout = DEFAULT_CONNECT_TIMEOUT
+	
+	/**
+	 * How long we wait for that server to answer, in seconds.
+	 */
+	int socketTimeout = DEFAULT_SOCKET_TIMEOUT
+	
+	/**
+	 * Whether the bodies of the requests are gzipped. Off by default : the server (or the proxy in front of it) 
+	 * must accept the Content-Encoding 'gzip'.
+	 */
+	boolean compressRequests = false
+	
+	/**
+	 * Whether the test statuses are posted by the build agents rather than by the controller (Squash TA mode) : the agent 
+	 * that holds the test suite posts them, through its own network path to that server 
+	 * (see {@link org.jenkinsci.squashtm.tawrapper.AgentPostingCallable}). Builds that ran on the controller are not concerned. 
+	 * 
+	 * Off by default : when it is on, the agents are given the credentials of the server.
+	 */
+	boolean postFromAgents = false
+	
 	@DataBoundConstructor
 	public TMServer(String identifier, String url, String login, String password){
 		this.identifier = identifier;
@@ -61,6 +109,81 @@ public final class TMServer extends AbstractDescribableImpl<TMServer>{
 		this.password = password;
 	}
 	
+	@DataBoundSetter
+	public void setBatchSize(int batchSize){
+		this.batchSize = batchSize
+	}
+	
+	@DataBoundSetter
+	public void setMaxConcurrentRequests(int maxConcurrentRequests){
+		this.maxConcurrentRequests = maxConcurrentRequests
+	}
+	
+	@DataBoundSetter
+	public void setConnectTimeout(int connectTimeout){
+		this.connectTimeout = connectTimeout
+	}
+	
+	@DataBoundSetter
+	public void setSocketTimeout(int socketTimeout){
+		this.socketTimeout = socketTimeout
+	}
+	
+	@DataBoundSetter
+	public void setCompressRequests(boolean compressRequests){
+		this.compressRequests = compressRequests
+	}
+	
+	@DataBoundSetter
+	public void setPostFromAgents(boolean postFromAgents){
+		this.postFromAgents = postFromAgents
+	}
+	
+	// configurations saved by older versions have no value for those
+	
+	public int getMaxConcurrentRequests(){
+		(maxConcurrentRequests > 0) ? maxConcurrentRequests : DEFAULT_MAX_CONCURRENT_REQUESTS
+	}
+	
+	public int getConnectTimeout(){
+		(connectTimeout > 0) ? connectTimeout : DEFAULT_CONNECT_TIMEOUT
+	}
+	
+	public int getSocketTimeout(){
+		(socketTimeout > 0) ? socketTimeout : DEFAULT_SOCKET_TIMEOUT
+	}
+	
+	/**
+	 * @return the state of that server as seen by its {@link CircuitBreaker}
+	 */
+	public String getStatus(){
+		CircuitBreaker.forServer(this).describe()
+	}
+	
+	
+	/**
+	 * @return a copy of that server without the password field, for the agents that post the results (see 
+	 * {@link org.jenkinsci.squashtm.tawrapper.AgentPostingCallable}). They are given {@link #basicAuthorization()} instead, 
+	 * which holds the same credentials : this spares the password field a trip, it doesn't keep the password from the agents.
+	 */
+	public TMServer withoutPassword(){
+		TMServer copy = new TMServer(identifier, url, login, null)
+		copy.batchSize = batchSize
+		copy.maxConcurrentRequests = maxConcurrentRequests
+		copy.connectTimeout = connectTimeout
+		copy.socketTimeout = socketTimeout
+		copy.compressRequests = compressRequests
+		copy.postFromAgents = postFromAgents
+		return copy
+	}
+	
+	/**
+	 * @return the value of the header 'Authorization' for that server
+	 */
+	public String basicAuthorization(){
+		"Basic " + "${login}:${password}".toString().getBytes("UTF-8").encodeBase64().toString()
+	}
+	
 	
 	public boolean isValid(){							
 		validate() == FormValidation.OK			
@@ -109,7 +232,6 @@ public final class TMServer extends AbstractDescribableImpl<TMServer>{
 	 */
 	private static final class TMServerValidator extends URLCheck{
 
-		private static final String SQUASH_IS_ALIVE = "Squash is Alive!"
 		TMServer toCheck;
 		
 		public TMServerValidator(){
@@ -162,8 +284,14 @@ public final class TMServer extends AbstractDescribableImpl<TMServer>{
 			BufferedReader reader = null;
 			boolean isAlive =false;
 			try{
-				URL url = new URL(toCheck.url+'/isSquashAlive')
-				reader = open(url)
+				URL url = new URL(toCheck.url + IS_ALIVE_PATH)
+				
+				// unlike URLCheck.open(), we don't wait forever
+				URLConnection connection = url.openConnection()
+				connection.connectTimeout = toCheck.connectTimeout * 1000
+				connection.readTimeout = toCheck.socketTimeout * 1000
+				
+				reader = new BufferedReader(new InputStreamReader(connection.inputStream, "UTF-8"))
 				isAlive = findText(reader, SQUASH_IS_ALIVE) 
 			}
 			catch(MalformedURLException ex){
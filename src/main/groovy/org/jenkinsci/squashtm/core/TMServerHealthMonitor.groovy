@@ -0,0 +1,91 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import hudson.Extension
+import hudson.model.AsyncPeriodicWork
+import hudson.model.TaskListener
+import jenkins.model.Jenkins
+import org.jenkinsci.squashtm.core.SquashTMPublisher.PublisherStepDescriptor
+import org.jenkinsci.squashtm.utils.HttpClient
+
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * <p>
+ * 	This background task periodically checks that the configured Squash TM servers are alive (using the url '/isSquashAlive'), 
+ * 	and reports it to their {@link CircuitBreaker}. That way a server that went down is noticed before the builds 
+ * 	try to post to it, and a server that is back is noticed before the breaker lets a trial request through.
+ * </p>
+ * 
+ * <p>
+ * 	The checks use the timeouts configured for each server.
+ * </p>
+ */
+@Extension
+class TMServerHealthMonitor extends AsyncPeriodicWork {
+	
+	private final static Logger LOGGER = Logger.getLogger(TMServerHealthMonitor.class.getName());
+	
+	TMServerHealthMonitor(){
+		super("Squash TM health monitor")
+	}
+	
+	@Override
+	public long getRecurrencePeriod(){
+		MIN
+	}
+	
+	@Override
+	protected void execute(TaskListener listener){
+		
+		def descriptor = Jenkins.instance.getDescriptorByType PublisherStepDescriptor
+		Collection<TMServer> servers = descriptor?.registry?.servers ?: []
+		
+		servers.each{ TMServer server ->
+			check server, CircuitBreaker.forServer(server), listener
+		}
+	}
+	
+	void check(TMServer server, CircuitBreaker breaker, TaskListener listener){
+		
+		try{
+			if (HttpClient.withServer(server){ HttpClient client -> client.isAlive(server.url) }){
+				breaker.recordSuccess()
+			}
+			else{
+				breaker.recordFailure "${server.url}${TMServer.IS_ALIVE_PATH} did not answer '${TMServer.SQUASH_IS_ALIVE}'"
+			}
+		}
+		catch(IOException ex){
+			// the probe is recorded here only, the client leaves the breaker alone (see HttpClient#isAlive)
+			breaker.recordFailure ex.toString()
+			LOGGER.log(Level.FINE, "[TM-PLUGIN] : server '${server.identifier}' could not be reached", ex)
+		}
+		
+		listener.logger.println "[TM-PLUGIN] : server '${server.identifier}' : ${breaker.state}"
+	}
+	
+}
@@ -0,0 +1,116 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+/**
+ * <p>
+ * 	An immutable index of the configured {@link TMServer}s, by canonical url and by identifier. The global 
+ * 	configuration rebuilds it when it is loaded or saved (see {@link SquashTMPublisher.PublisherStepDescriptor#getRegistry()}), 
+ * 	so that the builds don't have to scan and normalize the whole list for each lookup.
+ * </p>
+ * 
+ * <p>
+ * 	Urls are compared once canonicalized (see {@link #canonicalize(String)}) : 'HTTP://TM:80/squash/' and 'http://tm/squash' 
+ * 	are the same server. When two entries share a url or an identifier, the first one wins.
+ * </p>
+ */
+class TMServerRegistry {
+	
+	private final List<TMServer> servers
+	private final Map<String, TMServer> byUrl = new HashMap<String, TMServer>()
+	private final Map<String, TMServer> byIdentifier = new HashMap<String, TMServer>()
+	
+	TMServerRegistry(Collection<TMServer> servers){
+		this.servers = Collections.unmodifiableList(new ArrayList<TMServer>(servers ?: []))
+		
+		this.servers.each{ TMServer server ->
+			String url = canonicalize server.url
+			if (url != null && ! byUrl.containsKey(url)){
+				byUrl[url] = server
+			}
+			if (! byIdentifier.containsKey(server.identifier)){
+				byIdentifier[server.identifier] = server
+			}
+		}
+	}
+	
+	/**
+	 * @return the servers, in the order of the configuration
+	 */
+	List<TMServer> getServers(){
+		servers
+	}
+	
+	TMServer findByUrl(String url){
+		byUrl[canonicalize(url)]
+	}
+	
+	TMServer findByIdentifier(String identifier){
+		byIdentifier[identifier]
+	}
+	
+	/**
+	 * @return the servers having one of these identifiers, in the order of the configuration
+	 */
+	List<TMServer> findAllByIdentifiers(Collection<String> identifiers){
+		Set<String> wanted = new HashSet<String>(identifiers)
+		servers.findAll { wanted.contains(it.identifier) && byIdentifier[it.identifier].is(it) }
+	}
+	
+	/**
+	 * Canonicalizes an url : the scheme and the host are lowercased, the default port and the trailing slashes 
+	 * are removed. Urls that can't be parsed are only stripped of their trailing slashes.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	static String canonicalize(String url){
+		if (url == null){
+			return null
+		}
+		
+		String trimmed = url.trim()
+		
+		try{
+			URI uri = new URI(trimmed)
+			
+			if (uri.scheme == null || uri.host == null){
+				return CircuitBreaker.normalize(trimmed)
+			}
+			
+			String scheme = uri.scheme.toLowerCase(Locale.ENGLISH)
+			int port = uri.port
+			if ((scheme == 'http' && port == 80) || (scheme == 'https' && port == 443)){
+				port = -1
+			}
+			String path = (uri.rawPath ?: '').replaceAll('/+$', '')
+			
+			return scheme + '://' + uri.host.toLowerCase(Locale.ENGLISH) + ((port == -1) ? '' : ':' + port) + path
+		}
+		catch(URISyntaxException ex){
+			return CircuitBreaker.normalize(trimmed)
+		}
+	}
+	
+}
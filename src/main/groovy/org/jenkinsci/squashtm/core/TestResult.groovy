@@ -23,10 +23,10 @@
  */
 package org.jenkinsci.squashtm.core
 
-import groovy.transform.EqualsAndHashCode
+import com.fasterxml.jackson.core.JsonGenerator
+import org.jenkinsci.squashtm.utils.JsonWritable
 
-@EqualsAndHashCode(includeFields=true, includes='systemUnderTest,projectName,testID,host,name,path,status,resultURL,message')
-public class TestResult implements Serializable{
+public class TestResult implements Serializable, JsonWritable{
 	
 	/**
 	 * The reference of the system under test (usually a name and a version)
@@ -76,6 +76,17 @@ public class TestResult implements Serializable{
 	 */
 	private String message
 	
+	/**
+	 * The message of the failed test, when it was formatted by {@link FailureMessages}. Takes precedence over the message.
+	 */
+	private FailureMessage failure
+	
+	/**
+	 * Formats the message on first use, if set : it returns either a {@link FailureMessage} or the message itself. 
+	 * The message of a failed test is big, and not needed until it is posted.
+	 */
+	private transient Closure messageSupplier
+	
 	/**
 	 * The URL where the result can be browsed.
 	 */
@@ -93,7 +104,112 @@ public class TestResult implements Serializable{
 		super()
 	}
 	
+	public String getMessage(){
+		formatMessage()
+		return (failure != null) ? failure.text : message
+	}
+	
+	public void setMessage(String message){
+		this.message = message
+		this.failure = null
+		this.messageSupplier = null
+	}
+	
+	/**
+	 * Returns the message of the failed test, if it was formatted by {@link FailureMessages}. Else see {@link #getMessage()}.
+	 */
+	public FailureMessage getFailure(){
+		formatMessage()
+		return failure
+	}
+	
+	public void setFailure(FailureMessage failure){
+		this.message = null
+		this.failure = failure
+		this.messageSupplier = null
+	}
 	
+	/**
+	 * Returns what formats the message, if it was not formatted yet
+	 */
+	public Closure getMessageSupplier(){
+		return messageSupplier
+	}
+	
+	public void setMessageSupplier(Closure messageSupplier){
+		this.message = null
+		this.failure = null
+		this.messageSupplier = messageSupplier
+	}
+	
+	private void formatMessage(){
+		if (messageSupplier != null){
+			def formatted = messageSupplier.call()
+			messageSupplier = null
+			
+			if (formatted in FailureMessage){
+				failure = formatted
+			}
+			else{
+				message = formatted
+			}
+		}
+	}
+	
+	// the supplier doesn't travel to the agents, the message does
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		formatMessage()
+		out.defaultWriteObject()
+	}
+	
+	
+
+	/*
+	 * The results are compared on what identifies the test and its outcome. The message is not compared : it comes 
+	 * from the test report the result url points to, and comparing it would format it.
+	 */
+	@Override
+	public boolean equals(Object other){
+		if (this.is(other)){
+			return true
+		}
+		if (! (other instanceof TestResult)){
+			return false
+		}
+		TestResult that = (TestResult) other
+		return path == that.path && status == that.status && resultURL == that.resultURL && testID == that.testID && 
+				name == that.name && projectName == that.projectName && systemUnderTest == that.systemUnderTest && host == that.host
+	}
+	
+	@Override
+	public int hashCode(){
+		Arrays.hashCode([path, status, resultURL] as Object[])
+	}
+	
+	/**
+	 * Writes this result as a json record, as posted by the {@link ResultPoster}.
+	 */
+	@Override
+	public void writeJson(JsonGenerator generator) throws IOException {
+		writeJson generator, getMessage()
+	}
+	
+	/**
+	 * Writes this result as a json record, with the given message instead of its own (see {@link FailureMessages#deduplicate(String, FailureMessage)}).
+	 */
+	public void writeJson(JsonGenerator generator, String message) throws IOException {
+		generator.writeStartObject()
+		generator.writeStringField 'systemUnderTest', systemUnderTest
+		generator.writeStringField 'projectName', projectName
+		generator.writeStringField 'testID', testID
+		generator.writeStringField 'host', host
+		generator.writeStringField 'name', name
+		generator.writeStringField 'path', path
+		generator.writeStringField 'status', status?.name()
+		generator.writeStringField 'message', message
+		generator.writeStringField 'resultURL', resultURL
+		generator.writeEndObject()
+	}
 
 	public String toString(){
 		return """{
@@ -104,7 +220,7 @@ public class TestResult implements Serializable{
 	name : ${name},
 	path : ${path},
 	status : ${status},
-	message : ${message},
+	message : ${getMessage()},
 	resultURL : ${resultURL}
 },
 """
@@ -26,91 +26,329 @@ package org.jenkinsci.squashtm.core
 import hudson.model.Run
 import hudson.tasks.test.AbstractTestResultAction
 import hudson.tasks.test.AggregatedTestResultAction
+import hudson.util.DaemonThreadFactory
+import hudson.util.NamingThreadFactory
 import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.logging.Logger
+
 import static org.jenkinsci.squashtm.core.TestResult.ExecutionStatus.*
 
 /**
- * That class will read a build's TestResultAction and find the tests it holds.
+ * <p>
+ * 	That class will read a build's TestResultAction and find the tests it holds.
+ * </p>
+ * 
+ * <p>
+ * 	The tests are extracted lazily : {@link #iterateResults(Closure)} walks the test reports as the caller consumes 
+ * 	the iterator, and only the tests whose path is accepted by the given filter are turned into a full {@link TestResult} 
+ * 	(message, stack trace, url...). {@link #collectPaths()} skips that step altogether. The messages of the failed tests 
+ * 	are only formatted when they are read (see {@link FailureMessages}).
+ * </p>
+ * 
+ * <p>
+ * 	The child reports of an aggregated build (matrix, maven modules...) are extracted in parallel on a pool shared by 
+ * 	all the builds, then merged in the order of the child reports. A test path found in several children is kept 
+ * 	only once (the first occurrence) and reported in {@link #duplicatePaths}.
+ * </p>
+ * 
+ * <p>
+ * 	When the build publishes its progress (see {@link SquashTMProgressPublisher}), the tests are read from the given 
+ * 	{@link #reports} instead, and the tests already sent according to the {@link #watermark} are skipped.
+ * </p>
  * 
  * @author bsiri
  *
  */
 class TestResultActionExtractor {
 
+	private static final Logger LOGGER = Logger.getLogger(TestResultActionExtractor.class.name)
+	
+	private static final Closure<Boolean> ALL_PATHS = { true }
+	
+	// the url of the test reports in a build, see hudson.tasks.junit.TestResultAction#getUrlName()
+	private static final String REPORTS_URL = "testReport"
+	
+	// formats the messages only, which doesn't need any state
+	private static final FailureMessages MESSAGES = new FailureMessages()
+	
+	private static final int EXTRACTION_THREADS = Math.max(1, Runtime.runtime.availableProcessors())
+	
+	// how many child reports may be extracted ahead of the consumer
+	private static final int EXTRACTION_WINDOW = EXTRACTION_THREADS * 2
+	
+	private static final ExecutorService EXTRACTION_POOL = Executors.newFixedThreadPool(EXTRACTION_THREADS, 
+		new NamingThreadFactory(new DaemonThreadFactory(), "SquashTM test extraction"))
+	
 	Run build
 	JobInformations info
+	
+	/**
+	 * the url of the build, relative to the host url. Resolved from the build on first use.
+	 */
+	String buildUrl
+	
+	/**
+	 * whether the child reports of an aggregated build should be extracted in parallel
+	 */
+	boolean parallel = true
+	
+	/**
+	 * the test paths found in more than one child report (shared with the child extractors)
+	 */
+	Set<String> duplicatePaths = Collections.synchronizedSet(new LinkedHashSet<String>())
+	
+	/**
+	 * the test reports parsed during the build, read instead of the TestResultAction when not null
+	 */
+	hudson.tasks.junit.TestResult reports
+	
+	/**
+	 * the tests sent already during the build, if any. They are not extracted again.
+	 */
+	ProgressWatermark watermark
+	
+	/**
+	 * when not null, collects the paths of the tests that were extracted (shared by the walks)
+	 */
+	Set<String> extractedPaths
 
-		
+	
+	/**
+	 * Returns all the test results of the build at once.
+	 * 
+	 * @return
+	 */
 	public Collection<TestResult> collectResults(){
+		iterateResults().toList()
+	}
+	
+	/**
+	 * Returns the test results of the build at once, in a compact form. To be preferred over {@link #collectResults()} 
+	 * when many results are held, see {@link TestResultBatch}.
+	 * 
+	 * @param pathFilter a closure that accepts a path and returns whether the test should be extracted
+	 * @return
+	 */
+	public TestResultBatch collectBatch(Closure<Boolean> pathFilter = ALL_PATHS){
+		TestResultBatch batch = new TestResultBatch(info.systemUnderTest, info.jobName, info.hostURL, 
+													"${info.hostURL}/${getBuildUrl()}".toString())
+		iterateResults(pathFilter).each { TestResult result -> batch.add result }
+		batch.trimToSize()
+		return batch
+	}
+	
+	/**
+	 * Returns the paths of all the tests of the build, as they would appear in {@link TestResult#path}. 
+	 * 
+	 * @return
+	 */
+	public Collection<String> collectPaths(){
+		walk(ALL_PATHS){ action, jenres, String path -> path }.toList()
+	}
+	
+	/**
+	 * Returns an iterator over the test results of the build. The tests are read as the iterator advances, 
+	 * and those whose path (see {@link TestResult#path}) is rejected by the filter are skipped before anything 
+	 * else is computed about them.
+	 * 
+	 * @param pathFilter a closure that accepts a path and returns whether the test should be extracted
+	 * @return
+	 */
+	public Iterator<TestResult> iterateResults(Closure<Boolean> pathFilter = ALL_PATHS){
+		
+		Closure<Boolean> filter = pathFilter
+		
+		if (watermark != null || extractedPaths != null){
+			filter = { String path ->
+				// the watermark goes first, so that the tests sent already aren't counted by the given filter
+				if (watermark?.isSent(path)){
+					return false
+				}
+				boolean accepted = pathFilter(path)
+				if (accepted && extractedPaths != null){
+					extractedPaths.add path
+				}
+				return accepted
+			}
+		}
+		
+		walk(filter){ action, jenres, String path -> toTestResult action, jenres, path }
+	}
+	
+	
+	/*
+	 * Walks the tests of the build, and returns what 'convert' makes of those accepted by the filter
+	 */
+	Iterator walk(Closure<Boolean> pathFilter, Closure convert){
 		
-		Collection<TestResult> results 
+		if (reports != null){
+			return fromSimple(reports, pathFilter, convert)
+		}
 		
 		AbstractTestResultAction action = build.getAction AbstractTestResultAction
 		
 		if (action == null){
-			return []
+			return [].iterator()
 		}
 		
 		if (action in  AggregatedTestResultAction){
-			results = fromAggregate action			
+			return fromAggregate(action, pathFilter, convert)			
 		}
 		else{
-			results = fromSimple action
+			return fromSimple(action, pathFilter, convert)
 		}
 		
-		results
-		
 	}
 	
-	Collection<TestResult> fromAggregate(AggregatedTestResultAction action){
+	Iterator fromAggregate(AggregatedTestResultAction action, Closure<Boolean> pathFilter, Closure convert){
 
-		def childReports = action.childReports
+		// the children yield pairs of [path, element] so that we can spot the duplicates
+		Closure keyedConvert = { childaction, jenres, String path -> [path, convert(childaction, jenres, path)] }
 		
-		def results = childReports.collect{ child ->
-			
-			def childbuild = child.run
-			
-			def childextractor = new TestResultActionExtractor(
-				build : childbuild,
-				info : info
-			)
-			
-			return childextractor.collectResults()
+		Closure<Iterator> nextChild = (parallel) ? 
+			extractChildrenInParallel(action.childReports, pathFilter, keyedConvert) :
+			extractChildren(action.childReports, pathFilter, keyedConvert)
+		
+		Iterator current = [].iterator()
+		Set<String> seen = new HashSet<String>()
+		
+		return new LazyIterator({
 			
-		}
+			while (true){
+				
+				while (current.hasNext()){
+					def (String path, element) = current.next()
+					
+					if (seen.add(path)){
+						return element
+					}
+					
+					if (duplicatePaths.add(path)){
+						LOGGER.fine "[TM-PLUGIN] : test '${path}' was reported by more than one child build of ${build}, only the first one is kept"
+					}
+				}
+				
+				current = nextChild()
+				
+				if (current == null){
+					return null
+				}
+			}
+		})
+		
+	}
+	
+	/*
+	 * Returns a closure that returns the iterator over the next child report, or null when there is none left.
+	 * The children are extracted by the consumer, one after the other.
+	 */
+	private Closure<Iterator> extractChildren(List childReports, Closure<Boolean> pathFilter, Closure convert){
 		
-		return results.flatten()
+		Iterator children = childReports.iterator()
 		
+		return {
+			children.hasNext() ? childExtractor(children.next()).walk(pathFilter, convert) : null
+		}
 	}
 	
-	Collection<TestResult> fromSimple(AbstractTestResultAction action){
-				
-		def tests = []
-		tests << action.passedTests << action.skippedTests << action.failedTests
-		tests = tests.flatten()
+	/*
+	 * Same as above, except that the children are extracted by the extraction pool. At most EXTRACTION_WINDOW 
+	 * children are extracted ahead of the consumer, so that the memory stays bounded.
+	 */
+	private Closure<Iterator> extractChildrenInParallel(List childReports, Closure<Boolean> pathFilter, Closure convert){
+		
+		Iterator children = childReports.iterator()
+		LinkedList<Future<List>> pending = new LinkedList<Future<List>>()
 		
-		def results = tests.collect{
-			def res = new TestResult()
-			def path = formatPath it
+		Closure fill = {
+			while (pending.size() < EXTRACTION_WINDOW && children.hasNext()){
+				TestResultActionExtractor extractor = childExtractor(children.next())
+				// the children don't use the pool themselves : it is bounded and we are waiting for them
+				extractor.parallel = false
+				pending << EXTRACTION_POOL.submit({ extractor.walk(pathFilter, convert).toList() } as Callable)
+			}
+		}
+		
+		return {
+			fill()
 			
-			res.systemUnderTest = info.systemUnderTest
-			res.projectName = info.jobName
-			res.testID = path
-			res.path = path
-			res.name = it.displayName
-			res.status = coerceStatus it
-			res.message = formatMessage it
-			res.host = info.hostURL
-			res.resultURL = formatUrl action, it
+			if (pending.isEmpty()){
+				return null
+			}
 			
-			return res
+			try{
+				return pending.removeFirst().get().iterator()
+			}
+			catch(ExecutionException ex){
+				throw ex.cause
+			}
 		}
+	}
+	
+	private TestResultActionExtractor childExtractor(child){
+		new TestResultActionExtractor(
+			build : child.run,
+			info : info,
+			duplicatePaths : duplicatePaths
+		)
+	}
+	
+	/*
+	 * 'action' is either the AbstractTestResultAction of the build or the reports parsed during the build, 
+	 * both of them list their passed, skipped and failed tests.
+	 */
+	Iterator fromSimple(action, Closure<Boolean> pathFilter, Closure convert){
 		
-		results
+		// the passed, skipped and failed tests are walked one list after the other instead of being concatenated
+		Iterator lists = [{ action.passedTests }, { action.skippedTests }, { action.failedTests }].iterator()
+		Iterator tests = [].iterator()
+		
+		return new LazyIterator({
+			
+			while (true){
+				
+				while (tests.hasNext()){
+					def jenres = tests.next()
+					def path = formatPath jenres
+					
+					if (pathFilter(path)){
+						return convert(action, jenres, path)
+					}
+				}
+				
+				if (! lists.hasNext()){
+					return null
+				}
+				
+				tests = lists.next().call().iterator()
+			}
+			
+		})
 		
 	}
 	
+	TestResult toTestResult(action, hudson.tasks.test.TestResult jenres, String path){
+		def res = new TestResult()
+		
+		res.systemUnderTest = info.systemUnderTest
+		res.projectName = info.jobName
+		res.testID = path
+		res.path = path
+		res.name = jenres.displayName
+		res.status = coerceStatus jenres
+		res.messageSupplier = formatMessage(jenres)
+		res.host = info.hostURL
+		res.resultURL = formatUrl action, jenres
+		
+		return res
+	}
+	
 	// **************** utils ********************
 	
 	private String formatPath(hudson.tasks.test.TestResult jenres){
@@ -124,25 +362,64 @@ class TestResultActionExtractor {
 		SUCCESS
 	}
 	
-	private String formatMessage(hudson.tasks.test.TestResult jenres){
-		def msg = ""
-		
-		def details = jenres.errorDetails
-		def stack = jenres.errorStackTrace
-		
-		if (details != null){			
-msg = """<p>
-	${details}
-	<br/>
-	${stack}
-</p>"""
+	// the message is formatted when read, see TestResult#getMessage()
+	private Closure<FailureMessage> formatMessage(hudson.tasks.test.TestResult jenres){
+		return { -> MESSAGES.format jenres.errorDetails, jenres.errorStackTrace }
+	}
+	
+	private String formatUrl(action, hudson.tasks.test.TestResult jenres){
+		// the reports parsed during the build will be published at the same place as those of the junit publisher
+		def testUrl = (action in AbstractTestResultAction) ? action.getTestResultPath(jenres) : 
+															 "${REPORTS_URL}/${jenres.getRelativePathFrom(null)}"
+		return "${info.hostURL}/${getBuildUrl()}$testUrl"
+	}
+	
+	// Run.getUrl() builds a new string each time, and we need it for every test
+	String getBuildUrl(){
+		if (buildUrl == null){
+			buildUrl = build.url
 		}
-		return msg
+		return buildUrl
 	}
+		
 	
-	private String formatUrl(AbstractTestResultAction action, hudson.tasks.test.TestResult jenres){
-		def testUrl = action.getTestResultPath jenres 
-		return "${info.hostURL}/${build.url}$testUrl"
+	// ************** inner classes **************
+	
+	/*
+	 * An iterator that asks for the next element only when needed. The closure 'computeNext' returns 
+	 * the next element, or null when there is none left.
+	 */
+	private static final class LazyIterator implements Iterator{
+		
+		private final Closure computeNext
+		private Object nextElement
+		private boolean computed = false
+		
+		LazyIterator(Closure computeNext){
+			this.computeNext = computeNext
+		}
+		
+		public boolean hasNext(){
+			if (! computed){
+				nextElement = computeNext()
+				computed = true
+			}
+			return nextElement != null
+		}
+		
+		public Object next(){
+			if (! hasNext()){
+				throw new NoSuchElementException()
+			}
+			def element = nextElement
+			nextElement = null
+			computed = false
+			return element
+		}
+		
+		public void remove(){
+			throw new UnsupportedOperationException()
+		}
 	}
 		
 }
@@ -0,0 +1,695 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import java.nio.charset.Charset
+
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+
+/**
+ * <p>
+ * 	A compact, append-only batch of test results, for when many of them must be held at once (the chunks sent 
+ * 	to the agents, the test list...). A {@link TestResult} per test costs several hundred bytes, most of them 
+ * 	spent on strings that the tests of a build largely have in common.
+ * </p>
+ * 
+ * <p>
+ * 	Here the values shared by all the tests (system under test, project, host, base url) are stored once. The paths 
+ * 	and urls are split on '/' and stored as a tree of segments : the tests of a class share the nodes of its package 
+ * 	and its name, and a row only refers to the node of its own path and the node of its own url. The segments and 
+ * 	the names are stored once in a pool of UTF-8 bytes, and the statuses are kept in a byte array. Once trimmed 
+ * 	(see {@link #trimToSize()}) the whole batch is a handful of primitive arrays. The messages only exist for the 
+ * 	failed tests, they are stored aside and are formatted when first read, as usual (see {@link TestResult#getMessage()}).
+ * </p>
+ * 
+ * <p>
+ * 	The rows are read with a {@link Cursor}, which builds nothing but the values asked for. {@link #iterator()} 
+ * 	builds a short-lived {@link TestResult} per row, for the code that needs one.
+ * </p>
+ * 
+ * <p>
+ * 	Not thread safe.
+ * </p>
+ */
+class TestResultBatch implements Serializable, Iterable<TestResult> {
+	
+	private static final long serialVersionUID = 1L
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8")
+	
+	private static final ExecutionStatus[] STATUSES = ExecutionStatus.values()
+	
+	private static final byte NO_STATUS = -1
+	
+	// for the names, the nodes, and the free slots of the hash tables
+	private static final int NONE = -1
+	
+	private static final int INITIAL_CAPACITY = 64
+	
+	
+	// shared by all the rows
+	private String systemUnderTest
+	private String projectName
+	private String host
+	private String urlPrefix = ""
+	private boolean initialized = false
+	
+	private final StringPool strings = new StringPool()
+	private final SegmentTree nodes = new SegmentTree()
+	
+	// the columns
+	private int size = 0
+	private int[] pathNodes = new int[INITIAL_CAPACITY]
+	private int[] urlNodes = new int[INITIAL_CAPACITY]
+	private int[] names = new int[INITIAL_CAPACITY]
+	private byte[] statuses = new byte[INITIAL_CAPACITY]
+	
+	// row -> message, for the rows that have one : a String, a FailureMessage, or a Closure that formats either of them
+	private final Map<Integer, Object> messages = new HashMap<Integer, Object>()
+	
+	// row -> what doesn't fit the columns above : a test id that differs from the path, an url that doesn't start 
+	// with the prefix, a row that doesn't share the common values. Rare enough to be kept as is.
+	private final Map<Integer, String> testIDs = new HashMap<Integer, String>()
+	private final Map<Integer, String> resultURLs = new HashMap<Integer, String>()
+	private final Map<Integer, TestResult> irregulars = new HashMap<Integer, TestResult>()
+	
+	
+	/**
+	 * Creates a batch whose common values are those of the first row added
+	 */
+	TestResultBatch(){
+		super()
+	}
+	
+	/**
+	 * Creates a batch for the tests of a build. The urls that start with the given prefix are stored without it.
+	 */
+	TestResultBatch(String systemUnderTest, String projectName, String host, String urlPrefix){
+		this.systemUnderTest = systemUnderTest
+		this.projectName = projectName
+		this.host = host
+		this.urlPrefix = urlPrefix ?: ""
+		this.initialized = true
+	}
+	
+	
+	int size(){
+		return size
+	}
+	
+	boolean isEmpty(){
+		return size == 0
+	}
+	
+	String getSystemUnderTest(){
+		return systemUnderTest
+	}
+	
+	String getProjectName(){
+		return projectName
+	}
+	
+	String getHost(){
+		return host
+	}
+	
+	
+	/**
+	 * Appends a result. A message not formatted yet is kept as is, and will be formatted when read.
+	 */
+	void add(TestResult result){
+		
+		if (! initialized){
+			systemUnderTest = result.systemUnderTest
+			projectName = result.projectName
+			host = result.host
+			initialized = true
+		}
+		
+		if (result.systemUnderTest != systemUnderTest || result.projectName != projectName || result.host != host){
+			irregulars.put size, result
+			appendRow null, null, null, null, null
+			return
+		}
+		
+		if (result.testID != result.path){
+			testIDs.put size, result.testID
+		}
+		
+		Object message = result.messageSupplier ?: result.failure ?: result.message
+		appendRow result.path, result.name, result.status, message, result.resultURL
+	}
+	
+	/**
+	 * Appends a result, whose test id is its path. The message is either a String, a {@link FailureMessage}, or 
+	 * a Closure that formats either of them (see {@link TestResult#getMessageSupplier()}).
+	 */
+	void add(String path, String name, ExecutionStatus status, Object message, String resultURL){
+		if (! initialized){
+			throw new IllegalStateException("the common values of this batch are unknown, add a TestResult first")
+		}
+		appendRow path, name, status, message, resultURL
+	}
+	
+	private void appendRow(String path, String name, ExecutionStatus status, Object message, String resultURL){
+		
+		ensureCapacity size + 1
+		int row = size
+		
+		pathNodes[row] = (path == null) ? NONE : nodeOf(path)
+		
+		if (resultURL != null && resultURL.startsWith(urlPrefix)){
+			urlNodes[row] = nodeOf resultURL.substring(urlPrefix.length())
+		}
+		else{
+			urlNodes[row] = NONE
+			resultURLs.put row, resultURL
+		}
+		
+		names[row] = (name == null) ? NONE : strings.intern(name)
+		statuses[row] = (status == null) ? NO_STATUS : (byte) status.ordinal()
+		
+		if (message != null && message != "" && ! message.is(FailureMessage.NONE)){
+			messages.put row, message
+		}
+		
+		size++
+	}
+	
+	// split with a negative limit keeps the empty segments, so that joining them gives back the very same string
+	private int nodeOf(String value){
+		int node = NONE
+		for (String segment : value.split('/', -1)){
+			node = nodes.child(node, strings.intern(segment))
+		}
+		return node
+	}
+	
+	private void ensureCapacity(int capacity){
+		if (capacity > statuses.length){
+			resize Math.max(statuses.length * 2, capacity)
+		}
+	}
+	
+	private void resize(int capacity){
+		pathNodes = Arrays.copyOf(pathNodes, capacity)
+		urlNodes = Arrays.copyOf(urlNodes, capacity)
+		names = Arrays.copyOf(names, capacity)
+		statuses = Arrays.copyOf(statuses, capacity)
+	}
+	
+	/**
+	 * Releases the room reserved for the rows to come, and the tables used to add them. Rows can still be added 
+	 * afterwards, the tables are then built again.
+	 */
+	void trimToSize(){
+		resize size
+		strings.trimToSize()
+		nodes.trimToSize()
+	}
+	
+	
+	// ************************* reading *****************************
+	
+	/**
+	 * Returns a cursor positioned before the first row
+	 */
+	Cursor cursor(){
+		return new Cursor(this)
+	}
+	
+	/**
+	 * Returns a new TestResult for each row, as the iterator advances
+	 */
+	@Override
+	Iterator<TestResult> iterator(){
+		Cursor cursor = cursor()
+		boolean hasNext = cursor.next()
+		return [
+			hasNext : { hasNext },
+			next : {
+				if (! hasNext){
+					throw new NoSuchElementException()
+				}
+				TestResult result = cursor.toTestResult()
+				hasNext = cursor.next()
+				return result
+			},
+			remove : { throw new UnsupportedOperationException() }
+		] as Iterator<TestResult>
+	}
+	
+	/**
+	 * Returns a read-only view of the paths of the tests, which are built as they are read
+	 */
+	List<String> getPaths(){
+		return new PathList(this)
+	}
+	
+	private String pathOf(int row){
+		TestResult irregular = irregulars.get(row)
+		return (irregular != null) ? irregular.path : valueOf(pathNodes[row])
+	}
+	
+	private String valueOf(int node){
+		
+		if (node == NONE){
+			return null
+		}
+		
+		// the segments are read from the leaf up
+		List<String> segments = new ArrayList<String>()
+		for (int current = node; current != NONE; current = nodes.parentOf(current)){
+			segments.add strings.get(nodes.segmentOf(current))
+		}
+		
+		StringBuilder builder = new StringBuilder()
+		for (int i = segments.size() - 1; i >= 0; i--){
+			builder.append segments.get(i)
+			if (i > 0){
+				builder.append '/'
+			}
+		}
+		return builder.toString()
+	}
+	
+	// formats the message of the row if needed, and keeps it : a String or a FailureMessage
+	private Object formattedMessageOf(int row){
+		Object message = messages.get(row)
+		if (message in Closure){
+			message = message.call()
+			messages.put row, message
+		}
+		return message
+	}
+	
+	private String messageOf(int row){
+		Object message = formattedMessageOf(row)
+		return (message in FailureMessage) ? message.text : 
+			   (message == null) ? "" : message
+	}
+	
+	
+	/**
+	 * Formats the messages that were not formatted yet, so that the batch no longer refers to the test reports 
+	 * they come from.
+	 */
+	void formatMessages(){
+		messages.keySet().toList().each { Integer row -> formattedMessageOf row }
+	}
+	
+	// the messages not formatted yet don't travel to the agents, nor the room left for more rows
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		formatMessages()
+		trimToSize()
+		out.defaultWriteObject()
+	}
+	
+	
+	/**
+	 * <p>
+	 * 	Reads the rows of a batch one at a time : call {@link #next()} until it returns false, and read the 
+	 * 	values of the current row in between.
+	 * </p>
+	 */
+	static final class Cursor {
+		
+		private final TestResultBatch batch
+		private int row = -1
+		
+		private Cursor(TestResultBatch batch){
+			this.batch = batch
+		}
+		
+		/**
+		 * Moves to the next row, returns false when there is none left
+		 */
+		boolean next(){
+			if (row < batch.size()){
+				row++
+			}
+			return row < batch.size()
+		}
+		
+		int getRow(){
+			return row
+		}
+		
+		String getPath(){
+			checkRow()
+			return batch.pathOf(row)
+		}
+		
+		String getTestID(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.testID
+			}
+			return batch.testIDs.containsKey(row) ? batch.testIDs.get(row) : getPath()
+		}
+		
+		String getName(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.name
+			}
+			int id = batch.names[row]
+			return (id == TestResultBatch.NONE) ? null : batch.strings.get(id)
+		}
+		
+		ExecutionStatus getStatus(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.status
+			}
+			byte status = batch.statuses[row]
+			return (status == TestResultBatch.NO_STATUS) ? null : TestResultBatch.STATUSES[status]
+		}
+		
+		/**
+		 * Returns the message of the row, "" if it has none. A message not formatted yet is formatted once, then kept.
+		 */
+		String getMessage(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.message
+			}
+			return batch.messageOf(row)
+		}
+		
+		/**
+		 * Returns the message of the row if it was formatted by {@link FailureMessages}, null otherwise (see {@link #getMessage()}).
+		 */
+		FailureMessage getFailure(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.failure
+			}
+			Object message = batch.formattedMessageOf(row)
+			return (message in FailureMessage) ? message : null
+		}
+		
+		String getResultURL(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular.resultURL
+			}
+			if (batch.resultURLs.containsKey(row)){
+				return batch.resultURLs.get(row)
+			}
+			return batch.urlPrefix + batch.valueOf(batch.urlNodes[row])
+		}
+		
+		/**
+		 * Builds a TestResult for the current row. A message not formatted yet is left to the TestResult.
+		 */
+		TestResult toTestResult(){
+			TestResult irregular = irregular()
+			if (irregular != null){
+				return irregular
+			}
+			
+			TestResult result = new TestResult(
+				systemUnderTest : batch.systemUnderTest,
+				projectName : batch.projectName,
+				host : batch.host,
+				testID : getTestID(),
+				path : getPath(),
+				name : getName(),
+				status : getStatus(),
+				resultURL : getResultURL()
+			)
+			
+			Object message = batch.messages.get(row)
+			if (message in Closure){
+				// formatted through the batch, so that it is formatted once whoever reads it first
+				int current = row
+				result.messageSupplier = { batch.formattedMessageOf current }
+			}
+			else if (message in FailureMessage){
+				result.failure = message
+			}
+			else{
+				result.message = (message == null) ? "" : message
+			}
+			
+			return result
+		}
+		
+		private TestResult irregular(){
+			checkRow()
+			return batch.irregulars.get(row)
+		}
+		
+		private void checkRow(){
+			if (row < 0 || row >= batch.size()){
+				throw new IllegalStateException("the cursor is not on a row, call next() first")
+			}
+		}
+	}
+	
+	
+	// ************************* storage *****************************
+	
+	private static final class PathList extends AbstractList<String> {
+		
+		private final TestResultBatch batch
+		
+		PathList(TestResultBatch batch){
+			this.batch = batch
+		}
+		
+		@Override
+		String get(int index){
+			if (index < 0 || index >= batch.size()){
+				throw new IndexOutOfBoundsException("${index}")
+			}
+			return batch.pathOf(index)
+		}
+		
+		@Override
+		int size(){
+			return batch.size()
+		}
+	}
+	
+	/*
+	 * The distinct strings, encoded in UTF-8 one after the other. String #i spans from offsets[i] to offsets[i+1]. 
+	 * The hash table (open addressing, linear probing) is only needed to add strings, it is rebuilt when missing.
+	 */
+	private static final class StringPool implements Serializable {
+		
+		private static final long serialVersionUID = 1L
+		
+		private byte[] bytes = new byte[TestResultBatch.INITIAL_CAPACITY * 16]
+		private int[] offsets = new int[TestResultBatch.INITIAL_CAPACITY + 1]
+		private int count = 0
+		
+		private transient int[] table
+		
+		int intern(String value){
+			
+			byte[] encoded = value.getBytes(TestResultBatch.UTF8)
+			
+			if (table == null){
+				rehash()
+			}
+			
+			int mask = table.length - 1
+			int slot = hash(encoded, 0, encoded.length) & mask
+			
+			while (table[slot] != TestResultBatch.NONE){
+				if (equalsAt(table[slot], encoded)){
+					return table[slot]
+				}
+				slot = (slot + 1) & mask
+			}
+			
+			int id = append(encoded)
+			table[slot] = id
+			
+			if (count * 2 > table.length){
+				rehash()
+			}
+			return id
+		}
+		
+		String get(int id){
+			return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], TestResultBatch.UTF8)
+		}
+		
+		void trimToSize(){
+			bytes = Arrays.copyOf(bytes, offsets[count])
+			offsets = Arrays.copyOf(offsets, count + 1)
+			table = null
+		}
+		
+		private int append(byte[] encoded){
+			int start = offsets[count]
+			if (start + encoded.length > bytes.length){
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, start + encoded.length))
+			}
+			System.arraycopy encoded, 0, bytes, start, encoded.length
+			
+			if (count + 2 > offsets.length){
+				offsets = Arrays.copyOf(offsets, offsets.length * 2)
+			}
+			offsets[count + 1] = start + encoded.length
+			return count++
+		}
+		
+		private boolean equalsAt(int id, byte[] encoded){
+			int start = offsets[id]
+			if (offsets[id + 1] - start != encoded.length){
+				return false
+			}
+			for (int i = 0; i < encoded.length; i++){
+				if (bytes[start + i] != encoded[i]){
+					return false
+				}
+			}
+			return true
+		}
+		
+		private void rehash(){
+			table = TestResultBatch.newTable(count)
+			int mask = table.length - 1
+			for (int id = 0; id < count; id++){
+				int slot = hash(bytes, offsets[id], offsets[id + 1]) & mask
+				while (table[slot] != TestResultBatch.NONE){
+					slot = (slot + 1) & mask
+				}
+				table[slot] = id
+			}
+		}
+		
+		private static int hash(byte[] data, int from, int to){
+			int h = 1
+			for (int i = from; i < to; i++){
+				h = 31 * h + data[i]
+			}
+			return TestResultBatch.mix(h)
+		}
+	}
+	
+	/*
+	 * The nodes of the tree of segments : node #i is the segment segments[i] under the node parents[i] (TestResultBatch.NONE 
+	 * for the first segment of a value). Same hash table as above, keyed on the pair (parent, segment).
+	 */
+	private static final class SegmentTree implements Serializable {
+		
+		private static final long serialVersionUID = 1L
+		
+		private int[] parents = new int[TestResultBatch.INITIAL_CAPACITY * 4]
+		private int[] segments = new int[TestResultBatch.INITIAL_CAPACITY * 4]
+		private int count = 0
+		
+		private transient int[] table
+		
+		int child(int parent, int segment){
+			
+			if (table == null){
+				rehash()
+			}
+			
+			int mask = table.length - 1
+			int slot = hash(parent, segment) & mask
+			
+			while (table[slot] != TestResultBatch.NONE){
+				int node = table[slot]
+				if (parents[node] == parent && segments[node] == segment){
+					return node
+				}
+				slot = (slot + 1) & mask
+			}
+			
+			if (count == parents.length){
+				int capacity = Math.max(count * 2, TestResultBatch.INITIAL_CAPACITY)
+				parents = Arrays.copyOf(parents, capacity)
+				segments = Arrays.copyOf(segments, capacity)
+			}
+			parents[count] = parent
+			segments[count] = segment
+			table[slot] = count
+			count++
+			
+			if (count * 2 > table.length){
+				rehash()
+			}
+			return count - 1
+		}
+		
+		int parentOf(int node){
+			return parents[node]
+		}
+		
+		int segmentOf(int node){
+			return segments[node]
+		}
+		
+		void trimToSize(){
+			parents = Arrays.copyOf(parents, count)
+			segments = Arrays.copyOf(segments, count)
+			table = null
+		}
+		
+		private void rehash(){
+			table = TestResultBatch.newTable(count)
+			int mask = table.length - 1
+			for (int node = 0; node < count; node++){
+				int slot = hash(parents[node], segments[node]) & mask
+				while (table[slot] != TestResultBatch.NONE){
+					slot = (slot + 1) & mask
+				}
+				table[slot] = node
+			}
+		}
+		
+		private static int hash(int parent, int segment){
+			return TestResultBatch.mix(TestResultBatch.mix(parent) * 31 + segment)
+		}
+	}
+	
+	// spreads the bits of a hash, so that close keys don't pile up in the tables (the finalizer of MurmurHash3)
+	private static int mix(int hash){
+		int h = hash
+		h ^= h >>> 16
+		h *= -2048144789	// 0x85ebca6b
+		h ^= h >>> 13
+		h *= -1028477387	// 0xc2b2ae35
+		h ^= h >>> 16
+		return h
+	}
+	
+	// a power of two, at most half full
+	private static int[] newTable(int entries){
+		int capacity = TestResultBatch.INITIAL_CAPACITY
+		while (capacity < entries * 4){
+			capacity *= 2
+		}
+		int[] table = new int[capacity]
+		Arrays.fill table, TestResultBatch.NONE
+		return table
+	}
+}
@@ -69,8 +69,7 @@
  * 		<li>I navigate to the job configuration page</li>
  * 		<li>I scroll down until the 'add a post build action' buttonmenu</li>
  * 		<li>In the dropwdown menu, I select the action 'publish test results on Squash TM'</li>
- * 		<li>(NOTE : the UI for this step has been disabled because the feature is still under development)
- * 		In the panel that just appeared, I tick the checkbox for each server that should be notified on build completion.</li>
+ * 		<li>In the panel that just appeared, I tick the checkbox for each server that should be notified on build completion.</li>
  * 		<li>I also configure the other test result parsers that are relevant for my build (JUnit exporter, NUnit etc)</li>
  * 	</ol>
  * </p>
@@ -170,7 +169,50 @@
  * <p><b>comments about posting the results</b></p>
  * 
  * <p>
- * 	For now (version 1.0.0), it just not work. Only the TA Mode works. More details on this in the dedicated package.
+ * 	In TA mode the results are posted as test statuses, more details on this in the dedicated package. Otherwise the {@link org.jenkinsci.squashtm.core.ResultPoster ResultPoster} 
+ * 	uploads them in bulk to each server selected for the job : the TestResult are written as json records straight to the request body, in chunks. 
+ * 	Squash TM has no endpoint for these yet, so the ResultPoster does nothing unless it was explicitly enabled (see 
+ * 	{@link org.jenkinsci.squashtm.core.ResultPoster#ENABLED ResultPoster.ENABLED}).
+ * </p>
+ * 
+ * <p>
+ * 	When many results must be held at once, as in the chunks sent to the agents, they are kept in a 
+ * 	{@link org.jenkinsci.squashtm.core.TestResultBatch TestResultBatch} rather than in a list of TestResult : the values shared 
+ * 	by the tests are stored once, and a test costs a few tens of bytes instead of several hundreds.
+ * </p>
+ * 
+ * <p>
+ * 	Requests that could not be delivered because Squash TM was down or overloaded are not lost : they are stored in the 
+ * 	{@link org.jenkinsci.squashtm.core.Outbox Outbox} of the job, and the {@link org.jenkinsci.squashtm.core.OutboxDrainer OutboxDrainer}
+ * 	retries them in the background.
+ * </p>
+ * 
+ * <p>
+ * 	Each server has a {@link org.jenkinsci.squashtm.core.CircuitBreaker CircuitBreaker}, fed by the requests and by the 
+ * 	{@link org.jenkinsci.squashtm.core.TMServerHealthMonitor TMServerHealthMonitor}. While it is open the requests to that 
+ * 	server fail right away and end up in the outbox, instead of waiting for the timeouts. Its state is shown in the global configuration.
+ * </p>
+ * 
+ * <p>
+ * 	The duration of each phase of the publication and of each request, and the number of test statuses posted, skipped and failed 
+ * 	are recorded in a {@link org.jenkinsci.squashtm.core.PublicationStats PublicationStats}. They are shown per build by the 
+ * 	{@link org.jenkinsci.squashtm.core.PublicationAction PublicationAction}, and aggregated controller-wide (with latency histograms 
+ * 	per server) by {@link org.jenkinsci.squashtm.core.PublicationMetrics PublicationMetrics}, at the url '/squashtm-metrics/'.
+ * </p>
+ * 
+ * <p>
+ * 	The build doesn't wait for Squash TM : once perform(...) has read what it needs from the workspace and the results of the build, 
+ * 	the posting is handed as a {@link org.jenkinsci.squashtm.core.PublicationTask PublicationTask} to the controller-wide {@link org.jenkinsci.squashtm.core.PublishQueue PublishQueue}. 
+ * 	Its workers, the size of the queue and the number of publications per server are bounded : when the queue is full the build 
+ * 	posts by itself. The state of the publication (queued, running, done or failed) and its log are shown by the PublicationAction. 
+ * 	The queued publications are also stored in the outbox, and resumed by the drainer if Jenkins restarts before they complete.
+ * </p>
+ * 
+ * <p>
+ * 	A build can also publish its progress while it runs, with the build step {@link org.jenkinsci.squashtm.core.SquashTMProgressPublisher SquashTMProgressPublisher}. 
+ * 	That one does parse the JUnit reports itself, since they are not published yet, and only the new ones. The tests it sent are remembered 
+ * 	by the {@link org.jenkinsci.squashtm.core.ProgressWatermark ProgressWatermark} of the build, so that neither the next calls nor the final 
+ * 	publication send them again.
  * </p>
  * 
  */
@@ -0,0 +1,144 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import hudson.model.TaskListener
+import jenkins.security.MasterToSlaveCallable
+import org.jenkinsci.squashtm.core.PublicationStats
+import org.jenkinsci.squashtm.core.TMServer
+import org.jenkinsci.squashtm.core.TestResultBatch
+import org.jenkinsci.squashtm.utils.HttpClient
+
+/**
+ * <p>
+ * 	The agent side of the agent posting mode (see {@link TMServer#isPostFromAgents()}) : the results are sent to the agent 
+ * 	in chunks, along with the ids of their automated executions, and posted from there through the network of the agent. 
+ * 	Only the figures (and the requests to retry later) travel back to the controller.
+ * </p>
+ * 
+ * <p>
+ * 	The results are matched against the test suite by the controller, which keeps the index : if the agent can't be reached 
+ * 	anymore the controller posts the results itself (see {@link SquashTAPoster#postFromAgent(Iterator)}). 
+ * </p>
+ * 
+ * <p>
+ * 	<b>The agent is given the credentials of the server</b> : the header 'Authorization' its requests send (see 
+ * 	{@link TMServer#basicAuthorization()}) is the login and password of the server, merely encoded in base64. Which is 
+ * 	why the mode is off unless enabled for the server, and should only be enabled with agents trusted as much as the controller.
+ * </p>
+ * 
+ * <p>
+ * 	Use the factory {@link #posting(TMServer, String, TestResultBatch, Map, TaskListener)}, the callable is invoked on the 
+ * 	channel of the agent.
+ * </p>
+ */
+class AgentPostingCallable extends MasterToSlaveCallable<Object, IOException>{
+	
+	private static final long serialVersionUID = 1L
+	
+	// how many results are sent to the agent at once
+	static final int CHUNK_SIZE = 2000
+	
+	private TMServer server
+	private String authorization
+	private String endpointUrl
+	private TestResultBatch results
+	// the id of the automated execution of each row of the results
+	private String[] executionIds
+	private TaskListener listener
+	
+	
+	/**
+	 * Posts a chunk of results from the agent, returns a {@link Summary}. The results must be part of the 
+	 * given index of the test suite.
+	 */
+	static AgentPostingCallable posting(TMServer server, String endpointUrl, TestResultBatch results, 
+										Map<String, String> testmap, TaskListener listener){
+		
+		List<String> ids = []
+		TestResultBatch.Cursor cursor = results.cursor()
+		while (cursor.next()){
+			ids << testmap[cursor.testID]
+		}
+		
+		new AgentPostingCallable(server : server.withoutPassword(), authorization : server.basicAuthorization(), 
+								endpointUrl : endpointUrl, results : results, executionIds : ids as String[], listener : listener)
+	}
+	
+	
+	@Override
+	public Object call() throws IOException {
+		
+		// the index of that chunk only
+		Map<String, String> testmap = new HashMap<String, String>()
+		TestResultBatch.Cursor cursor = results.cursor()
+		while (cursor.next()){
+			testmap.put cursor.testID, executionIds[cursor.row]
+		}
+		
+		SquashTAPoster poster = new SquashTAPoster(
+			server : server,
+			notificationUrl : endpointUrl,
+			testmap : testmap,
+			logger : listener.logger,
+			deferredRequests : new ArrayList<List<String>>()
+		)
+		
+		// a client of its own : nothing would close a shared one on the agent (see HttpClient#closeAll()). 
+		// The requests are all answered when postIndexed() returns.
+		HttpClient client = new HttpClient(server, authorization)
+		try{
+			poster.httpclient = client
+			poster.postIndexed results.iterator()
+		}
+		finally{
+			client.close()
+		}
+		
+		return new Summary(stats : poster.stats, deferred : poster.deferredRequests, counters : poster.postingLog.counters, 
+							undelivered : poster.stats.undelivered)
+	}
+	
+	
+	/**
+	 * What the agent sends back once it posted a chunk.
+	 */
+	static final class Summary implements Serializable{
+		
+		private static final long serialVersionUID = 1L
+		
+		PublicationStats stats
+		
+		// pairs of url and json payload
+		List<List<String>> deferred = []
+		
+		// the tests per outcome, for the summary printed by the controller
+		PostingLog.Counters counters = new PostingLog.Counters()
+		
+		// the paths of the tests that failed for good, see PublicationStats#getUndelivered()
+		Set<String> undelivered = new HashSet<String>()
+		
+	}
+	
+}
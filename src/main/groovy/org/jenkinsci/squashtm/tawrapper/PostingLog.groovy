@@ -0,0 +1,281 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import org.apache.http.StatusLine
+
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+import java.util.zip.GZIPOutputStream
+
+/**
+ * <p>
+ * 	The build log of a {@link SquashTAPoster}. Writing a line per test to the console costs megabytes on large builds, 
+ * 	so by default the console only gets :
+ * 
+ * 	<ul>
+ * 		<li>a progress line every {@link #progressSeconds} seconds,</li>
+ * 		<li>the first {@link #maxFailures} failures and the first {@link #maxSkips} skipped tests, in full,</li>
+ * 		<li>a summary with the number of tests per outcome (see {@link #finish()}).</li>
+ * 	</ul>
+ * 
+ * 	The line of every test can still be had : on the console with {@link #verbose}, or in the gzipped file 
+ * 	{@link #DETAIL_FILENAME} of the build directory with {@link #DETAIL_FILE}. That file holds the last publication 
+ * 	of the build : each publication writes it anew.
+ * </p>
+ * 
+ * <p>
+ * 	The lines are given as closures, that are only called when the line is actually written. The methods are synchronized : 
+ * 	the tests are mostly recorded from the callbacks of a {@link org.jenkinsci.squashtm.utils.PostingPipeline}, but the 
+ * 	tests filtered out are recorded by the threads that extract the results (see {@link SquashTAPoster#getPathFilter()}).
+ * </p>
+ */
+class PostingLog {
+	
+	private static final Logger LOGGER = Logger.getLogger(PostingLog.class.name)
+	
+	static final String DETAIL_FILENAME = 'squashtm-tests.log.gz'
+	
+	/*
+	 * Set that system property to true to have one line per test on the console, as before.
+	 */
+	static final boolean VERBOSE = Boolean.getBoolean(PostingLog.class.name + ".verbose")
+	
+	/*
+	 * Set that system property to true to have the line of every test written to DETAIL_FILENAME, in the build directory.
+	 */
+	static final boolean DETAIL_FILE = Boolean.getBoolean(PostingLog.class.name + ".detailFile")
+	
+	static final int MAX_FAILURES = Integer.getInteger(PostingLog.class.name + ".maxFailures", 100)
+	
+	static final int MAX_SKIPS = Integer.getInteger(PostingLog.class.name + ".maxSkips", 20)
+	
+	static final int PROGRESS_SECONDS = Integer.getInteger(PostingLog.class.name + ".progressSeconds", 30)
+	
+	
+	PrintStream logger
+	
+	// when not null, every line is also written there (the file is replaced)
+	File detailFile
+	
+	boolean verbose = VERBOSE
+	int maxFailures = MAX_FAILURES
+	int maxSkips = MAX_SKIPS
+	int progressSeconds = PROGRESS_SECONDS
+	
+	final Counters counters = new Counters()
+	
+	// the lines written to the console so far, and the tests that were not detailed there
+	private int failuresLogged = 0
+	private int skipsLogged = 0
+	private int hiddenFailures = 0
+	private int hiddenSkips = 0
+	private long lastProgress = System.nanoTime()
+	private int lastProgressCount = 0
+	
+	private PrintStream detail
+	private boolean detailFailed = false
+	
+	
+	/**
+	 * Records tests whose status was accepted by Squash TM. The line goes to the console in verbose mode only.
+	 */
+	synchronized void sent(outcome, int tests = 1, Closure<String> line){
+		counters.add Counters.SENT, label(outcome), tests
+		write verbose, line
+	}
+	
+	/**
+	 * Records tests whose status could not be sent. The line goes to the console for the first failures.
+	 */
+	synchronized void failed(outcome, int tests = 1, Closure<String> line){
+		counters.add Counters.FAILED, label(outcome), tests
+		boolean console = verbose || failuresLogged < maxFailures
+		if (console){
+			failuresLogged++
+		}
+		else{
+			hiddenFailures += tests
+		}
+		write console, line
+	}
+	
+	/**
+	 * Records tests that were not sent because the test suite doesn't know them. The line goes to the console for the first ones.
+	 */
+	synchronized void skipped(int tests = 1, Closure<String> line){
+		counters.add Counters.SKIPPED, Counters.SKIPPED, tests
+		boolean console = verbose || skipsLogged < maxSkips
+		if (console){
+			skipsLogged++
+		}
+		else{
+			hiddenSkips += tests
+		}
+		write console, line
+	}
+	
+	/**
+	 * Any other line : to the console if asked, to the detail file anyway.
+	 */
+	synchronized void note(boolean console, Closure<String> line){
+		write console || verbose, line
+	}
+	
+	/**
+	 * Adds the tests processed elsewhere (on an agent, see {@link AgentPostingCallable}).
+	 */
+	synchronized void merge(Counters other){
+		counters.merge other
+		progress()
+	}
+	
+	/**
+	 * Prints the summary, and closes the detail file.
+	 */
+	synchronized void finish(){
+		
+		if (counters.total > 0){
+			logger.println "[TM-PLUGIN] : ${counters.total} test(s) processed : ${counters.describe()}"
+		}
+		
+		if (hiddenFailures > 0 || hiddenSkips > 0){
+			logger.println "[TM-PLUGIN] : ${hiddenFailures} failed and ${hiddenSkips} skipped test(s) " +
+							"were not detailed here${(detailFile != null) ? ', see ' + DETAIL_FILENAME : ''}"
+		}
+		
+		if (detail != null){
+			detail.close()
+			detail = null
+		}
+	}
+	
+	
+	// ******************** internals ********************
+	
+	private void write(boolean console, Closure<String> line){
+		
+		if (console || detailFile != null){
+			String text = line.call()
+			if (console){
+				logger.println text
+			}
+			writeDetail text
+		}
+		
+		progress()
+	}
+	
+	private void progress(){
+		if (verbose || counters.total == lastProgressCount){
+			return
+		}
+		long now = System.nanoTime()
+		if (now - lastProgress >= TimeUnit.SECONDS.toNanos(progressSeconds)){
+			logger.println "[TM-PLUGIN] : progress : ${counters.total} test(s) processed, ${counters.sent} sent, " +
+							"${counters.skipped} skipped, ${counters.failed} failed"
+			lastProgress = now
+			lastProgressCount = counters.total
+		}
+	}
+	
+	private void writeDetail(String text){
+		
+		if (detailFile == null || detailFailed){
+			return
+		}
+		
+		try{
+			if (detail == null){
+				detail = new PrintStream(new GZIPOutputStream(new FileOutputStream(detailFile)), false, "UTF-8")
+			}
+			detail.println text
+		}
+		catch(IOException ex){
+			detailFailed = true
+			LOGGER.log Level.WARNING, "[TM-PLUGIN] : could not write the test log ${detailFile}", ex
+		}
+	}
+	
+	private static String label(outcome){
+		if (outcome instanceof StatusLine){
+			return "HTTP ${outcome.statusCode}".toString()
+		}
+		if (outcome instanceof Throwable){
+			return outcome.class.simpleName
+		}
+		return String.valueOf(outcome)
+	}
+	
+	
+	/**
+	 * The number of tests per outcome. They travel back from the agents.
+	 */
+	static final class Counters implements Serializable{
+		
+		private static final long serialVersionUID = 1L
+		
+		static final String SENT = "sent"
+		static final String FAILED = "failed"
+		static final String SKIPPED = "skipped"
+		
+		int sent = 0
+		int failed = 0
+		int skipped = 0
+		
+		// label of the outcome (eg 'HTTP 201', 'SocketTimeoutException') -> number of tests, in order of appearance
+		LinkedHashMap<String, Integer> outcomes = new LinkedHashMap<String, Integer>()
+		
+		int getTotal(){
+			sent + failed + skipped
+		}
+		
+		void add(String kind, String label, int tests){
+			switch(kind){
+				case SENT : sent += tests; break
+				case FAILED : failed += tests; break
+				default : skipped += tests
+			}
+			if (kind != SKIPPED){
+				outcomes.put label, (outcomes.get(label) ?: 0) + tests
+			}
+		}
+		
+		void merge(Counters other){
+			sent += other.sent
+			failed += other.failed
+			skipped += other.skipped
+			other.outcomes.each{ String label, Integer tests ->
+				outcomes.put label, (outcomes.get(label) ?: 0) + tests
+			}
+		}
+		
+		// eg : 1998 sent, 0 skipped, 2 failed (HTTP 201 : 1998, HTTP 503 : 2)
+		String describe(){
+			String details = outcomes.collect{ label, tests -> "${label} : ${tests}" }.join(', ')
+			return "${sent} sent, ${skipped} skipped, ${failed} failed" + (details ? " (${details})" : "")
+		}
+	}
+}
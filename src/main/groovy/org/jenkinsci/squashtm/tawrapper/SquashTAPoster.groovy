@@ -23,13 +23,29 @@
  */
 package org.jenkinsci.squashtm.tawrapper
 
-import groovy.json.JsonSlurper
 import hudson.FilePath
+import hudson.model.TaskListener
+import hudson.remoting.VirtualChannel
+import hudson.util.StreamTaskListener
+import org.apache.http.StatusLine
+import org.jenkinsci.squashtm.core.CircuitBreaker
+import org.jenkinsci.squashtm.core.FailureMessage
+import org.jenkinsci.squashtm.core.FailureMessages
 import org.jenkinsci.squashtm.core.JobInformations
+import org.jenkinsci.squashtm.core.Outbox
+import org.jenkinsci.squashtm.core.PendingPublication
+import org.jenkinsci.squashtm.core.PublicationStats
+import org.jenkinsci.squashtm.core.PublishQueue
 import org.jenkinsci.squashtm.core.TMServer
+import org.jenkinsci.squashtm.core.TMServerRegistry
 import org.jenkinsci.squashtm.core.TestResult
+import org.jenkinsci.squashtm.core.TestResultActionExtractor
+import org.jenkinsci.squashtm.core.TestResultBatch
 import org.jenkinsci.squashtm.tawrapper.TAParametersAction.FileBuildParameter
 import org.jenkinsci.squashtm.utils.HttpClient
+import org.jenkinsci.squashtm.utils.PostingPipeline
+
+import java.util.concurrent.atomic.AtomicInteger
 
 import static org.jenkinsci.squashtm.tawrapper.TA.PRM_NOTIFICATION_URL
 import static org.jenkinsci.squashtm.tawrapper.TA.PRM_TEST_SUITE_JSON
@@ -47,23 +63,72 @@ import static org.jenkinsci.squashtm.tawrapper.TA.PRM_TEST_SUITE_JSON
  * 
  * <p>
  * 	The plugin chooses this mode when the build was triggered by Squash TA (and the TA wrapper is enabled).
- * 	In this mode, each test result will be sent in its own HTTP request. The URL where they will be posted must be
+ * 	In this mode, each test result will be sent in its own HTTP request (several of them may be in flight at the same time, 
+ * 	see {@link PostingPipeline}). The URL where they will be posted must be
  * 	extracted from the test suite descriptor file sent by Squash TM. TestResults than cannot be found in the test suite
  * 	descriptor file will not be sent, although in this case they will be logged.
  * </p>
  * 
+ * <p>
+ * 	When the {@link TMServer} has a batch size greater than 1, the test statuses are instead grouped in chunks of that size 
+ * 	and each chunk is posted in a single request to the bulk endpoint. Older instances of Squash TM that don't know this 
+ * 	endpoint will reject it, in which case the poster falls back to one request per test.
+ * </p>
+ * 
+ * <p>
+ * 	Requests that failed for a reason that might be temporary (network errors, server errors, throttling) are stored 
+ * 	in the {@link Outbox} of the job and retried in the background, so that the build doesn't have to wait for Squash TM.
+ * </p>
+ * 
+ * <p>
+ * 	The build log gets a summary of the tests per outcome, the progress, and the first failures and skipped tests only. 
+ * 	The line of every test can be had on the console or in a gzipped file of the build directory, see {@link PostingLog}.
+ * </p>
+ * 
  * @author bsiri
  *
  */
 public class SquashTAPoster {
 
-	// must be initialized 
+	/*
+	 * The endpoint that accepts several test statuses at once. Its payload is a json array 
+	 * of { id : <automated execution id>, testStatus : <the TATestStatus> }.
+	 */
+	static final String BULK_STATUS_PATH = "/automated-executions/test-status"
+	
+	/*
+	 * The response codes by which a Squash TM that doesn't know the bulk endpoint would answer. A 400 is not one 
+	 * of them : it is about that payload, and only fails that chunk.
+	 */
+	static final Set<Integer> BULK_REJECTED_CODES = [404, 405, 415, 501] as Set
+	
+	// must be initialized (either one)
+	TMServerRegistry registry
 	Collection<TMServer> knownServers = []
 	JobInformations info
 	PrintStream logger
 	
 	// private variables	
 	HttpClient httpclient
+	TMServer server
+	// the index of the test suite, see prepare()
+	Map<String, String> testmap
+	// in agent mode : the channel of the agent that posts the results (see AgentPostingCallable)
+	VirtualChannel agentChannel
+	// when set, the requests to retry are collected there instead of being put in the outbox (on the agents)
+	List<List<String>> deferredRequests
+	// when set, the endpoint url (on the agents, or when resumed)
+	String notificationUrl
+	Outbox outbox
+	int deferred = 0
+	// the filter may be called by several threads, see TestResultActionExtractor
+	AtomicInteger notInSuite = new AtomicInteger()
+	
+	// the figures of the publication, see SquashTMPublisher
+	PublicationStats stats = new PublicationStats()
+	
+	// the lines about each test go there, see getPostingLog()
+	PostingLog postingLog
 	
 	
 	public SquashTAPoster(){
@@ -76,42 +141,424 @@ public class SquashTAPoster {
 		this.logger = logger
 	}
 	
+	public SquashTAPoster(TMServerRegistry registry, JobInformations info, PrintStream logger){
+		this.registry = registry
+		this.info = info
+		this.logger = logger
+	}
+	
 	void postResults(Collection<TestResult> results){
+		postResultsFrom { Map testmap -> results.iterator() }
+	}
+	
+	void postResults(TestResultBatch results){
+		postResultsFrom { Map testmap -> results.iterator() }
+	}
+	
+	/*
+	 * Posts the results held by the build, see getPathFilter()
+	 */
+	void postResults(TestResultActionExtractor extractor){
+		postResultsFrom { Map testmap -> extractor.iterateResults(pathFilter) }
+	}
+	
+	/*
+	 * The tests that are not part of the test suite are filtered out before they are extracted 
+	 * (see TestResultActionExtractor#iterateResults), we only count and log them. Requires prepare().
+	 */
+	Closure<Boolean> getPathFilter(){
+		return { String path ->
+			boolean inSuite = testmap.containsKey(path)
+			if (! inSuite){
+				notInSuite.incrementAndGet()
+				getPostingLog().skipped { "[TM-PLUGIN] : test '${path}' is not part of the TA test suite definition for this build, no data sent" }
+			}
+			return inSuite
+		}
+	}
+	
+	/*
+	 * Takes over a publication that was prepared before Jenkins restarted (see PublicationTask). 
+	 * Returns false if it can't be posted anymore.
+	 */
+	boolean resume(PendingPublication publication){
+		notificationUrl = publication.endpointUrl
+		testmap = publication.testmap
+		
+		server = identifyServer()
+		stats.server = server?.identifier
+		
+		return (server != null) && (testmap != null)
+	}
+	
+	/*
+	 * Identifies the server that requested us and indexes the test suite. The test suite lives in the workspace, 
+	 * so this must happen during the build while the posting itself may happen later (see PublicationTask). 
+	 * Returns false if the server could not be identified.
+	 */
+	boolean prepare(){
+		
+		logln "[TM-PLUGIN] : sending results as Squash TA"
+		
+		logln "[TM-PLUGIN] : identifying server : '${endpointUrl}'"
+		
+		server = identifyServer()
+		
+		if (server == null){
+			logln "[TM-PLUGIN] : could not identify '${endpointUrl}' (no entry in the configuration), aborting"
+			return false
+		}
+		
+		logln "[TM-PLUGIN] : identified server : ${server.identifier}"
+		
+		stats.server = server.identifier
+		
+		CircuitBreaker breaker = CircuitBreaker.forServer server
+		if (! breaker.isAvailable()){
+			logln "[TM-PLUGIN] : server ${server.identifier} is currently unavailable (${breaker.describe()}), the test statuses will be sent later"
+		}
+						
+		FilePath testsuite = testSuiteFile()
+		
+		// the index is kept here even when the agent posts, in case the agent is gone by then
+		testmap = stats.time(PublicationStats.TEST_SUITE_INDEX){ jsonFileToMap() }
+		
+		if (server.postFromAgents && testsuite.isRemote()){
+			logln "[TM-PLUGIN] : the test statuses will be sent by the build agent, with the credentials of server ${server.identifier}"
+			agentChannel = testsuite.channel
+		}
+		
+		return true
+	}
+	
+	/*
+	 * 'resultSource' is given the test suite index and returns an iterator over the results to post
+	 */
+	private void postResultsFrom(Closure<Iterator<TestResult>> resultSource){
+		
+		if (testmap == null && ! prepare()){
+			return
+		}
+		
+		// the tests filtered out are logged there as the results are read, see getPathFilter()
+		PostingLog testLog = getPostingLog()
+		testLog.logger = logger
+		
 		try{
-			logln "[TM-PLUGIN] : sending results as Squash TA"
+			stats.time(PublicationStats.POSTING){
+				PublishQueue.withServerPermit(server){
+					
+					def results = resultSource(testmap)
+					
+					if (agentChannel != null){
+						postFromAgent results
+					}
+					else{
+						withClient { postIndexed results }
+					}
+				}
+			}
+		}
+		finally{
+			testLog.finish()
+		}
+		
+		stats.addSkipped notInSuite.get()
+		stats.addDeferred deferred
+		
+		if (notInSuite.get() > 0){
+			logln "[TM-PLUGIN] : ${notInSuite.get()} test(s) not part of the TA test suite definition for this build, no data sent"
+		}
+		
+		if (deferred > 0){
+			logln "[TM-PLUGIN] : ${deferred} request(s) could not be delivered and will be retried in the background"
+		}
+	}
+	
+	
+	// ***********************posting modes ***********************
+	
+	/*
+	 * Posts the results, given that the test suite is indexed
+	 */
+	void postIndexed(Iterator<TestResult> results){
+		if (server.batchSize > 1){
+			postInBatches results, testmap, server.batchSize
+		}
+		else{
+			postOneByOne results, testmap
+		}
+	}
+	
+	/*
+	 * The agent mode : the results are sent to the agent in chunks with their execution ids, and posted from there 
+	 * (see AgentPostingCallable). Only the figures come back, along with the requests to retry. If the agent can't 
+	 * be reached, the controller posts the rest itself.
+	 */
+	void postFromAgent(Iterator<TestResult> results){
+		
+		TaskListener listener = new StreamTaskListener(logger)
+		
+		while (results.hasNext()){
 			
-			logln "[TM-PLUGIN] : identifying server : '${endpointUrl}'"
+			// the chunk is compact in memory and on the wire, see TestResultBatch
+			TestResultBatch chunk = new TestResultBatch()
+			while (results.hasNext() && chunk.size() < AgentPostingCallable.CHUNK_SIZE){
+				chunk.add results.next()
+			}
 			
-			TMServer server = identifyServer()
+			AgentPostingCallable.Summary summary
 			
-			if (server == null){
-				logln "[TM-PLUGIN] : could not identify '${endpointUrl}' (no entry in the configuration), aborting"
+			try{
+				summary = agentChannel.call(AgentPostingCallable.posting(server, endpointUrl, chunk, testmap, listener))
+			}
+			catch(IOException ex){
+				// the agent is gone, or its channel is
+				logln "[TM-PLUGIN] : the build agent could not send the test statuses (${ex.message}), sending them from the controller"
+				withClient {
+					postIndexed chunk.iterator()
+					postIndexed results
+				}
 				return
 			}
 			
-			logln "[TM-PLUGIN] : identified server : ${server.identifier}"
+			stats.merge summary.stats
+			stats.addUndelivered summary.undelivered
+			getPostingLog().merge summary.counters
+			summary.deferred.each{ List<String> request ->
+				deferJson request[0], request[1]
+			}
+		}
+	}
+	
+	/*
+	 * The regular mode : one request per test. The requests are sent concurrently but reported in order.
+	 */
+	void postOneByOne(Iterator<TestResult> results, Map testmap){
+		
+		PostingPipeline pipeline = new PostingPipeline(httpclient, stats)
+		PostingLog testLog = getPostingLog()
+		
+		results.each{ TestResult result ->
+			
+			def (TATestStatus data, String url) = prepareHttpPost (result, testmap)
+			
+			if (url == null){
+				stats.addSkipped 1
+				pipeline.report { 
+					testLog.skipped { "[TM-PLUGIN] : processing test '${result.name}' -> not part of the TA test suite definition for this build, no data sent" }
+				}
+			}
+			else{
+				pipeline.submit(url, data){ outcome ->
+					if (isSuccess(outcome)){
+						stats.addPosted 1
+						testLog.sent(outcome){ "[TM-PLUGIN] : processing test '${result.name}' -> ${describe(outcome)}" }
+					}
+					else{
+						stats.addFailed 1
+						String note = deferIfNeeded(url, data, outcome, [result.path])
+						testLog.failed(outcome){ "[TM-PLUGIN] : processing test '${result.name}' -> ${describe(outcome)}${note}" }
+					}
+				}
+			}
+			
+		}
+		
+		pipeline.awaitAll()
+	}
+	
+	/*
+	 * The batched mode : the test statuses are grouped in chunks of size 'batchSize', and each chunk is sent 
+	 * in a single request. If Squash TM rejects the bulk form we fall back to the regular mode for the current 
+	 * chunk and the following ones. 
+	 * 
+	 * The chunks are made as the results are read, so that only the chunks in flight are held in memory. 
+	 * The first chunk is sent alone so that we know whether the bulk form is supported, the next ones are sent concurrently.
+	 */
+	void postInBatches(Iterator<TestResult> results, Map testmap, int batchSize){
+		
+		PostingLog testLog = getPostingLog()
+		PostingPipeline pipeline = new PostingPipeline(httpclient, stats)
+		
+		boolean bulkSupported = true
+		int succeeded = 0
+		int failed = 0
+		int chunks = 0
+		
+		// invoked once the outcome of a chunk is known
+		def reportChunk = { String chunkName, int chunkSuccess, int chunkFailure ->
+			succeeded += chunkSuccess
+			failed += chunkFailure
+			testLog.note(chunkFailure > 0){ "[TM-PLUGIN] : ${chunkName} : ${chunkSuccess} test statuses sent, ${chunkFailure} failed" }
+		}
+		
+		def sendChunk = { List<BatchEntry> chunk ->
 			
-			httpclient = new HttpClient(server, logger)
-							
-			def testmap = jsonFileToMap()
+			chunks++
+			def chunkName = "chunk ${chunks}".toString()
 			
-			results.each{			
-				log "[TM-PLUGIN] : processing test '${it.name}' -> "
+			if (bulkSupported){
 				
-				def (TATestStatus data, String url) = prepareHttpPost (it, testmap)
+				List body = payload(chunk)
 				
-				if (url == null){
-					logln 'not part of the TA test suite definition for this build, no data sent'
-				}
-				else{
-					httpclient.post url, data
+				pipeline.submit(bulkUrl, body){ outcome ->
+					
+					if ((outcome instanceof StatusLine) && (outcome.statusCode in BULK_REJECTED_CODES)){
+						logln "[TM-PLUGIN] : ${chunkName} : the bulk form was rejected (${outcome}), falling back to one request per test"
+						bulkSupported = false
+						
+						// note : the chunks that were already in flight end up here too
+						def (int chunkSuccess, int chunkFailure) = postChunkOneByOne(chunk)
+						reportChunk chunkName, chunkSuccess, chunkFailure
+					}
+					else if (isSuccess(outcome)){
+						testLog.sent(outcome, chunk.size()){ "[TM-PLUGIN] : ${chunkName} -> ${describe(outcome)}" }
+						reportChunk chunkName, chunk.size(), 0
+					}
+					else{
+						String note = deferIfNeeded(bulkUrl, body, outcome, chunk*.path)
+						testLog.failed(outcome, chunk.size()){ "[TM-PLUGIN] : ${chunkName} -> ${describe(outcome)}${note}" }
+						reportChunk chunkName, 0, chunk.size()
+					}
 				}
 				
+				if (chunks == 1){
+					pipeline.awaitAll()
+				}
+			}
+			else{
+				postChunkConcurrently pipeline, chunk, { int chunkSuccess, int chunkFailure -> 
+					reportChunk chunkName, chunkSuccess, chunkFailure 
+				}
 			}
 		}
-		finally{
-			if (httpclient != null){
-				httpclient.close()
+		
+		List<BatchEntry> pending = []
+		
+		results.each{ TestResult result ->
+			def (TATestStatus data, String url) = prepareHttpPost (result, testmap)
+			
+			if (url == null){
+				stats.addSkipped 1
+				testLog.skipped { "[TM-PLUGIN] : test '${result.name}' is not part of the TA test suite definition for this build, no data sent" }
+				return
+			}
+			
+			pending << new BatchEntry(id : testmap[result.testID], name : result.name, path : result.path, status : data, url : url, 
+									failure : result.failure)
+			
+			if (pending.size() == batchSize){
+				sendChunk pending
+				pending = []
+			}
+		}
+		
+		if (! pending.isEmpty()){
+			sendChunk pending
+		}
+		
+		pipeline.awaitAll()
+		
+		stats.addPosted succeeded
+		stats.addFailed failed
+		
+		logln "[TM-PLUGIN] : ${succeeded} test statuses sent, ${failed} failed, in ${chunks} chunks"
+	}
+	
+	// the payload of the bulk endpoint, in which the stack traces are sent once
+	private List payload(List<BatchEntry> chunk){
+		FailureMessages messages = new FailureMessages()
+		chunk.collect{ BatchEntry entry ->
+			TATestStatus status = (entry.failure != null) ? entry.status.withStatusMessage(messages.deduplicate(entry.path, entry.failure)) : 
+															 entry.status
+			[id : entry.id, testStatus : status]
+		}
+	}
+	
+	/*
+	 * If a post failed for a reason that may be temporary, the request is stored in the outbox 
+	 * and will be retried later by the OutboxDrainer. Otherwise the paths of its tests are recorded 
+	 * as undelivered. Returns a note for the log.
+	 */
+	private String deferIfNeeded(String url, Object data, outcome, Collection<String> paths){
+		if ((server == null) || (! Outbox.isWorthRetrying(outcome))){
+			stats.addUndelivered paths
+			return ""
+		}
+		
+		deferJson url, HttpClient.toJson(data)
+		
+		return " (will be retried later)"
+	}
+	
+	private void deferJson(String url, String json){
+		if (deferredRequests != null){
+			deferredRequests << [url, json]
+		}
+		else{
+			if (outbox == null){
+				outbox = new Outbox(info.buildPath)
+			}
+			outbox.put server, url, json
+		}
+		deferred++
+	}
+	
+	// posts the entries of a chunk one at a time and returns the success and failure counts
+	private List<Integer> postChunkOneByOne(List<BatchEntry> chunk){
+		int success = 0
+		int failure = 0
+		
+		chunk.each{
+			def outcome
+			long start = System.nanoTime()
+			try{
+				outcome = httpclient.post it.url, it.status
+			}
+			catch(IOException ex){
+				outcome = ex
+			}
+			finally{
+				stats.recordRequest((System.nanoTime() - start).intdiv(1000000))
+			}
+			
+			BatchEntry entry = it
+			if (isSuccess(outcome)){
+				getPostingLog().sent(outcome){ "[TM-PLUGIN] : test '${entry.name}' -> ${describe(outcome)}" }
+				success++
+			}
+			else{
+				String note = deferIfNeeded(entry.url, entry.status, outcome, [entry.path])
+				getPostingLog().failed(outcome){ "[TM-PLUGIN] : test '${entry.name}' -> ${describe(outcome)}${note}" }
+				failure++
+			}
+		}
+		
+		return [success, failure]
+	}
+	
+	// posts the entries of a chunk through the pipeline, one request per entry, and 
+	// invokes whenDone with the success and failure counts
+	private void postChunkConcurrently(PostingPipeline pipeline, List<BatchEntry> chunk, Closure whenDone){
+		int success = 0
+		int failure = 0
+		
+		chunk.each{ BatchEntry entry ->
+			pipeline.submit(entry.url, entry.status){ outcome ->
+				if (isSuccess(outcome)){
+					getPostingLog().sent(outcome){ "[TM-PLUGIN] : test '${entry.name}' -> ${describe(outcome)}" }
+					success++
+				}
+				else{
+					String note = deferIfNeeded(entry.url, entry.status, outcome, [entry.path])
+					getPostingLog().failed(outcome){ "[TM-PLUGIN] : test '${entry.name}' -> ${describe(outcome)}${note}" }
+					failure++
+				}
+				
+				if (success + failure == chunk.size()){
+					whenDone success, failure
+				}
 			}
 		}
 	}
@@ -119,44 +566,60 @@ public class SquashTAPoster {
 	
 	// ***********************private methods ***********************
 	
-	// find which server instance we should post to by comparing their URLs
+	// holds the shared client of the server while posting, unless one was given already
+	private withClient(Closure work){
+		if (httpclient != null){
+			return work()
+		}
+		HttpClient.withServer(server){ HttpClient client ->
+			httpclient = client
+			try{
+				return work()
+			}
+			finally{
+				httpclient = null
+			}
+		}
+	}
+	
+	// find which server instance we should post to by its URL
 	TMServer identifyServer(){
-		// note : instead of comparing strings, new URL(a).equals(new URL(b)) would be more robust albeit costly
-		// but whatever, one step after another
-		knownServers.find { normalize(it.url) == endpointUrl }
+		if (registry == null){
+			registry = new TMServerRegistry(knownServers)
+		}
+		registry.findByUrl endpointUrl
 	}
 
-	void initHttpServer(TMServer server){
-		httpclient = new HttpClient(server, logger)
-	}
 	
-	
-	Map<String, Object> jsonFileToMap(){
-		
-		FileBuildParameter fileinfo = info.tawrapperParameters.getParameter PRM_TEST_SUITE_JSON
-		
-		def filepath = (fileinfo.absoluteLocation) ? new FilePath(new File(fileinfo.location)) :
-													  new FilePath(info.basePath, fileinfo.location)
+	/*
+	 * Returns the index of the test suite : the keys are the scripts prefixed with the project name (so that they 
+	 * compare directly with TestResult.testID), the values are the ids of the automated executions.
+	 * 
+	 * The file is parsed where it lives (possibly a slave), see TestSuiteIndexCallable. The test suites of the 
+	 * TestSuiteStore are parsed once, and their index is then reused by the next runs.
+	 */
+	Map<String, String> jsonFileToMap(){
 		
-		def json = filepath.readToString()
+		String digest = info.tawrapperParameters.getParameter(PRM_TEST_SUITE_JSON).digest
 		
-		def testsuite = new JsonSlurper().parseText(json)
+		if (digest != null){
+			return TestSuiteStore.get().index(digest, testSuitePrefix)
+		}
 		
-		/*
-		 * Prepare a map out of the test list.
-		 * 
-		 * Also, as a side effect, we post process the script name by prepending the project name
-		 * because it will make things easier later on. 
-		 * 
-		 * Both happen in the same loop for the sake of efficiency 
-		 */
+		return testSuiteFile().act(new TestSuiteIndexCallable(prefix : testSuitePrefix))
+	}
+	
+	FilePath testSuiteFile(){
 		
-		def testmap = testsuite.test.collectEntries{
-			it.script = "/${info.jobName}/${it.script}"
-			[(it.script.toString()) : it]	// the toString() ensure that the key won't be a GString but a regular String
-		}
+		FileBuildParameter fileinfo = info.tawrapperParameters.getParameter PRM_TEST_SUITE_JSON
 		
-		return testmap
+		return (fileinfo.absoluteLocation) ? new FilePath(new File(fileinfo.location)) :
+											 new FilePath(info.basePath, fileinfo.location)
+	}
+	
+	// prepended to the scripts of the test suite, so that they compare with TestResult.testID
+	String getTestSuitePrefix(){
+		"/${info.jobName}/".toString()
 	}
 	
 	/*
@@ -172,11 +635,11 @@ public class SquashTAPoster {
 		 *  the tricky part is to find build the url. To do so we must first 
 		 *  retrieve the test by name in the collection jsonTest.
 		 */
-		def testdef = testmap[result.testID]
+		def executionId = testmap[result.testID]
 		
-		if (testdef != null){
+		if (executionId != null){
 			data = new TATestStatus(result)
-			url = endpointUrl + "/automated-executions/${testdef.id}/test-status"
+			url = endpointUrl + "/automated-executions/${executionId}/test-status"
 		}
 		
 		return new Tuple(data, url)		
@@ -188,7 +651,21 @@ public class SquashTAPoster {
 	
 	// returns the endpoint url parameter, with trailing slashes removed
 	String getEndpointUrl(){
-		normalize info.tawrapperParameters.getParameter(PRM_NOTIFICATION_URL)?.value
+		(notificationUrl != null) ? notificationUrl : normalize(info.tawrapperParameters.getParameter(PRM_NOTIFICATION_URL)?.value)
+	}
+	
+	// returns the url where the test statuses are posted in bulk
+	String getBulkUrl(){
+		endpointUrl + BULK_STATUS_PATH
+	}
+	
+	// the outcome of a post is either a StatusLine or an exception
+	private boolean isSuccess(outcome){
+		(outcome instanceof StatusLine) && (outcome.statusCode >= 200) && (outcome.statusCode < 300)
+	}
+	
+	private String describe(outcome){
+		(outcome instanceof Throwable) ? "error : ${outcome.message}" : outcome.toString()
 	}
 	
 	private normalize(String url){
@@ -196,10 +673,38 @@ public class SquashTAPoster {
 	}
 	
 	
+	/*
+	 * The log of the tests, created on first use. The detail file lives in the directory of the build, so there is 
+	 * none on the agents. The filter may create it from several threads.
+	 */
+	synchronized PostingLog getPostingLog(){
+		if (postingLog == null){
+			File detailFile = (PostingLog.DETAIL_FILE && info?.buildRootDir != null) ? 
+								new File(info.buildRootDir, PostingLog.DETAIL_FILENAME) : null
+			postingLog = new PostingLog(logger : logger, detailFile : detailFile)
+		}
+		return postingLog
+	}
+	
 	void log(String message){ logger.print message }
 	
 	void logln(String message){	logger.println message }
 	
+	
+	// *********************** inner classes ***************************
+	
+	/*
+	 * A test status waiting to be sent, along with what we need to know in order to send it.
+	 */
+	static final class BatchEntry{
+		String id
+		String name
+		String path
+		TATestStatus status
+		String url
+		// the structured message of the test, if any, see payload()
+		FailureMessage failure
+	}
 
 	
 }	
@@ -23,8 +23,18 @@
  */
 package org.jenkinsci.squashtm.tawrapper
 
+import groovy.json.JsonOutput
 import hudson.model.AbstractProject
+import hudson.model.Action
+import hudson.model.Cause
+import hudson.model.CauseAction
+import hudson.model.Item
+import hudson.model.ParameterDefinition
+import hudson.model.ParameterValue
+import hudson.model.ParametersAction
 import hudson.model.ParametersDefinitionProperty
+import hudson.model.Queue
+import jenkins.model.Jenkins
 import jenkins.util.TimeDuration
 import net.sf.json.JSONArray
 import net.sf.json.JSONObject
@@ -35,12 +45,15 @@ import org.jenkinsci.squashtm.tawrapper.TAParametersAction.StringBuildParameter
 import org.kohsuke.stapler.QueryParameter
 import org.kohsuke.stapler.StaplerRequest
 import org.kohsuke.stapler.StaplerResponse
+import org.kohsuke.stapler.interceptor.RequirePOST
 
 import javax.servlet.ServletException
+import javax.servlet.http.HttpServletResponse
 import java.util.logging.Level
 import java.util.logging.Logger
 
 import static org.jenkinsci.squashtm.tawrapper.TA.PARAMETERS
+import static org.jenkinsci.squashtm.tawrapper.TA.PRM_EXTERNAL_JOB_ID
 import static org.jenkinsci.squashtm.tawrapper.TA.PRM_TEST_SUITE_JSON
 
 /**
@@ -70,6 +83,17 @@ import static org.jenkinsci.squashtm.tawrapper.TA.PRM_TEST_SUITE_JSON
  *  consumed downstream by the ResultPublisherStep, if configured for this Job.
  * </p>
  *
+ * <p>
+ * 	When Squash TM launches many executions at once it may rather post them all to /job/somejob/bulkBuild (see {@link #doBulkBuild}). 
+ * 	The form then holds one entry per run under the key "runs", each of them being the "parameter" form that would have been posted 
+ * 	to /build : 
+ * 	<pre>
+ * 	{ "runs" : [ { "parameter" : [ {"name" : "operation", "value" : "run"}, ..., {"name" : "testsuite.json", "file" : "file0"} ] }, ... ] }
+ * 	</pre>
+ * 	The file items must have distinct names across the runs. Every form is read once, and the runs are then scheduled together 
+ * 	while holding the queue lock. The TA parameters travel with the other actions of each run instead of the ThreadLocal.
+ * </p>
+ *
  * @author bsiri
  *
  */
@@ -105,6 +129,29 @@ class StaplerBuildOverride {
 	}
 	
 	
+	/**
+	 * Schedules many Squash TA runs in one request. The response lists, for each run, the queue item 
+	 * that was created for it or the reason why it was rejected.
+	 */
+	@RequirePOST
+	public void doBulkBuild(StaplerRequest request, StaplerResponse rsp, @QueryParameter TimeDuration delay) throws IOException, ServletException {
+		
+		AbstractProject project = request.findAncestorObject AbstractProject
+		
+		project.checkPermission Item.BUILD
+		
+		int quietPeriod = (delay != null) ? (int) delay.time : project.quietPeriod
+		
+		List<BulkRun> runs = prepareRuns request.submittedForm, request, project.getProperty(ParametersDefinitionProperty)
+		
+		scheduleAll project, quietPeriod, runs
+		
+		rsp.status = runs.any { it.queueId != null } ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_BAD_REQUEST
+		rsp.setContentType "application/json;charset=UTF-8"
+		rsp.writer.write JsonOutput.toJson([runs : runs*.toMap()])
+	}
+	
+	
 	private void cleanWormhole(){
 		PARAMETERS_WORMHOLE.set null
 	}
@@ -126,7 +173,10 @@ class StaplerBuildOverride {
 		
 		StaplerRequest toForward = request
 		
-		TAParametersAction action = collectParameters request
+		// the form is parsed once, and shared by the collect and the hiding steps
+		JSONArray paramlist = submittedParameters request
+		
+		TAParametersAction action = collectParameters paramlist, request
 		
 		// forward the action anyway
 		PARAMETERS_WORMHOLE.set action
@@ -139,7 +189,7 @@ class StaplerBuildOverride {
 			ParametersDefinitionProperty paramDef = project.getProperty ParametersDefinitionProperty
 			
 			if (paramDef != null){
-				toForward = hideNonExplicitParameters request, paramDef, action
+				toForward = hideNonExplicitParameters request, paramDef, action, paramlist
 			}
 		}
 		
@@ -147,31 +197,48 @@ class StaplerBuildOverride {
 	}
 	
 	/*
-	 * Here we look for parameters that are used in a regular Squash TA build. Each parameter is tested on its name 
-	 * and type. The parameters that passed the test are returned as TAParametersAction.
-	 * 
-	 * You can find the list of the parameters usually instructing for a TA build in org.jenkinsci.squashTM.tawrapper.TA
-	 *
+	 * Returns the list of the parameters submitted with the form, or null if the request 
+	 * has no form.
 	 */
-	
-	private TAParametersAction collectParameters(StaplerRequest request){		
+	private JSONArray submittedParameters(StaplerRequest request){
 		try{
-			JSONObject object = request.submittedForm
-			JSONArray paramlist = JSONArray.fromObject(object.get ("parameter"))		
-	
-			def taparams = paramlist.collect{ extractFromJson it, request }
-									.grep {it != null }
-	
-			new TAParametersAction(parameters : taparams)
+			return asParameterList(request.submittedForm)
 		}
 		// ServletException happens when the build is started as a parameterless build, 
 		// in which case request.submittedForm throws this exception
 		// TODO : find a way to test whether calling getSubmittedForm() would throw that exception 
 		catch(ServletException ex){
 			LOGGER.log(Level.FINE, "attempted to retrieve a form from a request that has none : ${ex.getMessage()}")
+			return null
+		}
+	}
+	
+	private JSONArray asParameterList(JSONObject form){
+		def parameters = form.get "parameter"
+		(parameters instanceof JSONArray) ? parameters : JSONArray.fromObject(parameters)
+	}
+	
+	/*
+	 * Here we look for parameters that are used in a regular Squash TA build. Each parameter is tested on its name 
+	 * and type. The parameters that passed the test are returned as TAParametersAction.
+	 * 
+	 * You can find the list of the parameters usually instructing for a TA build in org.jenkinsci.squashTM.tawrapper.TA
+	 *
+	 */
+	
+	private TAParametersAction collectParameters(StaplerRequest request){
+		collectParameters submittedParameters(request), request
+	}
+	
+	private TAParametersAction collectParameters(JSONArray paramlist, StaplerRequest request){
+		if (paramlist == null){
 			return new TAParametersAction()
 		}
 		
+		def taparams = paramlist.collect{ extractFromJson it, request }
+								.grep {it != null }
+
+		new TAParametersAction(parameters : taparams)
 	}
 
 	
@@ -229,22 +296,28 @@ class StaplerBuildOverride {
 	private StaplerRequest hideNonExplicitParameters(StaplerRequest original, 
 													ParametersDefinitionProperty jobParams, 
 													TAParametersAction requestParams){
-												
-		JSONObject originalForm = original.submittedForm			
-		JSONArray paramCopy = JSONArray.fromObject(originalForm.get("parameter"))
+		hideNonExplicitParameters original, jobParams, requestParams, asParameterList(original.submittedForm)
+	}
+	
+	private StaplerRequest hideNonExplicitParameters(StaplerRequest original, 
+													ParametersDefinitionProperty jobParams, 
+													TAParametersAction requestParams,
+													JSONArray paramlist){
 				
 		def jobParamNames = jobParams.parameterDefinitionNames
 		def hiddenNames = requestParams.parameters.collect{it.name}
 		
-		def toHide = paramCopy.findAll {
+		// the submitted list is left untouched, the forged form gets a filtered copy
+		JSONArray kept = new JSONArray()
+		paramlist.each {
 			def name = it.getString "name" 
-			hiddenNames.contains(name) && !jobParamNames.contains(name)
+			if (! (hiddenNames.contains(name) && !jobParamNames.contains(name))){
+				kept.add it
+			}
 		}
 		
-		paramCopy.removeAll toHide
-		
 		JSONObject forged = new JSONObject()
-		forged.put "parameter", paramCopy
+		forged.put "parameter", kept
 		
 		
 		return ProxyGenerator.INSTANCE.instantiateDelegate(
@@ -256,4 +329,134 @@ class StaplerBuildOverride {
 		)
 	}
 	
-}
\ No newline at end of file
+	
+	// ----------------------- bulk scheduling --------------------------
+	
+	
+	/*
+	 * Reads every run of a bulk form in a single pass : the TA parameters go to the TAParametersAction, those that 
+	 * the job defines explicitly are turned into ParameterValues the same way ParametersDefinitionProperty 
+	 * would, and the others are simply left out. A run that is not a TA run or that carries an unknown 
+	 * parameter is rejected, the others are not affected.
+	 */
+	private List<BulkRun> prepareRuns(JSONObject form, StaplerRequest request, ParametersDefinitionProperty jobParams){
+		
+		def runs = form.get "runs"
+		JSONArray runlist = (runs instanceof JSONArray) ? runs : JSONArray.fromObject(runs)
+		
+		runlist.collect { JSONObject run ->
+			
+			BulkRun bulkrun = new BulkRun()
+			
+			try{
+				JSONArray paramlist = asParameterList run
+				
+				bulkrun.taAction = collectParameters paramlist, request
+				bulkrun.externalJobId = bulkrun.taAction.getParameter(PRM_EXTERNAL_JOB_ID)?.value
+				
+				if (! bulkrun.taAction.isTestRunBuild()){
+					bulkrun.error = "not a Squash TA run"
+					return bulkrun
+				}
+				
+				if (jobParams != null){
+					List<ParameterValue> values = paramlist.findResults { JSONObject param ->
+						createValue param, jobParams, bulkrun.taAction, request
+					}
+					bulkrun.parametersAction = new ParametersAction(values)
+				}
+			}
+			catch(Exception ex){
+				LOGGER.log(Level.FINE, "[TM-PLUGIN] : rejected a run of a bulk build request", ex)
+				bulkrun.error = ex.message
+			}
+			
+			bulkrun
+		}
+	}
+	
+	/*
+	 * returns the value of an explicit job parameter, or null for the TA parameters that 
+	 * the job doesn't define
+	 */
+	private ParameterValue createValue(JSONObject param, ParametersDefinitionProperty jobParams, 
+										TAParametersAction taAction, StaplerRequest request){
+		
+		String name = param.getString "name"
+		ParameterDefinition definition = jobParams.getParameterDefinition name
+		
+		if (definition == null){
+			if (taAction.hasParameter(name)){
+				return null
+			}
+			throw new IllegalArgumentException("No such parameter definition: ${name}")
+		}
+		
+		ParameterValue value = definition.createValue request, param
+		if (value == null){
+			throw new IllegalArgumentException("Cannot initialize the parameter '${name}'")
+		}
+		
+		return value
+	}
+	
+	/*
+	 * The test suite files are resolved beforehand so that the queue lock is not held while they are 
+	 * written to the disk. The queue decision handlers will then find the TA action among the other 
+	 * actions and leave it be.
+	 */
+	private void scheduleAll(AbstractProject project, int quietPeriod, List<BulkRun> runs){
+		
+		def accepted = runs.findAll { it.error == null }
+		
+		accepted.each { BulkRun run ->
+			try{
+				ParameterInjector.resolveTestsuiteFile run.taAction, run.parametersAction
+			}
+			catch(Exception ex){
+				LOGGER.log(Level.WARNING, "[TM-PLUGIN] : could not resolve the test suite file for run '${run.externalJobId}' : ${ex.message}")
+				run.error = ex.message
+			}
+		}
+		
+		accepted = accepted.findAll { it.error == null }
+		
+		Queue queue = Jenkins.instance.queue
+		
+		Queue.withLock({
+			accepted.each { BulkRun run ->
+				Queue.Item item = queue.schedule2(project, quietPeriod, run.actions).item
+				if (item != null){
+					run.queueId = item.id
+				}
+				else{
+					run.error = "refused by the queue"
+				}
+			}
+		} as Runnable)
+		
+	}
+	
+	
+	static final class BulkRun{
+		String externalJobId
+		TAParametersAction taAction
+		// null when the job has no parameters
+		ParametersAction parametersAction
+		Long queueId
+		String error
+		
+		List<Action> getActions(){
+			List<Action> actions = [new CauseAction(new Cause.UserIdCause()), taAction]
+			if (parametersAction != null){
+				actions << parametersAction
+			}
+			actions
+		}
+		
+		Map toMap(){
+			[externalJobId : externalJobId, queueId : queueId, error : error]
+		}
+	}
+	
+}
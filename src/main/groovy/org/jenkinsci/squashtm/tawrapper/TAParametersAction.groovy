@@ -25,11 +25,12 @@ package org.jenkinsci.squashtm.tawrapper
 
 import groovy.transform.EqualsAndHashCode
 import hudson.model.Action
+import hudson.model.Queue.QueueAction
 import org.apache.commons.fileupload.FileItem
 
 import static org.jenkinsci.squashtm.tawrapper.TA.*
 
-public class TAParametersAction implements Action {
+public class TAParametersAction implements Action, QueueAction {
 
 	
 	Collection<BuildParameter> parameters = []
@@ -85,6 +86,33 @@ isTestRunBuild : ${isTestRunBuild()}
 		getParameter(PRM_OPERATION).value == "run"
 	}
 	
+	/**
+	 * Tells the queue whether a build carrying the given actions must be scheduled on its own rather than being 
+	 * folded into the queue item this action belongs to. Squash TA may submit several runs of the same job at 
+	 * once, and those runs usually have no other parameters to tell them apart : unless they share the same 
+	 * external execution id and the same test suite, each of them must get a build of its own.
+	 */
+	@Override
+	public boolean shouldSchedule(List<Action> actions) {
+		TAParametersAction other = actions.find { it instanceof TAParametersAction }
+		
+		if (other == null){
+			return true
+		}
+		
+		return externalJobId() != other.externalJobId() || testSuiteKey() != other.testSuiteKey()
+	}
+	
+	private String externalJobId(){
+		getParameter(PRM_EXTERNAL_JOB_ID)?.value
+	}
+	
+	// the digest identifies the test suite when it lives in the TestSuiteStore, the location does otherwise
+	private String testSuiteKey(){
+		BuildParameter suite = getParameter(PRM_TEST_SUITE_JSON)
+		(suite instanceof FileBuildParameter) ? (suite.digest ?: suite.location) : null
+	}
+	
 	// ********** unused methods : this is an invisible operation *************
 	
 	@Override
@@ -131,6 +159,8 @@ isTestRunBuild : ${isTestRunBuild()}
 		String location
 		// true : the location is an absolute path, false : relative to
 		boolean absoluteLocation
+		// the digest of the file when it lives in the TestSuiteStore, null otherwise
+		String digest
 		
 		FileBuildParameter(){
 			
@@ -31,7 +31,6 @@ import hudson.model.ParametersAction
 import hudson.model.Queue.QueueDecisionHandler
 import hudson.model.Queue.Task
 import org.apache.commons.fileupload.FileItem
-import org.apache.commons.fileupload.disk.DiskFileItem
 import org.jenkinsci.squashtm.tawrapper.TAParametersAction.FileBuildParameter
 
 import java.util.logging.Level
@@ -57,7 +56,7 @@ import static org.jenkinsci.squashtm.tawrapper.TA.PRM_TEST_SUITE_JSON
  * 	As a side mission, this extension also resolve the file parameter (named {@link PRM_TEST_SUITE_JSON}), and which hold a json
  * 	description of the test suite of which Squash TM is expecting the result. Usually the file reside in memory because 
  *  this parameter is not explicitly set in the job configuration - thus is unknown to Jenkins and not processed - in which case 
- *  it's up to this class to write it on the disk. In other cases this parameter is explicitly set, in which case we just reuse 
+ *  it's up to this class to write it on the disk (see {@link TestSuiteStore}). In other cases this parameter is explicitly set, in which case we just reuse 
  *  the file generated by Jenkins.
  * </p>
  * 
@@ -75,7 +74,14 @@ class ParameterInjector extends QueueDecisionHandler {
 	
 		if (buildUsesWrapper(p)){
 						
-			TAParametersAction taAction = StaplerBuildOverride.PARAMETERS_WORMHOLE.get()
+			// the bulk trigger hands the action over directly, the regular trigger uses the wormhole
+			TAParametersAction scheduled = actions.find { it in TAParametersAction }
+			TAParametersAction taAction = scheduled ?: StaplerBuildOverride.PARAMETERS_WORMHOLE.get()
+			
+			// not triggered through the override (eg by a timer)
+			if (taAction == null){
+				return true
+			}
 
 			// additional processing if it uses the parameter 'testsuite.json' 
 			if (taAction.isTestRunBuild()){
@@ -83,7 +89,7 @@ class ParameterInjector extends QueueDecisionHandler {
 				ParametersAction paramAction = actions.find { it in ParametersAction } 
 
 				try{				
-					handleTestsuiteFile taAction, paramAction
+					resolveTestsuiteFile taAction, paramAction
 				}
 				catch(Exception ex){
 					LOGGER.log(Level.WARNING, """[TM-PLUGIN] : an error occured while trying to get a 
@@ -97,7 +103,9 @@ The build will be started but the results won't be posted.""")
 			}
 			
 			// now append the action to the action list anyway
-			actions << taAction
+			if (scheduled == null){
+				actions << taAction
+			}
 						
 		}
 
@@ -119,10 +127,17 @@ The build will be started but the results won't be posted.""")
 	 * Two scenarii : 
 	 * 	1 - either Jenkins is handling it already because it's part of the job configuration, 
 	 *  2 - either it does not and we do it ourselves.
+	 *  
+	 * Nothing happens if the location was resolved already (see the bulk trigger in StaplerBuildOverride).
 	 */
-	private void handleTestsuiteFile(TAParametersAction action, ParametersAction buildParams){
+	static void resolveTestsuiteFile(TAParametersAction action, ParametersAction buildParams){
 	
 		FileBuildParameter taParam = action.getParameter PRM_TEST_SUITE_JSON
+		
+		if (taParam.location != null){
+			return
+		}
+		
 		FileItem item = taParam.fileItem
 		
 		// scenario 1 : Jenkins handles the file for us. Beware that buildParams might be null
@@ -136,21 +151,14 @@ The build will be started but the results won't be posted.""")
 			
 			
 		}
-		// scenario 2 : we must handle the file ourselves. Is it in memory ?
-		else if (item.inMemory){
-				
-			File temp = File.createTempFile "tawrapper", "json"
-			temp.deleteOnExit()				
-			item.write temp
-							
-			taParam.location = temp.absolutePath
-			taParam.absoluteLocation = true
-			
-		}
-		// scenario 2 bis : we must handle a file that exists already elsewhere. 
+		// scenario 2 : we must handle the file ourselves, whether it's in memory or not. It goes to the 
+		// test suite store, where it is deduplicated and eventually evicted.
 		else{
-			DiskFileItem diskItem = (DiskFileItem)item
-			taParam.location = diskItem.tempFile.absolutePath
+			TestSuiteStore store = TestSuiteStore.get()
+			String digest = store.store item
+			
+			taParam.digest = digest
+			taParam.location = store.fileOf(digest).absolutePath
 			taParam.absoluteLocation = true
 		}
 		
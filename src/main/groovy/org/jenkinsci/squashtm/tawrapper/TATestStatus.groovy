@@ -23,8 +23,11 @@
  */
 package org.jenkinsci.squashtm.tawrapper
 
+import com.fasterxml.jackson.core.JsonGenerator
+import org.apache.commons.lang.time.FastDateFormat
 import org.jenkinsci.squashtm.core.TestResult
 import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+import org.jenkinsci.squashtm.utils.JsonWritable
 
 import static org.jenkinsci.squashtm.core.TestResult.ExecutionStatus.*
 
@@ -33,9 +36,15 @@ import static org.jenkinsci.squashtm.core.TestResult.ExecutionStatus.*
  * when its TA API is hit. Unfortunately it null-checks against a lot of attributes
  * which don't always make sense.
  * 
+ * It writes itself as json (see {@link JsonWritable}) : the requests are serialized without reflection.
+ * 
  * @see org.squashtest.tm.api.testautomation.execution.dto.TestExecutionStatus
  */
-public class TATestStatus {
+public class TATestStatus implements JsonWritable {
+	
+	// thread safe, unlike SimpleDateFormat
+	private static final FastDateFormat TIMESTAMP_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+	
 	String testName
 	String testGroupName
 	String startTime
@@ -88,7 +97,7 @@ public class TATestStatus {
 		testGroupName = result.projectName
 		
 		// the timestamps are bogus for now
-		def strdate = new Date().format "yyyy-MM-dd'T'HH:mm:ss.SSSZ"
+		String strdate = TIMESTAMP_FORMAT.format System.currentTimeMillis()
 		startTime = strdate
 		endTime = strdate
 		
@@ -100,6 +109,34 @@ public class TATestStatus {
 		status = convertStatus(result.status)
 	}
 	
+	/**
+	 * Returns a copy of this status with the given message, or this status if the message is the same 
+	 */
+	TATestStatus withStatusMessage(String message){
+		if (message == statusMessage){
+			return this
+		}
+		new TATestStatus(testName : testName, testGroupName : testGroupName, startTime : startTime, endTime : endTime, 
+						status : status, statusMessage : message, resultUrl : resultUrl)
+	}
+	
+	/*
+	 * Writes the same json as json-lib would for this bean : the properties in alphabetical order, 
+	 * and the null strings as empty strings.
+	 */
+	@Override
+	public void writeJson(JsonGenerator generator) throws IOException {
+		generator.writeStartObject()
+		generator.writeStringField 'endTime', endTime ?: ''
+		generator.writeStringField 'resultUrl', resultUrl ?: ''
+		generator.writeStringField 'startTime', startTime ?: ''
+		generator.writeStringField 'status', status ?: ''
+		generator.writeStringField 'statusMessage', statusMessage ?: ''
+		generator.writeStringField 'testGroupName', testGroupName ?: ''
+		generator.writeStringField 'testName', testName ?: ''
+		generator.writeEndObject()
+	}
+	
 	@Override
 	public String toString(){
 		return """{
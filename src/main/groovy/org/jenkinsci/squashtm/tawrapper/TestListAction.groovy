@@ -23,22 +23,51 @@
  */
 package org.jenkinsci.squashtm.tawrapper
 
+import groovy.json.JsonOutput
 import hudson.Extension
 import hudson.model.Action
 import hudson.model.Job
 import jenkins.model.TransientActionFactory
 import org.kohsuke.stapler.HttpResponse
+import org.kohsuke.stapler.StaplerRequest
+import org.kohsuke.stapler.StaplerResponse
 import org.kohsuke.stapler.WebMethod
 
 import javax.annotation.Nonnull
+import javax.servlet.http.HttpServletResponse
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.zip.GZIPOutputStream
 
 /**
- * Publishes the test list at the job-relative url : '/Test_list/testTree.json'. This is how the regular TM / TA
- * stack does it (see the package-info).
+ * <p>
+ * 	Publishes the test list at the job-relative url : '/Test_list/testTree.json'. This is how the regular TM / TA
+ * 	stack does it (see the package-info).
+ * </p>
+ * 
+ * <p>
+ * 	Squash TM polls that url for many jobs, so the file is served cheaply : the response carries an ETag and a 
+ * 	Last-Modified header and conditional requests are answered with a 304, the file is gzipped when the client accepts 
+ * 	it, and is streamed instead of being read in memory. The gzipped form of the small files is also kept in a bounded 
+ * 	cache, keyed by job and by the modification time of the file.
+ * </p>
+ * 
+ * <p>
+ * 	It also publishes what changed in the test list since a given time, at '/Test_list/delta?since=&lt;timestamp&gt;' 
+ * 	(see {@link TestListHistory}).
+ * </p>
  *
  */
 class TestListAction implements Action {
 	
+	// files bigger than this are never cached
+	static final int MAX_CACHED_FILE_SIZE = 512 * 1024
+	
+	// the total size of the cache
+	static final int MAX_CACHE_SIZE = 8 * 1024 * 1024
+	
+	static final GzipCache CACHE = new GzipCache(MAX_CACHE_SIZE)
+	
 	private transient Job job
 		
 	@Override
@@ -59,14 +88,210 @@ class TestListAction implements Action {
 	@WebMethod(name=["testTree", "testTree.json"])
 	HttpResponse getTestTree(){		
 		
-		return { req, rsp, o ->
-			def text = new File(job.buildDir, "testTree.json").text
-			rsp.setContentType "application/json;charset=UTF-8"
-			rsp.getWriter().println text
+		return { StaplerRequest req, StaplerResponse rsp, o ->
+			serve job.fullName, new File(job.buildDir, TestListSaver.TEST_LIST_FILENAME), req, rsp
 		} as HttpResponse
 		
 	}
 	
+	
+	/**
+	 * Serves what changed in the test list since the given time, at the job-relative url : '/Test_list/delta?since=&lt;timestamp&gt;'. 
+	 * The timestamp is either a number of milliseconds or the format of the timestamp of the test list. See 
+	 * {@link TestListHistory#delta(long)} for the content of the response.
+	 * 
+	 * @param req
+	 * @param rsp
+	 */
+	public void doDelta(StaplerRequest req, StaplerResponse rsp){
+		
+		Long since = parseTimestamp req.getParameter("since")
+		
+		if (since == null){
+			rsp.sendError HttpServletResponse.SC_BAD_REQUEST, "parameter 'since' is missing or is not a valid timestamp"
+			return
+		}
+		
+		def delta = new TestListHistory(job.buildDir).delta(since)
+		
+		rsp.setContentType "application/json;charset=UTF-8"
+		rsp.setHeader "Cache-Control", "no-cache"
+		rsp.writer.write JsonOutput.toJson(delta)
+	}
+	
+	Long parseTimestamp(String since){
+		if (since == null){
+			return null
+		}
+		
+		if (since.isLong()){
+			return since.toLong()
+		}
+		
+		try{
+			return new SimpleDateFormat(TestListSaver.TIMESTAMP_FORMAT).parse(since).time
+		}
+		catch(ParseException ex){
+			return null
+		}
+	}
+	
+	
+	// ******************** serving the file ********************
+	
+	void serve(String key, File file, StaplerRequest req, StaplerResponse rsp){
+		
+		if (! file.exists()){
+			rsp.sendError HttpServletResponse.SC_NOT_FOUND
+			return
+		}
+		
+		long lastModified = file.lastModified()
+		long length = file.length()
+		String etag = "\"${Long.toHexString(lastModified)}-${Long.toHexString(length)}\""
+		
+		rsp.setHeader "ETag", etag
+		rsp.setDateHeader "Last-Modified", lastModified
+		rsp.setHeader "Cache-Control", "no-cache"
+		rsp.setHeader "Vary", "Accept-Encoding"
+		
+		if (isNotModified(req, etag, lastModified)){
+			rsp.setStatus HttpServletResponse.SC_NOT_MODIFIED
+			return
+		}
+		
+		rsp.setContentType "application/json;charset=UTF-8"
+		
+		if (acceptsGzip(req)){
+			rsp.setHeader "Content-Encoding", "gzip"
+			
+			byte[] gzipped = (length <= MAX_CACHED_FILE_SIZE) ? CACHE.get(key, file, lastModified, length) : null
+			
+			if (gzipped != null){
+				rsp.setContentLength gzipped.length
+				rsp.outputStream.write gzipped
+			}
+			else{
+				GZIPOutputStream out = new GZIPOutputStream(rsp.outputStream)
+				copy file, out
+				out.finish()
+			}
+		}
+		else{
+			rsp.setHeader "Content-Length", Long.toString(length)
+			copy file, rsp.outputStream
+		}
+		
+	}
+	
+	
+	/*
+	 * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232
+	 */
+	boolean isNotModified(StaplerRequest req, String etag, long lastModified){
+		
+		String ifNoneMatch = req.getHeader "If-None-Match"
+		
+		if (ifNoneMatch != null){
+			return ifNoneMatch.split(',').any{
+				def tag = it.trim()
+				tag == '*' || tag == etag || tag == "W/${etag}".toString()
+			}
+		}
+		
+		long ifModifiedSince = req.getDateHeader "If-Modified-Since"
+		
+		// the http dates have no milliseconds
+		return (ifModifiedSince != -1 && lastModified.intdiv(1000) <= ifModifiedSince.intdiv(1000))
+	}
+	
+	boolean acceptsGzip(StaplerRequest req){
+		String accepted = req.getHeader "Accept-Encoding"
+		return accepted != null && accepted.toLowerCase().contains("gzip")
+	}
+	
+	static void copy(File file, OutputStream out){
+		InputStream input = new FileInputStream(file)
+		try{
+			byte[] buffer = new byte[8192]
+			int read
+			while ((read = input.read(buffer)) != -1){
+				out.write buffer, 0, read
+			}
+		}
+		finally{
+			input.close()
+		}
+	}
+	
+	
+	// ******************** the cache ********************
+	
+	/*
+	 * Keeps the gzipped content of the test lists, the least recently used first out when the total size 
+	 * exceeds the limit. An entry is valid only for the modification time and size of the file it was made from.
+	 */
+	static final class GzipCache{
+		
+		private final int maxSize
+		private int size = 0
+		private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<String, CachedFile>(16, 0.75f, true)
+		
+		GzipCache(int maxSize){
+			this.maxSize = maxSize
+		}
+		
+		byte[] get(String key, File file, long lastModified, long length){
+			
+			synchronized(this){
+				CachedFile cached = entries[key]
+				if (cached != null && cached.lastModified == lastModified && cached.length == length){
+					return cached.content
+				}
+			}
+			
+			// compressing out of the lock, if two threads do it at the same time the last one wins 
+			def buffer = new ByteArrayOutputStream((int) length.intdiv(4) + 64)
+			def gzip = new GZIPOutputStream(buffer)
+			copy file, gzip
+			gzip.close()
+			
+			def cached = new CachedFile(lastModified : lastModified, length : length, content : buffer.toByteArray())
+			
+			synchronized(this){
+				CachedFile previous = entries.put(key, cached)
+				size += cached.content.length - (previous?.content?.length ?: 0)
+				evict()
+			}
+			
+			return cached.content
+		}
+		
+		synchronized int getSize(){
+			size
+		}
+		
+		synchronized boolean contains(String key){
+			entries.containsKey key
+		}
+		
+		private void evict(){
+			Iterator<CachedFile> iterator = entries.values().iterator()
+			while (size > maxSize && iterator.hasNext()){
+				size -= iterator.next().content.length
+				iterator.remove()
+			}
+		}
+		
+	}
+	
+	private static final class CachedFile{
+		long lastModified
+		long length
+		byte[] content
+	}
+	
+	
 	// ******************** the factory that registers it ********************
 	
 	@Extension
@@ -0,0 +1,299 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * <p>
+ * 	Keeps track of how the test list of a job changes over the builds. Alongside the file testTree.json, in the 
+ * 	folder of the job, we keep : 
+ * 	<ul>
+ * 		<li>the fingerprint of the sorted test paths, so that an unchanged test list is not rewritten,</li>
+ * 		<li>the sorted test paths themselves (gzipped), so that we can tell what changed the next time,</li>
+ * 		<li>a short history of the tests added and removed, from which the deltas are served.</li>
+ * 	</ul>
+ * </p>
+ * 
+ * <p>
+ * 	The history holds at most {@link #MAX_CHANGES} changes. A change bigger than {@link #MAX_CHANGE_SIZE} tests is 
+ * 	recorded as a reset : the clients asking for a delta across it must download the full test list again.
+ * </p>
+ * 
+ * <p>
+ * 	The paths are those of the test list, ie without the project name.
+ * </p>
+ * 
+ * <p>
+ * 	Two builds of a job may save their test list at the same time : the files are written under the lock of the 
+ * 	folder (see {@link #withLock(File, Closure)}), through temporary files of their own.
+ * </p>
+ *
+ */
+class TestListHistory {
+	
+	static final String FINGERPRINT_FILENAME = 'testTree.fingerprint'
+	static final String PATHS_FILENAME = 'testTree.paths.gz'
+	static final String HISTORY_FILENAME = 'testTree.history.json'
+	
+	static final int MAX_CHANGES = 20
+	static final int MAX_CHANGE_SIZE = 10000
+	
+	private static final String CHARSET = 'UTF-8'
+	
+	// folder -> its lock. There is one per job, no need to ever remove them.
+	private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>()
+	
+	File dir
+	
+	TestListHistory(File dir){
+		this.dir = dir
+	}
+	
+	
+	/**
+	 * Runs the closure under the lock of the given folder, and returns what it returns
+	 */
+	static <T> T withLock(File dir, Closure<T> action){
+		String key = dir.absolutePath
+		LOCKS.putIfAbsent key, new Object()
+		synchronized(LOCKS.get(key)){
+			return action.call()
+		}
+	}
+	
+	
+	// ********************* fingerprint ******************************
+	
+	static String fingerprint(List<String> sortedPaths){
+		MessageDigest digest = MessageDigest.getInstance("SHA-256")
+		sortedPaths.each{
+			digest.update it.getBytes(CHARSET)
+			digest.update((byte) 10)	// '\n'
+		}
+		return digest.digest().encodeHex().toString()
+	}
+	
+	/**
+	 * @return the fingerprint of the last recorded test list, or null if none
+	 */
+	String getFingerprint(){
+		File file = new File(dir, FINGERPRINT_FILENAME)
+		return file.exists() ? file.getText(CHARSET).trim() : null
+	}
+	
+	
+	// ********************* recording ********************************
+	
+	/**
+	 * Records a new state of the test list. The change with the previous one (if any) is appended to the history.
+	 * 
+	 * @param sortedPaths
+	 * @param fingerprint the fingerprint of sortedPaths
+	 * @param timestamp the time of that change
+	 */
+	void record(List<String> sortedPaths, String fingerprint, long timestamp){
+		// the history is read, updated then written back
+		withLock(dir){ doRecord sortedPaths, fingerprint, timestamp }
+	}
+	
+	private void doRecord(List<String> sortedPaths, String fingerprint, long timestamp){
+		
+		File pathsFile = new File(dir, PATHS_FILENAME)
+		
+		Map history
+		
+		if (! pathsFile.exists()){
+			// first time : that's where the history starts
+			history = [baseline : timestamp, changes : []]
+		}
+		else{
+			history = readHistory() ?: [baseline : timestamp, changes : []]
+			history.changes << diff(readPaths(), sortedPaths, timestamp)
+			
+			// the history is trimmed from the oldest, which moves its beginning forward
+			while (history.changes.size() > MAX_CHANGES){
+				history.baseline = history.changes.remove(0).timestamp
+			}
+		}
+		
+		writeAtomically(PATHS_FILENAME){ OutputStream out ->
+			Writer writer = new OutputStreamWriter(new GZIPOutputStream(out), CHARSET)
+			sortedPaths.each { writer.write it; writer.write '\n' }
+			writer.close()
+		}
+		
+		writeAtomically(HISTORY_FILENAME){ OutputStream out ->
+			out.write JsonOutput.toJson(history).getBytes(CHARSET)
+		}
+		
+		writeAtomically(FINGERPRINT_FILENAME){ OutputStream out ->
+			out.write fingerprint.getBytes(CHARSET)
+		}
+		
+	}
+	
+	// both lists being sorted, one pass is enough
+	Map diff(List<String> before, List<String> after, long timestamp){
+		
+		List<String> added = []
+		List<String> removed = []
+		
+		int i = 0, j = 0
+		
+		while (i < before.size() || j < after.size()){
+			int cmp = (i == before.size()) ? 1 :
+					  (j == after.size()) ? -1 :
+					  before[i].compareTo(after[j])
+			
+			if (cmp == 0){
+				i++; j++
+			}
+			else if (cmp < 0){
+				removed << before[i++]
+			}
+			else{
+				added << after[j++]
+			}
+		}
+		
+		if (added.size() + removed.size() > MAX_CHANGE_SIZE){
+			return [timestamp : timestamp, reset : true]
+		}
+		
+		return [timestamp : timestamp, added : added, removed : removed]
+	}
+	
+	
+	// ********************* reading **********************************
+	
+	/**
+	 * <p>
+	 * 	Returns what changed after the given time, as a map with the entries : 
+	 * 	<ul>
+	 * 		<li>full : true if the history can't tell (too old, or a reset happened since), in which case the client 
+	 * 		must download the full test list</li>
+	 * 		<li>timestamp : the time of the last change known, to be used as 'since' the next time</li>
+	 * 		<li>added, removed : the paths added and removed since then</li>
+	 * 	</ul>
+	 * </p>
+	 * 
+	 * @param since
+	 * @return
+	 */
+	Map delta(long since){
+		
+		Map history = readHistory()
+		
+		if (history == null){
+			return [full : true]
+		}
+		
+		long last = history.changes ? history.changes[-1].timestamp : history.baseline
+		
+		if (since < history.baseline){
+			return [full : true, timestamp : last]
+		}
+		
+		Set<String> added = new TreeSet<String>()
+		Set<String> removed = new TreeSet<String>()
+		
+		for (change in history.changes){
+			if (change.timestamp <= since){
+				continue
+			}
+			
+			if (change.reset){
+				return [full : true, timestamp : last]
+			}
+			
+			// a test added then removed didn't change, and vice versa
+			change.added.each { if (! removed.remove(it)) added << it }
+			change.removed.each { if (! added.remove(it)) removed << it }
+		}
+		
+		return [full : false, timestamp : last, added : added as List, removed : removed as List]
+	}
+	
+	List<String> readPaths(){
+		File file = new File(dir, PATHS_FILENAME)
+		
+		if (! file.exists()){
+			return []
+		}
+		
+		List<String> paths = []
+		Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), CHARSET)
+		try{
+			reader.eachLine { paths << it }
+		}
+		finally{
+			reader.close()
+		}
+		return paths
+	}
+	
+	Map readHistory(){
+		File file = new File(dir, HISTORY_FILENAME)
+		return file.exists() ? new JsonSlurper().parseText(file.getText(CHARSET)) : null
+	}
+	
+	
+	// ********************* utils ************************************
+	
+	// the file is written aside then moved in place, so that readers never see it half written
+	private void writeAtomically(String filename, Closure writeTo){
+		File file = new File(dir, filename)
+		File tmp = File.createTempFile(filename, ".tmp", dir)
+		
+		try{
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))
+			try{
+				writeTo out
+			}
+			finally{
+				out.close()
+			}
+			
+			// renameTo won't replace an existing file on some platforms
+			if (! tmp.renameTo(file)){
+				file.delete()
+				tmp.renameTo file
+			}
+		}
+		finally{
+			if (tmp.exists()){
+				tmp.delete()
+			}
+		}
+	}
+	
+}
@@ -23,7 +23,9 @@
  */
 package org.jenkinsci.squashtm.tawrapper
 
-import groovy.json.JsonBuilder
+import com.fasterxml.jackson.core.JsonEncoding
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
 import hudson.FilePath
 import hudson.remoting.VirtualChannel
 import jenkins.SlaveToMasterFileCallable
@@ -32,7 +34,16 @@ import org.jenkinsci.squashtm.core.TestResult
 
 class TestListSaver {
 	
-	private static final String TEST_LIST_FILENAME = 'testTree.json'
+	static final String TEST_LIST_FILENAME = 'testTree.json'
+	
+	static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ"
+	
+	/*
+	 * The test list is written compact, set that system property to true to have it indented. 
+	 */
+	static final boolean PRETTY_PRINT = Boolean.getBoolean(TestListSaver.class.name + ".prettyPrint")
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
 
 	JobInformations infos
 	PrintStream logger
@@ -50,13 +61,24 @@ class TestListSaver {
 	
 	// will print the list of tests to file, as a structured format
 	public void saveTestList(Collection<TestResult> results){
+		saveTestPaths results.collect{ it.path }
+	}
 	
+	// same as above, when only the paths of the tests are known
+	public void saveTestPaths(Collection<String> paths){
+	
+		Date now = new Date()
+		
 		TestListBean testList = new TestListBean()
-		testList.populateWith results
+		testList.populateWithPaths paths, now
+		
+		// the sorted paths, for the history of the test list
+		List<String> sortedPaths = paths.isEmpty() ? [] : testList.stripPrefixes(paths).sort()
 		
 		FilePath outfile = new FilePath(new FilePath(infos.buildPath), TEST_LIST_FILENAME)
 		
-		TestListCallable callable = new TestListCallable(testList : testList, logger : logger)
+		TestListCallable callable = new TestListCallable(testList : testList, sortedPaths : sortedPaths, 
+														  timestamp : now.time, logger : logger)
 		
 		outfile.act callable
 		
@@ -68,21 +90,61 @@ class TestListSaver {
 	private static final class TestListCallable extends SlaveToMasterFileCallable<Void>{
 		
 		TestListBean testList
+		List<String> sortedPaths
+		long timestamp
 		PrintStream logger
 
 		@Override
 		public Void invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
-			if (f.exists()){
-				f.delete()
+			// two builds of the job may save their test list at the same time
+			TestListHistory.withLock(f.parentFile){ save f }
+			return null
+		}
+		
+		private void save(File f){
+			
+			// the test list is left alone if the tests didn't change
+			TestListHistory history = new TestListHistory(f.parentFile)
+			String fingerprint = TestListHistory.fingerprint sortedPaths
+			
+			if (f.exists() && fingerprint == history.fingerprint){
+				logger.println "[TM-PLUGIN] : the test list did not change, ${TEST_LIST_FILENAME} is left as is"
+				return
 			}
 			
-			if (f.createNewFile()){
-				JsonBuilder jsonbuilder = new JsonBuilder(testList)
-				f.write jsonbuilder.toPrettyString()
+			// the list is written aside then moved in place, so that the TestListAction never serves 
+			// (nor caches) a file being written
+			File tmp
+			try{
+				tmp = File.createTempFile(f.name, ".tmp", f.parentFile)
 			}
-			else{
-				logger.println "[TM-PLUGIN] : error : could not create file ${TEST_LIST_FILENAME}. "+
+			catch(IOException ex){
+				logger.println "[TM-PLUGIN] : error : could not create file ${TEST_LIST_FILENAME} (${ex.message}). "+
 								"Squash TM will not be able to retrieve the test list until this file is created."
+				return
+			}
+			
+			try{
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))
+				try{
+					testList.writeTo out
+				}
+				finally{
+					out.close()
+				}
+				
+				// renameTo won't replace an existing file on some platforms
+				if (! tmp.renameTo(f)){
+					f.delete()
+					tmp.renameTo f
+				}
+				
+				history.record sortedPaths, fingerprint, timestamp
+			}
+			finally{
+				if (tmp.exists()){
+					tmp.delete()
+				}
 			}
 		}
 		
@@ -94,72 +156,132 @@ class TestListSaver {
 	private static final class TestListBean implements Serializable{
 		String timestamp
 		String name
-		Collection<SubNode> contents = []
+		SubNode root = new SubNode()
 		
 		TestListBean(){
 			
 		}
 		
+		Collection<SubNode> getContents(){
+			root.contents ?: []
+		}
+		
 		void populateWith(Collection<TestResult> results){
+			populateWithPaths results.collect{ it.path }
+		}
+		
+		void populateWithPaths(Collection<String> paths, Date date = new Date()){
 			
-			timestamp = new Date().format("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+			timestamp = date.format(TIMESTAMP_FORMAT)
 			name = 'tests'
 			
-			if (results.isEmpty()){
+			if (paths.isEmpty()){
 				return
 			}
 			
-			// our task is now to un-flatten the path of each result and build a tree-like hierarchy
-	
-			def allpaths =	stripPrefixes results.collect{ it.path }
-			allpaths = allpaths.sort()
+			// our task is now to un-flatten the path of each result and build a tree-like hierarchy.
+			// The nodes are sorted only when the tree is read, see SubNode.getContents()
 			
-			SubNode root = new SubNode()
+			def prefixSize = prefixSize paths
 			
-			allpaths.each{
-				def components = it.split '/'
+			paths.each{
+				def components = it.substring(prefixSize).split '/'
 				def currentNode = root
 				components.each{
 					currentNode = currentNode.findOrAddChild it
 				}
 			}
+		}
+		
+		// writes the test list as json, compact unless told otherwise (see PRETTY_PRINT)
+		void writeTo(OutputStream out){
+			JsonGenerator generator = JSON_FACTORY.createGenerator out, JsonEncoding.UTF8
 			
-			// now we assign our contents
-			contents = root.contents
+			if (PRETTY_PRINT){
+				generator.useDefaultPrettyPrinter()
+			}
+			
+			generator.writeStartObject()
+			generator.writeStringField 'timestamp', timestamp
+			generator.writeStringField 'name', name
+			generator.writeArrayFieldStart 'contents'
+			getContents().each { it.writeTo generator }
+			generator.writeEndArray()
+			generator.writeEndObject()
+			
+			generator.close()
 		}
 		
 		private List stripPrefixes(Collection<String> paths){
 			
-			// here we sample our prefix
-			def prefixSize = paths[0].find(/^\/[^\/]+\//).size()
+			def prefixSize = prefixSize paths
 			
 			// and now we strip it from every pathes
 			paths.collect{ it.drop prefixSize }
 			
 		}
-
+		
+		private int prefixSize(Collection<String> paths){
+			// here we sample our prefix
+			paths.iterator().next().find(/^\/[^\/]+\//).size()
+		}
 		
 	}
 	
 	
 	
-	private static final class SubNode{
+	private static final class SubNode implements Serializable{
 		String name
-		Collection<SubNode> contents
+		
+		// indexed by name, null for the leaves
+		private Map<String, SubNode> children
 		
 		private SubNode findOrAddChild(String name){
-			if (contents == null)
-				contents = []
+			if (children == null)
+				children = new HashMap<String, SubNode>()
 				
-			SubNode child = contents.find { it.name == name }
+			SubNode child = children[name]
 			
 			if (child == null){
 				child = new SubNode(name : name)
-				contents << child
+				children[name] = child
 			}
 			
 			return child
 		}
+		
+		/*
+		 * Returns the children sorted as if the full paths were sorted as strings, or null for a leaf
+		 */
+		Collection<SubNode> getContents(){
+			if (children == null){
+				return null
+			}
+			
+			children.values().sort { it.sortKey }
+		}
+		
+		String getSortKey(){
+			(children == null) ? name : name + '/'
+		}
+		
+		void writeTo(JsonGenerator generator){
+			generator.writeStartObject()
+			generator.writeStringField 'name', name
+			
+			def contents = getContents()
+			
+			if (contents == null){
+				generator.writeNullField 'contents'
+			}
+			else{
+				generator.writeArrayFieldStart 'contents'
+				contents.each { it.writeTo generator }
+				generator.writeEndArray()
+			}
+			
+			generator.writeEndObject()
+		}
 	}
 	
 }
@@ -0,0 +1,129 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import hudson.remoting.VirtualChannel
+import jenkins.MasterToSlaveFileCallable
+
+/**
+ * <p>
+ * 	Reads the test suite descriptor sent by Squash TM (the file 'testsuite.json') and returns an index of the tests it 
+ * 	contains : the keys are the test scripts, prefixed with the given prefix, and the values are the ids of the automated 
+ * 	executions that await their results. Everything else in the file is ignored.
+ * </p>
+ * 
+ * <p>
+ * 	The file is read with a streaming parser, on the node where it lives : only the index travels back to the master, 
+ * 	instead of the whole file and its object graph.
+ * </p>
+ * 
+ * <p>
+ * 	The expected format is : 
+ * 	<pre>
+ * 	{ "test" : [ { "id" : "87", "script" : "org/bsiri/heroquest/altdorf/AltdorfSewersTest/test", "param" : {...} }, ... ] }
+ * 	</pre>
+ * </p>
+ * 
+ */
+class TestSuiteIndexCallable extends MasterToSlaveFileCallable<HashMap<String, String>>{
+	
+	private static final long serialVersionUID = 1L
+	
+	// thread safe, and expensive to create
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
+	
+	/**
+	 * prepended to the script of each test
+	 */
+	String prefix = ""
+	
+	
+	@Override
+	public HashMap<String, String> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+		InputStream stream = new BufferedInputStream(new FileInputStream(f))
+		try{
+			return index(stream)
+		}
+		finally{
+			stream.close()
+		}
+	}
+	
+	HashMap<String, String> index(InputStream stream){
+		
+		HashMap<String, String> testmap = new HashMap<String, String>()
+		
+		JsonParser parser = JSON_FACTORY.createParser stream
+		
+		try{
+			if (parser.nextToken() != JsonToken.START_OBJECT){
+				throw new IOException("malformed test suite : a json object was expected")
+			}
+			
+			while (parser.nextToken() == JsonToken.FIELD_NAME){
+				String field = parser.currentName
+				JsonToken value = parser.nextToken()
+				
+				if (field == 'test' && value == JsonToken.START_ARRAY){
+					while (parser.nextToken() == JsonToken.START_OBJECT){
+						readTest parser, testmap
+					}
+				}
+				else{
+					parser.skipChildren()
+				}
+			}
+		}
+		finally{
+			parser.close()
+		}
+		
+		return testmap
+	}
+	
+	// reads one entry of the array 'test', the parser being positioned on its START_OBJECT
+	private void readTest(JsonParser parser, Map<String, String> testmap){
+		String id = null
+		String script = null
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME){
+			String field = parser.currentName
+			parser.nextToken()
+			
+			switch(field){
+				case 'id' : id = parser.text; break
+				case 'script' : script = parser.text; break
+				default : parser.skipChildren()
+			}
+		}
+		
+		if (id != null && script != null){
+			testmap.put prefix + script, id
+		}
+	}
+	
+}
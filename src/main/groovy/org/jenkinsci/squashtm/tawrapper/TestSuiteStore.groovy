@@ -0,0 +1,266 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import hudson.Extension
+import hudson.Util
+import hudson.model.AsyncPeriodicWork
+import hudson.model.Computer
+import hudson.model.Executor
+import hudson.model.Queue
+import hudson.model.Run
+import hudson.model.TaskListener
+import jenkins.model.Jenkins
+import org.apache.commons.fileupload.FileItem
+import org.jenkinsci.squashtm.tawrapper.TAParametersAction.FileBuildParameter
+import org.jenkinsci.squashtm.utils.LruMap
+
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.logging.Level
+import java.util.logging.Logger
+
+import static org.jenkinsci.squashtm.tawrapper.TA.*
+
+/**
+ * <p>
+ * 	Keeps the test suite descriptors (the files 'testsuite.json') uploaded by Squash TM, when Jenkins doesn't 
+ * 	handle them itself (see {@link ParameterInjector}). The files are stored under JENKINS_HOME/squashtm/testsuites and 
+ * 	named after the SHA-256 of their content : Squash TM often sends the same test suite again, in which case the 
+ * 	file stored already is reused.
+ * </p>
+ * 
+ * <p>
+ * 	The parsed indexes of the test suites (see {@link TestSuiteIndexCallable}) are cached in memory by digest and 
+ * 	prefix, so that repeated runs of a job against the same test suite don't parse it again. The cached indexes 
+ * 	are shared and must not be modified.
+ * </p>
+ * 
+ * <p>
+ * 	The {@link Cleaner} periodically removes the files that weren't used for {@link #MAX_AGE_HOURS} hours, then the least 
+ * 	recently used ones until the store is back under {@link #MAX_SIZE_MB} megabytes. A file used within the last hour is 
+ * 	always kept, and so is a file that a queued item or a running build still refers to, however old it is.
+ * </p>
+ */
+class TestSuiteStore {
+	
+	private final static Logger LOGGER = Logger.getLogger(TestSuiteStore.class.getName());
+	
+	static final int MAX_AGE_HOURS = Integer.getInteger(TestSuiteStore.class.name + ".maxAgeHours", 7 * 24)
+	
+	static final int MAX_SIZE_MB = Integer.getInteger(TestSuiteStore.class.name + ".maxSizeMB", 256)
+	
+	static final int MAX_CACHED_INDEXES = Integer.getInteger(TestSuiteStore.class.name + ".maxCachedIndexes", 16)
+	
+	static final long MIN_AGE = 60 * 60 * 1000L
+	
+	static final String EXTENSION = ".json"
+	
+	private static TestSuiteStore instance
+	
+	
+	final File root
+	
+	// digest + prefix -> index
+	private final Map<String, Map<String, String>> indexes = 
+		Collections.synchronizedMap(new LruMap<String, Map<String, String>>(MAX_CACHED_INDEXES))
+	
+	
+	TestSuiteStore(File root){
+		this.root = root
+	}
+	
+	static synchronized TestSuiteStore get(){
+		if (instance == null){
+			instance = new TestSuiteStore(new File(Jenkins.instance.rootDir, "squashtm/testsuites"))
+		}
+		return instance
+	}
+	
+	
+	/**
+	 * Stores the content of the uploaded file, unless an identical file is stored already, and returns its digest. 
+	 */
+	String store(FileItem item){
+		
+		root.mkdirs()
+		
+		File temp = File.createTempFile("upload", ".tmp", root)
+		
+		try{
+			MessageDigest sha = MessageDigest.getInstance "SHA-256"
+			
+			InputStream input = new DigestInputStream(item.inputStream, sha)
+			try{
+				temp.withOutputStream { OutputStream out -> out << input }
+			}
+			finally{
+				input.close()
+			}
+			
+			String digest = Util.toHexString(sha.digest())
+			File target = fileOf digest
+			
+			if (target.exists()){
+				// same content : refresh it so that it's not evicted, the upload is dropped below
+				target.setLastModified System.currentTimeMillis()
+			}
+			else if (! temp.renameTo(target)){
+				throw new IOException("could not move the test suite to ${target}")
+			}
+			
+			return digest
+		}
+		finally{
+			temp.delete()
+		}
+	}
+	
+	File fileOf(String digest){
+		new File(root, digest + EXTENSION)
+	}
+	
+	/**
+	 * Returns the index of a stored test suite, the keys being prefixed with the given prefix. 
+	 */
+	Map<String, String> index(String digest, String prefix){
+		
+		String key = digest + ":" + prefix
+		
+		Map<String, String> testmap = indexes.get key
+		
+		if (testmap == null){
+			testmap = Collections.unmodifiableMap(new TestSuiteIndexCallable(prefix : prefix).invoke(fileOf(digest), null))
+			indexes.put key, testmap
+		}
+		
+		return testmap
+	}
+	
+	
+	/**
+	 * Deletes the files that expired, then the oldest ones while the store exceeds the size limit, except those 
+	 * whose digest is in use. Returns the number of deleted files.
+	 */
+	int evict(long maxAge, long maxSize, Set<String> inUse = Collections.emptySet()){
+		
+		File[] files = root.listFiles({ File dir, String name -> name.endsWith EXTENSION } as FilenameFilter)
+		if (files == null){
+			return 0
+		}
+		
+		long now = System.currentTimeMillis()
+		
+		// most recently used first
+		List<File> stored = files.toList().sort { - it.lastModified() }
+		
+		int deleted = 0
+		long size = 0
+		
+		stored.each { File file ->
+			long age = now - file.lastModified()
+			long length = file.length()
+			size += length
+			
+			boolean expired = age > maxAge
+			boolean overflow = size > maxSize
+			
+			if ((expired || overflow) && age > MIN_AGE && ! inUse.contains(file.name - EXTENSION) && delete(file)){
+				size -= length
+				deleted++
+			}
+		}
+		
+		return deleted
+	}
+	
+	private boolean delete(File file){
+		if (! file.delete()){
+			LOGGER.log(Level.FINE, "[TM-PLUGIN] : could not delete the test suite ${file}")
+			return false
+		}
+		
+		String digest = file.name - EXTENSION
+		synchronized(indexes){
+			indexes.keySet().retainAll indexes.keySet().findAll { ! it.startsWith(digest + ":") }
+		}
+		return true
+	}
+	
+	
+	@Extension
+	static class Cleaner extends AsyncPeriodicWork{
+		
+		Cleaner(){
+			super("Squash TM test suite store cleaner")
+		}
+		
+		@Override
+		public long getRecurrencePeriod(){
+			HOUR
+		}
+		
+		@Override
+		protected void execute(TaskListener listener){
+			int deleted = TestSuiteStore.get().evict(MAX_AGE_HOURS * HOUR, MAX_SIZE_MB * 1024L * 1024L, digestsInUse())
+			if (deleted > 0){
+				listener.logger.println "[TM-PLUGIN] : removed ${deleted} test suite(s) from the store"
+			}
+		}
+		
+		/*
+		 * The digests of the test suites referred to by the items waiting in the queue and by the builds 
+		 * still running : those builds will read the test suite (or have its index parsed) later on.
+		 */
+		static Set<String> digestsInUse(){
+			
+			Jenkins jenkins = Jenkins.instance
+			
+			Set<String> inUse = new HashSet<String>()
+			
+			jenkins.queue.items.each { Queue.Item item ->
+				addDigest inUse, item.getAction(TAParametersAction)
+			}
+			
+			jenkins.computers.each { Computer computer ->
+				(computer.executors + computer.oneOffExecutors).each { Executor executor ->
+					def executable = executor.currentExecutable
+					if (executable instanceof Run){
+						addDigest inUse, executable.getAction(TAParametersAction)
+					}
+				}
+			}
+			
+			return inUse
+		}
+		
+		private static void addDigest(Set<String> inUse, TAParametersAction action){
+			def suite = action?.getParameter(PRM_TEST_SUITE_JSON)
+			if (suite instanceof FileBuildParameter && suite.digest != null){
+				inUse << suite.digest
+			}
+		}
+	}
+	
+}
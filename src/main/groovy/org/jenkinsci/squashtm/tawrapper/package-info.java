@@ -220,6 +220,12 @@
  *     </li>
  *     <li>{@link org.jenkinsci.squashtm.tawrapper.TestListAction} : is the action that publishes the test list. It also define the action factory that registers it.
  *     This action is invisible in the user interface : it just staples the file to the job-relative url '/Test_list/testTree.json'.
+ *     The file is served with an ETag and a Last-Modified date (so that Squash TM polling it gets a 304 when nothing changed),
+ *     gzipped when possible, and the gzipped form of the small files is cached. What changed since a given time is published at
+ *     '/Test_list/delta?since=&lt;timestamp&gt;'.
+ *     </li>
+ *     <li>{@link org.jenkinsci.squashtm.tawrapper.TestListHistory} : keeps the fingerprint of the test list (so that an unchanged
+ *     list is not rewritten) and a short history of the tests added and removed, from which the deltas are served.
  *     </li>
  * </ul>
  *
@@ -282,6 +288,8 @@
  *          It handles the POST parameters and prepare the corresponding {@link org.jenkinsci.squashtm.tawrapper.TAParametersAction}. See its documentation for more details.
  *          Note : it passes the parameters to the {@link org.jenkinsci.squashtm.tawrapper.ParameterInjector} via a ThreadLocal because the StaplerBuildOverride
  *          cannot inject the parameters in the Build itself (it doesn't exist yet).
+ *          It also exposes /bulkBuild, which schedules many TA runs in a single request. In that case the parameters are handed to the queue along with the
+ *          other actions of each run and the ThreadLocal is not used.
  *      </li>
  *      <li>
  *          {@link org.jenkinsci.squashtm.tawrapper.TAParametersAction} : a bunch of classes that represent our parameters. They implement {@link hudson.model.Action},
@@ -23,33 +23,79 @@
  */
 package org.jenkinsci.squashtm.utils
 
-import net.sf.json.JSONObject
+import hudson.util.DaemonThreadFactory
+import hudson.util.NamingThreadFactory
+import jenkins.util.Timer
+import org.apache.http.Header
+import org.apache.http.HttpEntity
 import org.apache.http.HttpHost
+import org.apache.http.HttpResponse
+import org.apache.http.StatusLine
 import org.apache.http.auth.AuthScope
 import org.apache.http.auth.UsernamePasswordCredentials
 import org.apache.http.client.AuthCache
 import org.apache.http.client.CredentialsProvider
+import org.apache.http.client.config.RequestConfig
 import org.apache.http.client.methods.CloseableHttpResponse
+import org.apache.http.client.methods.HttpGet
 import org.apache.http.client.methods.HttpPost
+import org.apache.http.client.methods.HttpRequestBase
 import org.apache.http.client.protocol.HttpClientContext
-import org.apache.http.entity.StringEntity
+import org.apache.http.conn.ConnectionKeepAliveStrategy
 import org.apache.http.impl.auth.BasicScheme
 import org.apache.http.impl.client.BasicAuthCache
 import org.apache.http.impl.client.BasicCredentialsProvider
 import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy
 import org.apache.http.impl.client.HttpClients
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
+import org.apache.http.message.BasicHeader
+import org.apache.http.protocol.HttpContext
+import org.apache.http.util.EntityUtils
+import org.jenkinsci.squashtm.core.CircuitBreaker
+import org.jenkinsci.squashtm.core.CircuitBreaker.UnavailableException
+import org.jenkinsci.squashtm.core.PublicationMetrics
 import org.jenkinsci.squashtm.core.TMServer
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+import java.util.logging.Logger
+
 /**
  * <p>This class wraps around the Apache httpclient library shipped with Jenkins.
  * The more groovy-friendly library 'http-builder' would have been great, however
  * it causes subtle runtime issues due to conflicting dependencies.</p>
  * 
  * <p>
- * 	Remember to close it once the job is done.
+ * 	There is one HttpClient per {@link TMServer}, shared by all the builds (see {@link #withServer(TMServer, Closure)}). It holds a pool 
+ * 	of persistent connections and a pool of threads, both sized after {@link TMServer#getMaxConcurrentRequests()} : this is 
+ * 	how many requests can be in flight for that server at any time. Requests can be sent either synchronously ({@link #post(String, Object)}) 
+ * 	or asynchronously ({@link #postAsync(String, Object)}), see also {@link PostingPipeline}.
  * </p>
  * 
+ * <p>
+ * 	The timeouts are those of the server, and the requests go through the {@link CircuitBreaker} of the server : they fail 
+ * 	right away while it is open, and are held when the server asked us to slow down (429 or 503 with a Retry-After).
+ * </p>
  * 
+ * <p>
+ * 	The payloads are serialized by {@link JsonPayloadWriter} straight to the connection when the request is sent (see 
+ * 	{@link JsonEntity}), and gzipped if the server says so.
+ * </p>
+ * 
+ * <p>
+ * 	Shared clients are retired when the global configuration changes (see {@link #closeAll()}), and closed once their users 
+ * 	are done with them. Don't close them yourself. Only the controller shares its clients : the configuration doesn't change 
+ * 	on the agents, nothing would retire them there. The agents create their own client and close it when done 
+ * 	(see {@link #HttpClient(TMServer, String)}).
+ * </p>
  * 
  */
 /*
@@ -57,87 +103,418 @@ import org.jenkinsci.squashtm.core.TMServer
  */
 class HttpClient implements Closeable{
 	
-	PrintStream logger
+	private final static Logger LOGGER = Logger.getLogger(HttpClient.class.getName());
+	
+	// the longest we accept to hold a request when the server asked us to slow down, in milliseconds.
+	// Beyond that the request fails (and is deferred, see Outbox)
+	static final long MAX_THROTTLE_WAIT = 10000
+	
+	// how long an idle connection is kept alive when the server doesn't say, in milliseconds
+	static final long DEFAULT_KEEP_ALIVE = 30000
+	
+	// the clients shared between the builds, see withServer()
+	private static final ConcurrentMap<String, HttpClient> SHARED_CLIENTS = new ConcurrentHashMap<String, HttpClient>()
+	
 	
 	CloseableHttpClient client
 	HttpHost host
-	HttpClientContext context 
+	CredentialsProvider credsProvider
+	AuthCache authCache
+	
+	int maxConcurrentRequests = 1
+	ExecutorService executor 
+	
+	// in milliseconds
+	int socketTimeout = TMServer.DEFAULT_SOCKET_TIMEOUT * 1000
+	
+	// whether the request bodies are gzipped
+	boolean compressRequests = false
+	
+	// null when there is no server (tests)
+	CircuitBreaker breaker
+	String serverName
+	
+	// when shared : how many are using it, and whether it was replaced by a new one, see withServer()
+	private int users = 0
+	private boolean retired = false
 	
 	
 	HttpClient(){
 		
 	}
 	
-	HttpClient(TMServer server, PrintStream logger){
-		
-		this.logger = logger
+	/**
+	 * Creates a client of your own, not shared : close it when you're done.
+	 * 
+	 * @param server
+	 * @param authorization when not null, the value of the header 'Authorization' sent with every request instead of 
+	 * the credentials of the server (see {@link TMServer#basicAuthorization()})
+	 */
+	HttpClient(TMServer server, String authorization = null){
 		
 		def (hostname, port, scheme) = parseUrl(server.url)
 		
 		host = new HttpHost(hostname, port, scheme)
 		
-		// credentials : 
-		CredentialsProvider credsProvider = new BasicCredentialsProvider()
-
-		// TODO : use Jenkins credentials manager instead ?
-		credsProvider.setCredentials(
-			new AuthScope(host.hostName, host.port),
-			new UsernamePasswordCredentials(server.login, server.password)
-		)
+		List<Header> headers = []
 		
-		// auth cache :
-		AuthCache authCache = new BasicAuthCache()
-		BasicScheme basicScheme = new BasicScheme()
+		if (authorization == null){
+			// credentials : 
+			credsProvider = new BasicCredentialsProvider()
+	
+			// TODO : use Jenkins credentials manager instead ?
+			credsProvider.setCredentials(
+				new AuthScope(host.hostName, host.port),
+				new UsernamePasswordCredentials(server.login, server.password)
+			)
+			
+			// auth cache (thread safe, shared by all the requests) :
+			authCache = new BasicAuthCache()
+			BasicScheme basicScheme = new BasicScheme()
+			
+			authCache.put host, basicScheme 
+		}
+		else{
+			// the agents, see AgentPostingCallable
+			headers << new BasicHeader("Authorization", authorization)
+		}
 		
-		authCache.put host, basicScheme 
+		// connection pool : 
+		maxConcurrentRequests = server.maxConcurrentRequests
 		
-		// context : 
-		context = HttpClientContext.create()
-		context.authCache = authCache
+		PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager()
+		connManager.maxTotal = maxConcurrentRequests
+		connManager.defaultMaxPerRoute = maxConcurrentRequests
+		
+		socketTimeout = server.socketTimeout * 1000
+		compressRequests = server.compressRequests
+		
+		RequestConfig requestConfig = RequestConfig.custom()
+											.setConnectTimeout(server.connectTimeout * 1000)
+											.setConnectionRequestTimeout(socketTimeout)
+											.setSocketTimeout(socketTimeout)
+											.build()
 		
 		// init
 		client = HttpClients.custom()
 							.setDefaultCredentialsProvider(credsProvider)
+							.setDefaultHeaders(headers)
+							.setConnectionManager(connManager)
+							.setKeepAliveStrategy(keepAliveStrategy())
+							.setDefaultRequestConfig(requestConfig)
+							.evictExpiredConnections()
+							.evictIdleConnections(DEFAULT_KEEP_ALIVE, TimeUnit.MILLISECONDS)
 							.build()
-							
+		
+		executor = Executors.newFixedThreadPool(maxConcurrentRequests, 
+							new NamingThreadFactory(new DaemonThreadFactory(), "SquashTM publisher [${server.identifier}]"))
+		
+		breaker = CircuitBreaker.forServer server
+		serverName = server.identifier
+	
+	}
+	
+	
+	// ***************** shared instances *********************
 	
+	/**
+	 * Runs the given closure with the client shared by every build that posts to that server, creating it if needed. 
+	 * The client is guaranteed to stay open until the closure returns, even if the configuration changes meanwhile 
+	 * (see {@link #closeAll()}) : don't keep it afterwards.
+	 * 
+	 * @param server
+	 * @param work a closure that accepts the client
+	 * @return what the closure returned
+	 */
+	static <T> T withServer(TMServer server, Closure<T> work){
+		HttpClient client = acquire server
+		try{
+			return work(client)
+		}
+		finally{
+			client.release()
+		}
 	}
 	
+	/**
+	 * Retires all the shared clients, typically because the global configuration changed : the next users get 
+	 * new clients. A retired client is closed once its current users are done with it (see {@link #withServer(TMServer, Closure)}), 
+	 * after the requests they queued were honored.
+	 */
+	static void closeAll(){
+		def clients = new ArrayList<HttpClient>(SHARED_CLIENTS.values())
+		SHARED_CLIENTS.clear()
+		
+		clients.each{ HttpClient retired -> retired.retire() }
+	}
+	
+	// returns the shared client, with one more user. A client retired in the meantime is not returned.
+	private static HttpClient acquire(TMServer server){
+		String key = sharedKey server
+		
+		while (true){
+			HttpClient shared = SHARED_CLIENTS.get key
+			
+			if (shared == null){
+				HttpClient created = new HttpClient(server)
+				shared = SHARED_CLIENTS.putIfAbsent key, created
+				
+				if (shared == null){
+					shared = created
+				}
+				else{
+					// another thread was faster
+					created.close()
+				}
+			}
+			
+			synchronized(shared){
+				if (! shared.retired){
+					shared.users++
+					return shared
+				}
+			}
+		}
+	}
+	
+	private synchronized void release(){
+		users--
+		if (retired && users == 0){
+			shutdown()
+		}
+	}
+	
+	private synchronized void retire(){
+		retired = true
+		if (users == 0){
+			shutdown()
+		}
+	}
+	
+	// lets the queued requests complete before closing
+	private void shutdown(){
+		executor?.shutdown()
+		Timer.get().submit({
+			executor?.awaitTermination(socketTimeout, TimeUnit.MILLISECONDS)
+			close()
+		} as Runnable)
+	}
+	
+	private static String sharedKey(TMServer server){
+		[server.identifier, server.url, server.login, server.password, server.maxConcurrentRequests,
+		 server.connectTimeout, server.socketTimeout, server.compressRequests].join('|')
+	}
+	
+	
+	// ***************** posting *********************
 	
 	/**
-	 * Will post the given data to the given URL. This method will take care of serializing the object jsonData
-	 * to json. Note that jsonData must be serializable.
+	 * Will post the given data to the given URL and returns the status line of the response. This method will 
+	 * take care of serializing the object jsonData to json. Note that jsonData must be serializable : a bean, 
+	 * a map, or a collection of those.
 	 *  
 	 * @param url
 	 * @param jsonData
+	 * @return the status line of the response
+	 */
+	StatusLine post(String url, Object jsonData){
+		send url, new JsonEntity(jsonData, compressRequests)
+	}
+	
+	/**
+	 * Same as {@link #post(String, Object)}, for payloads that can be written only once (eg, they consume an iterator) : 
+	 * the request will not be retried by the underlying client.
+	 * 
+	 * @param url
+	 * @param payload
+	 * @return the status line of the response
+	 */
+	StatusLine postOnce(String url, JsonWritable payload){
+		send url, new JsonEntity(payload, compressRequests, false)
+	}
+	
+	/**
+	 * Will post the given json payload to the given URL and returns the status line of the response.
+	 * 
+	 * @param url
+	 * @param json
+	 * @return the status line of the response
 	 */
-	void post(String url, Object jsonData){
+	StatusLine postJson(String url, String json){
+		send url, new JsonEntity(json, compressRequests)
+	}
+	
+	private StatusLine send(String url, HttpEntity body){
 		
-		HttpPost request = prepareRequest(url, jsonData)
+		checkAvailability()
 		
-		CloseableHttpResponse response = client.execute host, request, context
+		HttpPost request = new HttpPost(url)
+		request.entity = body
+		
+		long start = System.nanoTime()
+		CloseableHttpResponse response
 		
 		try{
-			logger.println response.statusLine
+			response = execute request
+		}
+		catch(IOException ex){
+			recordRequest start, false
+			throw ex
+		}
+		
+		int code = response.statusLine.statusCode
+		recordRequest start, (code >= 200 && code < 300)
+		
+		try{
+			return response.statusLine
 		}
 		finally{
-			response?.close()
+			// consuming the entity gives the connection back to the pool
+			EntityUtils.consumeQuietly response.entity
+			response.close()
 		}
 	}
 	
-	private HttpPost prepareRequest(String url, Object jsonData){
+	/**
+	 * Tells whether the Squash TM instance at that url is alive. Unlike the posts, this request is sent 
+	 * whatever the state of the circuit breaker : that's how we find out that the server is back. The outcome is 
+	 * not recorded on the breaker, that is up to the caller (see TMServerHealthMonitor).
+	 * 
+	 * @param url the base url of the server
+	 * @return
+	 */
+	boolean isAlive(String url){
 		
-		JSONObject json = JSONObject.fromObject jsonData
+		CloseableHttpResponse response = execute new HttpGet(url + TMServer.IS_ALIVE_PATH), false
 		
-		HttpPost request = new HttpPost(url)
-		StringEntity body = new StringEntity(json.toString())
+		try{
+			String text = (response.entity != null) ? EntityUtils.toString(response.entity, "UTF-8") : ""
+			return response.statusLine.statusCode == 200 && text.contains(TMServer.SQUASH_IS_ALIVE)
+		}
+		finally{
+			EntityUtils.consumeQuietly response.entity
+			response.close()
+		}
+	}
+	
+	// feeds the controller-wide metrics of the server
+	private void recordRequest(long start, boolean success){
+		if (serverName != null){
+			PublicationMetrics.recordRequest serverName, (System.nanoTime() - start).intdiv(1000000), success
+		}
+	}
+	
+	/*
+	 * Honors the Retry-After a server may have sent us, and checks that the breaker lets the request through.
+	 */
+	private void checkAvailability(){
 		
-		request.addHeader 'Content-Type', 'application/json'
-		request.entity = body
+		if (breaker == null){
+			return
+		}
+		
+		long wait = breaker.throttleDelay
+		
+		if (wait > MAX_THROTTLE_WAIT){
+			throw new UnavailableException("${breaker.name} asked us to wait ${wait.intdiv(1000)}s before the next request")
+		}
+		else if (wait > 0){
+			Thread.sleep wait
+		}
+		
+		if (! breaker.allowRequest()){
+			throw new UnavailableException("${breaker.name} is considered unavailable, see the global configuration")
+		}
+	}
+	
+	/*
+	 * Executes the request and, unless told otherwise, tells the breaker how it went. 
+	 */
+	private CloseableHttpResponse execute(HttpRequestBase request, boolean record = true){
+		
+		CloseableHttpResponse response
+		
+		try{
+			response = client.execute host, request, newContext()
+		}
+		catch(IOException ex){
+			if (record){
+				breaker?.recordFailure ex.toString()
+			}
+			throw ex
+		}
 		
-		return request
+		if (record && breaker != null){
+			int code = response.statusLine.statusCode
+			
+			if (code == 429 || code == 503){
+				Long until = CircuitBreaker.parseRetryAfter(response.getFirstHeader("Retry-After")?.value, System.currentTimeMillis())
+				if (until != null){
+					breaker.throttle until
+				}
+			}
+			
+			if (code >= 500){
+				breaker.recordFailure "HTTP ${code}"
+			}
+			else{
+				breaker.recordSuccess()
+			}
+		}
+		
+		return response
+	}
+	
+	/**
+	 * Same as {@link #post(String, Object)}, but the request will be sent by the thread pool of this client. 
+	 * If this client has no thread pool the request is sent right away.
+	 * 
+	 * @param url
+	 * @param jsonData
+	 * @param whenDone an optional callback, invoked by the sending thread once the request completed (successfully or not), 
+	 * with the duration of the request in milliseconds
+	 * @return the future status line of the response
+	 */
+	Future<StatusLine> postAsync(String url, Object jsonData, Closure whenDone = null){
+		
+		Callable<StatusLine> task = { 
+			long start = System.nanoTime()
+			try{
+				return post(url, jsonData)
+			}
+			finally{
+				whenDone?.call((System.nanoTime() - start).intdiv(1000000))
+			}
+		} as Callable<StatusLine>
+		
+		if (executor != null){
+			return executor.submit(task)
+		}
+		else{
+			FutureTask<StatusLine> now = new FutureTask<StatusLine>(task)
+			now.run()
+			return now
+		}
+	}
+	
+	/**
+	 * Serializes the given object to json, the same way {@link #post(String, Object)} does.
+	 * 
+	 * @param jsonData
+	 * @return
+	 */
+	static String toJson(Object jsonData){
+		JsonPayloadWriter.toJson jsonData
 	}
 
+	// HttpClientContext is not thread safe, hence one per request. The auth cache is shared though.
+	private HttpClientContext newContext(){
+		HttpClientContext context = HttpClientContext.create()
+		context.credentialsProvider = credsProvider
+		context.authCache = authCache
+		return context
+	}
+	
 	
 	// ***************** utilities *********************
 	
@@ -151,11 +528,24 @@ class HttpClient implements Closeable{
 		return new Tuple(host, port, scheme)
 	}
 
+	// honor the keep-alive header if any, else use our default
+	private ConnectionKeepAliveStrategy keepAliveStrategy(){
+		return { HttpResponse response, HttpContext context ->
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context)
+			(duration > 0) ? duration : DEFAULT_KEEP_ALIVE
+		} as ConnectionKeepAliveStrategy
+	}
 
 
 	@Override
 	public void close() throws IOException {
-		client?.close()
+		executor?.shutdownNow()
+		try{
+			client?.close()
+		}
+		catch(IOException ex){
+			LOGGER.log(Level.FINE, "[TM-PLUGIN] : error while closing the http client : ${ex.message}")
+		}
 	}
 	
 	
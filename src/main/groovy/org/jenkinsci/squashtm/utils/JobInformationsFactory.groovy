@@ -74,8 +74,9 @@ public class JobInformationsFactory{
 		
 		// job infos
 		infos.basePath = workspace
-		infos.buildPath = build.project.buildDir
-		infos.jobName = build.project.name
+		infos.buildPath = build.parent.buildDir
+		infos.buildRootDir = build.rootDir
+		infos.jobName = build.parent.name
 		infos.buildNum = build.number
 		
 		// server infos
@@ -104,7 +105,7 @@ public class JobInformationsFactory{
 	}
 	
 	static protected void fillTAParameters(JobInformations infos, Run build){
-		infos.usesTAWrapper = (build.project.getProperty(SquashTAWrapperProperty) != null)
+		infos.usesTAWrapper = (build.parent.getProperty(SquashTAWrapperProperty) != null)
 		infos.tawrapperParameters = build.getAction TAParametersAction		
 	}
 	
@@ -0,0 +1,189 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import org.apache.http.entity.AbstractHttpEntity
+
+import java.util.zip.GZIPOutputStream
+
+/**
+ * <p>
+ * 	The body of a json request. The payload is serialized by {@link JsonPayloadWriter}. The payload can also be a json 
+ * 	string already (see the {@link org.jenkinsci.squashtm.core.Outbox}).
+ * </p>
+ * 
+ * <p>
+ * 	A small body is serialized up front and sent with its Content-Length, since some servers and proxies reject or 
+ * 	buffer chunked requests. A body larger than {@link #STREAMING_THRESHOLD} bytes is instead serialized when the 
+ * 	request is sent, directly to the connection, hence the chunked transfer.
+ * </p>
+ * 
+ * <p>
+ * 	A payload may also be written only once, for instance when it reads the results from an iterator : in that case the 
+ * 	entity is not repeatable, always chunked, and the http client will not retry the request.
+ * </p>
+ * 
+ * <p>
+ * 	The body is optionally compressed with gzip (see {@link org.jenkinsci.squashtm.core.TMServer#isCompressRequests()}).
+ * </p>
+ */
+class JsonEntity extends AbstractHttpEntity{
+	
+	static final String CONTENT_TYPE = 'application/json; charset=UTF-8'
+	
+	/*
+	 * The size (once compressed, if it is) above which a body is streamed.
+	 */
+	static final int STREAMING_THRESHOLD = Integer.getInteger(JsonEntity.class.name + ".streamingThreshold", 65536)
+	
+	private static final int GZIP_BUFFER_SIZE = 8192
+	
+	private final Object payload
+	private final boolean gzip
+	private final boolean repeatable
+	
+	// the body when it was serialized up front, null when it is streamed
+	private final byte[] body
+	
+	JsonEntity(Object payload, boolean gzip = false, boolean repeatable = true, int streamingThreshold = STREAMING_THRESHOLD){
+		this.payload = payload
+		this.gzip = gzip
+		this.repeatable = repeatable
+		
+		// a json string is in memory already, no need to stream it
+		int limit = (payload instanceof String) ? Integer.MAX_VALUE : streamingThreshold
+		this.body = (repeatable) ? serialize(limit) : null
+		
+		setContentType CONTENT_TYPE
+		setChunked(body == null)
+		if (gzip){
+			setContentEncoding 'gzip'
+		}
+	}
+	
+	@Override
+	public boolean isRepeatable() {
+		repeatable
+	}
+	
+	@Override
+	public long getContentLength() {
+		(body != null) ? body.length : -1
+	}
+	
+	@Override
+	public InputStream getContent() throws IOException {
+		if (body != null){
+			return new ByteArrayInputStream(body)
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream()
+		writeTo buffer
+		return new ByteArrayInputStream(buffer.toByteArray())
+	}
+	
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		if (body != null){
+			out.write body
+		}
+		else{
+			writeBody out
+		}
+		out.flush()
+	}
+	
+	@Override
+	public boolean isStreaming() {
+		false
+	}
+	
+	// the body, or null if it is larger than the limit
+	private byte[] serialize(int limit){
+		BoundedBuffer buffer = new BoundedBuffer(limit)
+		try{
+			writeBody buffer
+			return buffer.toByteArray()
+		}
+		catch(BodyTooLargeException ex){
+			return null
+		}
+	}
+	
+	private void writeBody(OutputStream out){
+		if (gzip){
+			GZIPOutputStream zipped = new GZIPOutputStream(out, GZIP_BUFFER_SIZE)
+			writePayload zipped
+			zipped.finish()
+		}
+		else{
+			writePayload out
+		}
+	}
+	
+	private void writePayload(OutputStream out){
+		if (payload instanceof String){
+			out.write payload.getBytes('UTF-8')
+		}
+		else{
+			JsonPayloadWriter.write payload, out
+		}
+	}
+	
+	
+	// a buffer that gives up past a given size
+	private static final class BoundedBuffer extends ByteArrayOutputStream{
+		
+		private final int limit
+		
+		BoundedBuffer(int limit){
+			super()
+			this.limit = limit
+		}
+		
+		@Override
+		public void write(int b){
+			checkRoom 1
+			super.write b
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len){
+			checkRoom len
+			super.write b, off, len
+		}
+		
+		private void checkRoom(int len){
+			if (size() + len > limit){
+				throw new BodyTooLargeException()
+			}
+		}
+	}
+	
+	private static final class BodyTooLargeException extends IOException{
+		
+		private static final long serialVersionUID = 1L
+		
+	}
+	
+}
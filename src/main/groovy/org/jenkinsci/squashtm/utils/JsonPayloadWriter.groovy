@@ -0,0 +1,124 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import com.fasterxml.jackson.core.JsonEncoding
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
+import net.sf.json.JSONSerializer
+
+/**
+ * <p>
+ * 	Serializes the payloads of the requests straight to a stream. It handles the {@link JsonWritable}s (like the 
+ * 	test statuses), the maps, the collections and the plain values. Anything else goes through json-lib, as the 
+ * 	requests used to. 
+ * </p>
+ * 
+ * <p>
+ * 	Unlike json-lib, no intermediate json tree nor string is built : the generator writes in a buffer that jackson 
+ * 	recycles from one request to the next (per thread), which is flushed to the stream as it fills.
+ * </p>
+ */
+class JsonPayloadWriter {
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
+	
+	static {
+		// the streams are closed by their owners (eg, the http client)
+		JSON_FACTORY.disable JsonGenerator.Feature.AUTO_CLOSE_TARGET
+	}
+	
+	/**
+	 * Writes the given data as json (UTF-8) to the given stream. The stream is flushed but not closed.
+	 */
+	static void write(Object data, OutputStream out) throws IOException{
+		JsonGenerator generator = JSON_FACTORY.createGenerator out, JsonEncoding.UTF8
+		try{
+			writeValue generator, data
+		}
+		finally{
+			generator.close()
+		}
+	}
+	
+	/**
+	 * @return the given data as a json string
+	 */
+	static String toJson(Object data){
+		StringWriter writer = new StringWriter()
+		JsonGenerator generator = JSON_FACTORY.createGenerator writer
+		try{
+			writeValue generator, data
+		}
+		finally{
+			generator.close()
+		}
+		return writer.toString()
+	}
+	
+	static void writeValue(JsonGenerator generator, Object value) throws IOException{
+		
+		if (value == null){
+			generator.writeNull()
+		}
+		else if (value instanceof JsonWritable){
+			value.writeJson generator
+		}
+		else if (value instanceof CharSequence){
+			generator.writeString value.toString()
+		}
+		else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte){
+			generator.writeNumber value.longValue()
+		}
+		else if (value instanceof Number){
+			generator.writeNumber value.toString()
+		}
+		else if (value instanceof Boolean){
+			generator.writeBoolean value.booleanValue()
+		}
+		else if (value instanceof Enum){
+			generator.writeString value.name()
+		}
+		else if (value instanceof Map){
+			generator.writeStartObject()
+			value.each{ key, entry ->
+				generator.writeFieldName String.valueOf(key)
+				writeValue generator, entry
+			}
+			generator.writeEndObject()
+		}
+		else if (value instanceof Collection || value instanceof Object[]){
+			generator.writeStartArray()
+			for (Object item : value){
+				writeValue generator, item
+			}
+			generator.writeEndArray()
+		}
+		else{
+			// beans and the likes
+			generator.writeRawValue JSONSerializer.toJSON(value).toString()
+		}
+	}
+	
+}
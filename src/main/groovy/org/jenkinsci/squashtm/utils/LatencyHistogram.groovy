@@ -0,0 +1,125 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * <p>
+ * 	A thread safe histogram of durations, in milliseconds, with fixed buckets. Recording is lock free, and the memory 
+ * 	it uses doesn't depend on how many durations were recorded.
+ * </p>
+ * 
+ * <p>
+ * 	The percentiles are estimated from the buckets : they are the upper bound of the bucket the percentile falls in.
+ * </p>
+ */
+class LatencyHistogram {
+	
+	// the upper bounds of the buckets (inclusive), the last bucket being everything above
+	static final long[] BOUNDS = [5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000] as long[]
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1)
+	private final AtomicLong count = new AtomicLong()
+	private final AtomicLong sum = new AtomicLong()
+	private final AtomicLong max = new AtomicLong()
+	
+	
+	void record(long millis){
+		int index = Arrays.binarySearch(BOUNDS, millis)
+		if (index < 0){
+			// the insertion point, ie the first bound above
+			index = -index - 1
+		}
+		
+		buckets.incrementAndGet index
+		count.incrementAndGet()
+		sum.addAndGet millis
+		
+		long currentMax = max.get()
+		while (millis > currentMax && ! max.compareAndSet(currentMax, millis)){
+			currentMax = max.get()
+		}
+	}
+	
+	long getCount(){
+		count.get()
+	}
+	
+	long getMax(){
+		max.get()
+	}
+	
+	long getMean(){
+		long n = count.get()
+		(n == 0) ? 0 : sum.get().intdiv(n)
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket where that percentile falls, or the max if it is the last bucket
+	 */
+	long percentile(double percentile){
+		long n = count.get()
+		if (n == 0){
+			return 0
+		}
+		
+		long rank = (long) Math.ceil(n * percentile / 100)
+		long seen = 0
+		
+		for (int i = 0; i < BOUNDS.length; i++){
+			seen += buckets.get(i)
+			if (seen >= rank){
+				return BOUNDS[i]
+			}
+		}
+		
+		return max.get()
+	}
+	
+	/**
+	 * @return the histogram as a map, ready to be rendered as json
+	 */
+	Map toMap(){
+		Map<String, Long> counts = new LinkedHashMap<String, Long>()
+		
+		BOUNDS.eachWithIndex{ long bound, int i -> 
+			counts["le_${bound}".toString()] = buckets.get(i)
+		}
+		counts["gt_${BOUNDS[-1]}".toString()] = buckets.get(BOUNDS.length)
+		
+		return [
+			count : getCount(), 
+			mean : getMean(), 
+			max : getMax(), 
+			p50 : percentile(50),
+			p95 : percentile(95),
+			p99 : percentile(99),
+			buckets : counts
+		]
+	}
+	
+}
@@ -0,0 +1,160 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import org.apache.http.StatusLine
+import org.jenkinsci.squashtm.core.PublicationStats
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
+
+/**
+ * <p>
+ * 	A PostingPipeline sends a sequence of posts through the thread pool of a {@link HttpClient}, keeping at most 
+ * 	{@link HttpClient#getMaxConcurrentRequests()} of them in flight. The time needed to post a large number of 
+ * 	requests thus depends on the number of connections instead of the latency of each round-trip.
+ * </p>
+ * 
+ * <p>
+ * 	The outcome of each post is reported to the callback given at submission time, in the order of submission and 
+ * 	on the thread that uses the pipeline (the callbacks are invoked during {@link #submit(String, Object, Closure)} 
+ * 	and {@link #awaitAll()}). The callbacks therefore don't need to be thread safe, and can for instance write to the build log.
+ * 	The outcome is either the {@link StatusLine} of the response or the exception that prevented it.
+ * </p>
+ * 
+ * <p>
+ * 	A pipeline is not thread safe and is meant to be used by a single build. Remember to call {@link #awaitAll()} 
+ * 	once every post was submitted.
+ * </p>
+ */
+class PostingPipeline {
+	
+	// how many completed posts may wait for a slow predecessor before we block
+	private static final int MAX_PENDING_PER_SLOT = 16
+	
+	private HttpClient client
+	private Semaphore inFlight
+	private int maxPending
+	
+	// optional, records the duration of the requests
+	private PublicationStats stats
+	
+	private LinkedList<Pending> pending = new LinkedList<Pending>()
+	
+	
+	PostingPipeline(HttpClient client, PublicationStats stats = null){
+		this.client = client
+		this.stats = stats
+		
+		int slots = Math.max(1, client.maxConcurrentRequests)
+		inFlight = new Semaphore(slots)
+		maxPending = slots * MAX_PENDING_PER_SLOT
+	}
+	
+	/**
+	 * Submits a post. Blocks if too many posts are in flight already.
+	 * 
+	 * @param url
+	 * @param jsonData
+	 * @param callback will be called with the outcome of that post.
+	 */
+	void submit(String url, Object jsonData, Closure callback){
+		
+		reportCompleted false
+		
+		while (pending.size() >= maxPending){
+			reportFirst()
+		}
+		
+		inFlight.acquire()
+		
+		Future<StatusLine> future
+		try{
+			future = client.postAsync(url, jsonData, { long millis -> 
+				inFlight.release()
+				stats?.recordRequest millis 
+			})
+		}
+		catch(RuntimeException ex){
+			inFlight.release()
+			throw ex
+		}
+		
+		pending << new Pending(future : future, callback : callback)
+	}
+	
+	/**
+	 * Queues a callback that doesn't involve any request, that will be invoked in order with the others.
+	 * 
+	 * @param callback
+	 */
+	void report(Closure callback){
+		pending << new Pending(callback : callback)
+		reportCompleted false
+	}
+	
+	/**
+	 * Waits for all the posts submitted so far and reports them.
+	 */
+	void awaitAll(){
+		reportCompleted true
+	}
+	
+	
+	// ****************** internals ************************
+	
+	private void reportCompleted(boolean wait){
+		while ((! pending.isEmpty()) && (wait || pending.first.done)){
+			reportFirst()
+		}
+	}
+	
+	private void reportFirst(){
+		Pending first = pending.removeFirst()
+		
+		def outcome = null
+		
+		if (first.future != null){
+			try{
+				outcome = first.future.get()
+			}
+			catch(ExecutionException ex){
+				outcome = ex.cause
+			}
+		}
+		
+		first.callback.call outcome
+	}
+	
+	private static final class Pending{
+		Future<StatusLine> future
+		Closure callback
+		
+		boolean isDone(){
+			(future == null) || future.done
+		}
+	}
+	
+}
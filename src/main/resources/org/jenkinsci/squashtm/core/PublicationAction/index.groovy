@@ -0,0 +1,129 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core.PublicationAction
+
+
+import lib.LayoutTagLib
+import org.jenkinsci.squashtm.lang.Messages
+
+def l = namespace(LayoutTagLib)
+
+l.layout(title : my.displayName){
+	
+	l.main_panel(){
+		
+		h1(my.displayName)
+		
+		p(my.status)
+		
+		if (my.server != null){
+			p(Messages.tmpublisher_publication_server(my.server))
+		}
+		
+		// ******************* the test statuses ********************
+		
+		h2(Messages.tmpublisher_publication_tests())
+		
+		table(class : "pane sortable bigtable"){
+			tr{
+				th(Messages.tmpublisher_publication_posted())
+				th(Messages.tmpublisher_publication_skipped())
+				th(Messages.tmpublisher_publication_failed())
+				th(Messages.tmpublisher_publication_deferred())
+			}
+			tr{
+				td(my.posted)
+				td(my.skipped)
+				td(my.failed)
+				td(my.deferred)
+			}
+		}
+		
+		// ******************* the servers, when there are several ********************
+		
+		def outcomes = my.serverOutcomes
+		if (outcomes.size() > 1){
+			h2(Messages.tmpublisher_publication_servers())
+			
+			table(class : "pane sortable bigtable"){
+				tr{
+					th(Messages.tmpublisher_publication_servername())
+					th(Messages.tmpublisher_publication_posted())
+					th(Messages.tmpublisher_publication_failed())
+					th(Messages.tmpublisher_publication_error())
+				}
+				outcomes.each{ server, outcome ->
+					tr{
+						td(server)
+						td(outcome.posted)
+						td(outcome.failed)
+						td(outcome.error ?: '')
+					}
+				}
+			}
+		}
+		
+		// ******************* the requests ********************
+		
+		h2(Messages.tmpublisher_publication_requests())
+		
+		table(class : "pane sortable bigtable"){
+			tr{
+				th(Messages.tmpublisher_publication_requestcount())
+				th(Messages.tmpublisher_publication_meantime())
+				th(Messages.tmpublisher_publication_maxtime())
+			}
+			tr{
+				td(my.requests)
+				td(my.meanRequestTime)
+				td(my.maxRequestTime)
+			}
+		}
+		
+		// ******************* the phases ********************
+		
+		h2(Messages.tmpublisher_publication_phases())
+		
+		table(class : "pane sortable bigtable"){
+			tr{
+				th(Messages.tmpublisher_publication_phase())
+				th(Messages.tmpublisher_publication_duration())
+			}
+			my.phases.each{ phase, millis ->
+				tr{
+					td(phase)
+					td(millis)
+				}
+			}
+		}
+		
+		// ******************* the log, when published in the background ********************
+		
+		def log = my.log
+		if (log != null){
+			h2(Messages.tmpublisher_publication_log())
+			pre(class : "console-output", log)
+		}
+	}
+}
@@ -24,16 +24,18 @@
 package org.jenkinsci.squashtm.core.SquashTMPublisher
 
 import lib.FormTagLib
+import org.jenkinsci.squashtm.core.ResultPoster
 import org.jenkinsci.squashtm.lang.Messages
 
 import static org.jenkinsci.squashtm.core.SquashTMPublisher.DUMMY_SELECTED_SERVER_NAME
 
 /*
- * TODO : the following will be used when the coutinuous publishing feature will be implemented.
- * If cannot be implemented soon, move this to a feature branch. Until then the user interface is
- * commented.
+ * The servers the results are posted to when the build wasn't run for Squash TA (see ResultPoster). 
+ * Squash TM can't receive them yet, so the panel is shown only when the poster was explicitly enabled.
  */
-//displayConfPanel()
+if (ResultPoster.ENABLED){
+	displayConfPanel()
+}
 
 
 
@@ -29,7 +29,7 @@ import org.jenkinsci.squashtm.lang.Messages
 
 def f = namespace(FormTagLib)
 
-// ************************ the four fields ***********************
+// ************************ the fields ***********************
 
 f.entry(title: Messages.tmpublisher_globalconf_identifier(), field:"identifier"){
 	f.textbox()
@@ -47,6 +47,35 @@ f.entry(title : Messages.tmpublisher_globalconf_password(), field : "password"){
 	f.password()
 }
 
+f.advanced(){
+	f.entry(title : Messages.tmpublisher_globalconf_batchsize(), field : "batchSize"){
+		f.number(clazz : "positive-number", min : 1, default : 1)
+	}
+	f.entry(title : Messages.tmpublisher_globalconf_maxconcurrentrequests(), field : "maxConcurrentRequests"){
+		f.number(clazz : "positive-number", min : 1, default : 4)
+	}
+	f.entry(title : Messages.tmpublisher_globalconf_connecttimeout(), field : "connectTimeout"){
+		f.number(clazz : "positive-number", min : 1, default : 10)
+	}
+	f.entry(title : Messages.tmpublisher_globalconf_sockettimeout(), field : "socketTimeout"){
+		f.number(clazz : "positive-number", min : 1, default : 60)
+	}
+	f.entry(title : Messages.tmpublisher_globalconf_compressrequests(), field : "compressRequests"){
+		f.checkbox()
+	}
+	f.entry(title : Messages.tmpublisher_globalconf_postfromagents(), field : "postFromAgents", 
+			description : Messages.tmpublisher_globalconf_postfromagents_warning()){
+		f.checkbox()
+	}
+}
+
+// the health of the servers already configured (see CircuitBreaker)
+if (instance != null){
+	f.entry(title : Messages.tmpublisher_globalconf_status()){
+		text(instance.status)
+	}
+}
+
 // ********************** the button pane *********************
 
 f.entry(title:""){
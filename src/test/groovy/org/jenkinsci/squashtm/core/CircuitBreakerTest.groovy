@@ -0,0 +1,133 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import org.jenkinsci.squashtm.core.CircuitBreaker.State
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CircuitBreakerTest extends Specification{
+	
+	def "should open after too many consecutive failures"(){
+		
+		given :
+			def breaker = new CircuitBreaker("http://tm")
+		
+		when :
+			(CircuitBreaker.FAILURE_THRESHOLD - 1).times { breaker.recordFailure "HTTP 500" }
+		
+		then :
+			breaker.state == State.CLOSED
+			breaker.allowRequest()
+		
+		when :
+			breaker.recordFailure "HTTP 500"
+		
+		then :
+			breaker.state == State.OPEN
+			! breaker.allowRequest()
+			! breaker.isAvailable()
+	}
+	
+	def "should reset the failure count on success"(){
+		
+		given :
+			def breaker = new CircuitBreaker("http://tm")
+		
+		when :
+			(CircuitBreaker.FAILURE_THRESHOLD - 1).times { breaker.recordFailure "HTTP 500" }
+			breaker.recordSuccess()
+			breaker.recordFailure "HTTP 500"
+		
+		then :
+			breaker.state == State.CLOSED
+	}
+	
+	def "should let a single trial request through once the delay elapsed"(){
+		
+		given : "an open breaker whose delay elapsed"
+			def breaker = new CircuitBreaker("http://tm")
+			CircuitBreaker.FAILURE_THRESHOLD.times { breaker.recordFailure "timeout" }
+			breaker.@retryAt = System.currentTimeMillis() - 1
+		
+		expect :
+			breaker.isAvailable()
+			breaker.allowRequest()
+			breaker.state == State.HALF_OPEN
+			! breaker.allowRequest()
+		
+		when : "the trial fails"
+			breaker.recordFailure "timeout"
+		
+		then :
+			breaker.state == State.OPEN
+			! breaker.allowRequest()
+		
+		when : "the next trial succeeds"
+			breaker.@retryAt = System.currentTimeMillis() - 1
+			breaker.allowRequest()
+			breaker.recordSuccess()
+		
+		then :
+			breaker.state == State.CLOSED
+			breaker.allowRequest()
+	}
+	
+	def "should hold the requests until the server says so"(){
+		
+		given :
+			def breaker = new CircuitBreaker("http://tm")
+		
+		when :
+			breaker.throttle System.currentTimeMillis() + 5000
+		
+		then :
+			breaker.throttleDelay > 4000
+			breaker.throttleDelay <= 5000
+	}
+	
+	@Unroll("should parse the Retry-After value '#value'")
+	def "should parse the Retry-After header"(){
+		
+		expect :
+			CircuitBreaker.parseRetryAfter(value, 1000000L) == until
+		
+		where :
+			value								|	until
+			"120"								|	1120000L
+			" 3 "								|	1003000L
+			"Thu, 01 Jan 1970 00:20:00 GMT"		|	1200000L
+			"tomorrow"							|	null
+			null								|	null
+	}
+	
+	def "should share the breakers by url"(){
+		
+		expect :
+			CircuitBreaker.forServer(new TMServer("tm", "http://tm:8080/squash/", "l", "p")).is(
+				CircuitBreaker.forServer(new TMServer("other", "http://tm:8080/squash", "l", "p")))
+	}
+	
+}
@@ -0,0 +1,138 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import spock.lang.Specification
+
+class FailureMessagesTest extends Specification{
+	
+	static final String TRACE = """java.lang.AssertionError: expected 1 but was 2
+	at org.junit.Assert.fail(Assert.java:88)
+	at sun.reflect.GeneratedMethodAccessor12.invoke(Unknown Source)
+	at my.tests.Test.failure(Test.java:42)
+Caused by: java.io.IOException: connection refused by host-1
+	at my.app.Client.connect(Client.java:12)
+"""
+	
+	
+	def "should format the details and the stack trace of a failure"(){
+		
+		expect :
+			new FailureMessages().format("expected 1 but was 2", TRACE).text == """<p>
+	expected 1 but was 2
+	<br/>
+	${TRACE}
+</p>"""
+	}
+	
+	def "should send a stack trace once per request body and refer to it afterwards"(){
+		
+		given :
+			def formatter = new FailureMessages()
+			def first = formatter.format "expected 1 but was 2", TRACE
+			def second = formatter.format "expected 1 but was 3", TRACE
+			
+		and :
+			def body = new FailureMessages()
+			def otherBody = new FailureMessages()
+		
+		expect :
+			body.deduplicate("/job/Test/first", first) == first.text
+			body.deduplicate("/job/Test/second", second) == """<p>
+	expected 1 but was 3
+	<br/>
+	same stack trace as /job/Test/first
+</p>"""
+			
+			// the test that carries the trace may not be part of that request
+			otherBody.deduplicate("/job/Test/second", second) == second.text
+	}
+	
+	def "should leave alone the messages without a stack trace"(){
+		
+		given :
+			def body = new FailureMessages()
+			def message = new FailureMessages().format("expected 1 but was 2", null)
+		
+		expect :
+			body.deduplicate("/job/Test/first", message) == message.text
+			body.deduplicate("/job/Test/second", message) == message.text
+			body.deduplicate("/job/Test/success", FailureMessage.NONE) == ""
+	}
+	
+	def "should return an empty message when the test didn't fail"(){
+		expect :
+			new FailureMessages().format(null, null).text == ""
+	}
+	
+	def "should fingerprint the stack trace when the message is formatted"(){
+		
+		given :
+			def messages = new FailureMessages(10)
+		
+		expect :
+			// the fingerprint is that of the whole trace, not of the truncated one
+			messages.format("expected 1 but was 2", TRACE).fingerprint == FailureMessages.fingerprint(TRACE)
+			messages.format("expected 1 but was 2", null).fingerprint == null
+	}
+	
+	def "should ignore the messages of the exceptions and the generated classes in the fingerprint"(){
+		
+		given :
+			def variant = TRACE.replace("expected 1 but was 2", "expected 3 but was 4")
+								.replace("host-1", "host-2")
+								.replace("GeneratedMethodAccessor12", "GeneratedMethodAccessor57")
+		
+		expect :
+			FailureMessages.fingerprint(variant) == FailureMessages.fingerprint(TRACE)
+	}
+	
+	def "should tell apart the stack traces of different frames"(){
+		
+		given :
+			def other = TRACE.replace("Test.java:42", "Test.java:43")
+			def otherCause = TRACE.replace("java.io.IOException", "java.net.SocketTimeoutException")
+		
+		expect :
+			FailureMessages.fingerprint(other) != FailureMessages.fingerprint(TRACE)
+			FailureMessages.fingerprint(otherCause) != FailureMessages.fingerprint(TRACE)
+	}
+	
+	def "should truncate the details and the stack trace"(){
+		
+		given :
+			def messages = new FailureMessages(10)
+		
+		when :
+			def message = messages.format "a" * 25, "b" * 12
+		
+		then :
+			message.text == """<p>
+	aaaaaaaaaa... (15 more characters)
+	<br/>
+	bbbbbbbbbb... (2 more characters)
+</p>"""
+	}
+	
+}
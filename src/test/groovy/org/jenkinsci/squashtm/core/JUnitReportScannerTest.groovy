@@ -0,0 +1,112 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import spock.lang.Specification
+
+class JUnitReportScannerTest extends Specification{
+	
+	File workspace
+	
+	def setup(){
+		// Files.createTempDirectory fails, so I'm doing it the old way
+		workspace = File.createTempFile 'test', 'tmp'
+		workspace.delete()
+		workspace.mkdir()
+		new File(workspace, "reports").mkdir()
+	}
+	
+	def cleanup(){
+		workspace.deleteDir()
+	}
+	
+	
+	def "should parse only the new reports"(){
+		
+		given :
+			report "reports/TEST-A.xml", "my.tests.A", "first"
+			def scanner = new JUnitReportScanner(includes : "reports/*.xml", buildTime : 0)
+		
+		when :
+			def firstCall = scanner.invoke workspace, null
+			
+			report "reports/TEST-B.xml", "my.tests.B", "second"
+			scanner.parsed = firstCall.parsed
+			def secondCall = scanner.invoke workspace, null
+		
+		then :
+			firstCall.files == 1
+			firstCall.result.passedTests*.fullName == ["my.tests.A.first"]
+			
+			secondCall.files == 1
+			secondCall.result.passedTests*.fullName == ["my.tests.B.second"]
+			secondCall.parsed.keySet() == ["reports/TEST-A.xml", "reports/TEST-B.xml"] as Set
+	}
+	
+	def "should parse a report again once modified"(){
+		
+		given :
+			File file = report "reports/TEST-A.xml", "my.tests.A", "first"
+			def scanner = new JUnitReportScanner(includes : "reports/*.xml", buildTime : 0, 
+												parsed : ["reports/TEST-A.xml" : file.lastModified() - 10000L])
+		
+		when :
+			def reports = scanner.invoke workspace, null
+		
+		then :
+			reports.files == 1
+			reports.parsed["reports/TEST-A.xml"] == file.lastModified()
+	}
+	
+	def "should leave out the reports older than the build and those that cannot be parsed yet"(){
+		
+		given :
+			File old = report "reports/TEST-A.xml", "my.tests.A", "first"
+			old.setLastModified System.currentTimeMillis() - 60000L
+			
+			new File(workspace, "reports/TEST-B.xml").text = "<testsuite name='my.tests.B'><testcase"
+			
+			def scanner = new JUnitReportScanner(includes : "reports/*.xml", buildTime : System.currentTimeMillis() - 10000L)
+		
+		when :
+			def reports = scanner.invoke workspace, null
+		
+		then :
+			reports.files == 0
+			reports.parsed.isEmpty()
+	}
+	
+	
+	// ***************** utilities ****************************
+	
+	File report(String path, String suite, String test){
+		File file = new File(workspace, path)
+		file.text = """<?xml version="1.0" encoding="UTF-8"?>
+<testsuite name="${suite}" tests="1" failures="0" errors="0" skipped="0" time="0.1">
+	<testcase classname="${suite}" name="${test}" time="0.1"/>
+</testsuite>"""
+		return file
+	}
+	
+}
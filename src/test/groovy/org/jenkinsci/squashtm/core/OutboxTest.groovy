@@ -0,0 +1,193 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class OutboxTest extends Specification{
+	
+	File buildDir
+	
+	def setup(){
+		// Files.createTempDirectory fails, so I'm doing it the old way
+		buildDir = File.createTempFile 'test', 'tmp'
+		buildDir.delete()
+		buildDir.mkdir()
+	}
+	
+	def cleanup(){
+		buildDir.deleteDir()
+	}
+	
+	
+	def "should store and read back an undelivered request"(){
+		
+		given :
+			def outbox = new Outbox(buildDir)
+			def server = new TMServer("tm-1", "http://localhost:8080/squash", "admin", "admin")
+		
+		when :
+			outbox.put server, "http://localhost:8080/squash/automated-executions/5/test-status", '{"status":"SUCCESS",\n"statusMessage":""}'
+			def entries = outbox.entries()
+		
+		then :
+			entries.size() == 1
+			entries[0].server == "tm-1"
+			entries[0].serverUrl == "http://localhost:8080/squash"
+			entries[0].url == "http://localhost:8080/squash/automated-executions/5/test-status"
+			entries[0].payload == '{"status":"SUCCESS",\n"statusMessage":""}'
+			entries[0].attempts == 0
+	}
+	
+	def "should update then discard an entry"(){
+		
+		given :
+			def outbox = new Outbox(buildDir)
+			outbox.put new TMServer("tm-1", "http://localhost:8080/squash", "admin", "admin"), "http://somewhere", "{}"
+		
+		when :
+			def entry = outbox.entries()[0]
+			entry.attempts = 3
+			outbox.update entry
+		
+		then :
+			outbox.entries()[0].attempts == 3
+		
+		when :
+			outbox.discard outbox.entries()[0]
+		
+		then :
+			outbox.entries().isEmpty()
+			new File(buildDir, Outbox.OUTBOX_DIR).list().size() == 1
+	}
+	
+	def "should delete the discarded entries once their retention is over"(){
+		
+		given :
+			def outbox = new Outbox(buildDir)
+			def server = new TMServer("tm-1", "http://localhost:8080/squash", "admin", "admin")
+			outbox.put server, "http://somewhere/old", "{}"
+			outbox.put server, "http://somewhere/recent", "{}"
+		
+		and :
+			outbox.entries().each { outbox.discard it }
+			def old = new File(buildDir, Outbox.OUTBOX_DIR).listFiles().find { it.text.contains "/old" }
+			old.setLastModified System.currentTimeMillis() - 10 * 60 * 60 * 1000L
+		
+		when :
+			int deleted = outbox.purgeDiscarded 5 * 60 * 60 * 1000L
+		
+		then :
+			deleted == 1
+			! old.exists()
+			new File(buildDir, Outbox.OUTBOX_DIR).list().size() == 1
+	}
+	
+	def "should stay registered while it holds something"(){
+		
+		given :
+			def outbox = new Outbox(buildDir)
+		
+		when :
+			outbox.put new TMServer("tm-1", "http://localhost:8080/squash", "admin", "admin"), "http://somewhere", "{}"
+		
+		then :
+			Outbox.pending()*.dir.contains outbox.dir
+		
+		when :
+			outbox.unregisterIfEmpty()
+		
+		then :
+			Outbox.pending()*.dir.contains outbox.dir
+		
+		when :
+			outbox.remove outbox.entries()[0]
+			outbox.unregisterIfEmpty()
+		
+		then :
+			! Outbox.pending()*.dir.contains(outbox.dir)
+	}
+	
+	def "should keep a pending publication until it is removed"(){
+		
+		given :
+			def outbox = new Outbox(buildDir)
+			
+			def stats = new PublicationStats()
+			stats.addPhase PublicationStats.TEST_REPORTS, 12
+			
+			def publication = new PendingPublication(jobName : "folder/job", buildNumber : 7, stats : stats, 
+														servers : ["tm-1", "tm-2"])
+		
+		when :
+			outbox.putPublication publication
+			def stored = outbox.publications()
+		
+		then :
+			stored.size() == 1
+			stored[0].id == publication.id
+			stored[0].jobName == "folder/job"
+			stored[0].buildNumber == 7
+			stored[0].servers == ["tm-1", "tm-2"]
+			! stored[0].forSquashTA
+			stored[0].stats.phases == [(PublicationStats.TEST_REPORTS) : 12L]
+			outbox.hasPublication(publication.id)
+		
+		when :
+			outbox.removePublication stored[0]
+		
+		then :
+			outbox.publications().isEmpty()
+			! outbox.hasPublication(publication.id)
+	}
+	
+	@Unroll("should a post with outcome #outcome be retried : #retry")
+	def "should tell which failures are worth retrying"(){
+		
+		expect :
+			Outbox.isWorthRetrying(outcome) == retry
+		
+		where :
+			outcome										|	retry
+		new IOException("connection refused")			|	true
+		new BasicStatusLine(HttpVersion.HTTP_1_1, 503, "")	|	true
+		new BasicStatusLine(HttpVersion.HTTP_1_1, 429, "")	|	true
+		new BasicStatusLine(HttpVersion.HTTP_1_1, 404, "")	|	false
+		new BasicStatusLine(HttpVersion.HTTP_1_1, 401, "")	|	false
+	}
+	
+	def "should double the backoff after each attempt, up to a maximum"(){
+		
+		expect :
+			OutboxDrainer.backoff(1) == OutboxDrainer.INITIAL_BACKOFF
+			OutboxDrainer.backoff(2) == 2 * OutboxDrainer.INITIAL_BACKOFF
+			OutboxDrainer.backoff(3) == 4 * OutboxDrainer.INITIAL_BACKOFF
+			OutboxDrainer.backoff(50) == OutboxDrainer.MAX_BACKOFF
+	}
+	
+}
@@ -0,0 +1,83 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import spock.lang.Specification
+
+class PublishQueueTest extends Specification{
+	
+	def "should limit how many publications post to the same server at the same time"(){
+		
+		given :
+			def server = new TMServer("tm", "http://localhost:8080/squash-permits", "admin", "admin")
+			def pool = Executors.newFixedThreadPool(PublishQueue.PER_SERVER_LIMIT + 3)
+			def running = new AtomicInteger()
+			def maxRunning = new AtomicInteger()
+			def done = new CountDownLatch(PublishQueue.PER_SERVER_LIMIT + 3)
+		
+		when :
+			(PublishQueue.PER_SERVER_LIMIT + 3).times{
+				pool.submit({
+					PublishQueue.withServerPermit(server){
+						int now = running.incrementAndGet()
+						synchronized(maxRunning){
+							maxRunning.set Math.max(maxRunning.get(), now)
+						}
+						Thread.sleep 50
+						running.decrementAndGet()
+					}
+					done.countDown()
+				} as Runnable)
+			}
+			done.await 10, TimeUnit.SECONDS
+		
+		then :
+			maxRunning.get() == PublishQueue.PER_SERVER_LIMIT
+		
+		cleanup :
+			pool.shutdownNow()
+	}
+	
+	def "should tell that a publication is not waiting"(){
+		
+		expect :
+			PublishQueue.positionOf(new PublicationTask()) == 0
+	}
+	
+	def "should report a publication interrupted by a restart as failed"(){
+		
+		given :
+			def action = new PublicationAction(new PublicationStats())
+			action.state = PublicationAction.State.QUEUED
+		
+		expect :
+			action.state == PublicationAction.State.FAILED
+	}
+	
+}
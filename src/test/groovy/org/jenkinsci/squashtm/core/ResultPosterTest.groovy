@@ -0,0 +1,215 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import com.fasterxml.jackson.core.JsonFactory
+import groovy.json.JsonSlurper
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+import org.jenkinsci.squashtm.testutils.NullPrintStream
+import org.jenkinsci.squashtm.utils.HttpClient
+import org.jenkinsci.squashtm.utils.JsonWritable
+
+import spock.lang.Specification
+
+class ResultPosterTest extends Specification{
+	
+	static final String SERVER_URL = "http://localhost:8080/squash"
+	
+	TMServer server = new TMServer("tm", SERVER_URL + "/", "admin", "admin")
+	
+	ResultPoster poster = new ResultPoster(
+		servers : [server],
+		logger : new NullPrintStream(),
+		maxResultsPerRequest : 2,
+		enabled : true
+	)
+	
+	// the bodies of the requests, as received
+	List bodies = []
+	
+	def "should stream the results in chunks"(){
+		
+		given :
+			def client = Mock(HttpClient)
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			3 * client.postOnce(SERVER_URL + ResultPoster.RESULTS_PATH, _) >> { String url, JsonWritable batch -> receive batch, 200 }
+			bodies*.size() == [2, 2, 1]
+			bodies.flatten()*.testID == (1..5).collect { "/job/Test/test$it".toString() }
+			bodies[0][0].status == 'SUCCESS'
+			poster.stats.posted == 5
+			poster.stats.requests == 3
+	}
+	
+	def "should send nothing unless enabled"(){
+		
+		given :
+			poster.enabled = false
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postResults results
+		
+		then :
+			poster.stats.requests == 0
+			poster.stats.posted == 0
+			poster.stats.failed == 0
+	}
+	
+	def "should give up on a server after a failed request"(){
+		
+		given :
+			def client = Mock(HttpClient)
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 200 }
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 500 }
+			poster.stats.posted == 2
+			poster.stats.failed == 3
+			poster.stats.undelivered == ["/job/Test/test3", "/job/Test/test4", "/job/Test/test5"] as Set
+	}
+	
+	def "should defer the results that could not be delivered"(){
+		
+		given :
+			// Files.createTempDirectory fails, so I'm doing it the old way
+			File buildPath = File.createTempFile 'test', 'tmp'
+			buildPath.delete()
+			buildPath.mkdir()
+			poster.info = new JobInformations(buildPath : buildPath)
+		
+		and :
+			def client = Mock(HttpClient)
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 200 }
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 503 }
+			0 * client.postOnce(_, _)
+		
+		and :
+			def entries = new Outbox(buildPath).entries()
+			entries*.url == [SERVER_URL + ResultPoster.RESULTS_PATH] * 2
+			entries.collect{ new JsonSlurper().parseText(it.payload)*.testID } == [
+				["/job/Test/test3", "/job/Test/test4"], 
+				["/job/Test/test5"]
+			]
+			poster.stats.posted == 2
+			poster.stats.failed == 3
+			poster.stats.deferred == 2
+			poster.stats.undelivered.isEmpty()
+		
+		cleanup :
+			buildPath.deleteDir()
+	}
+	
+	def "should go on with the next request when a payload was refused"(){
+		
+		given :
+			def client = Mock(HttpClient)
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 400 }
+			2 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 200 }
+			poster.stats.posted == 3
+			poster.stats.failed == 2
+			poster.stats.deferred == 0
+			poster.stats.undelivered == ["/job/Test/test1", "/job/Test/test2"] as Set
+	}
+	
+	def "should stop sending to a server that doesn't know the endpoint"(){
+		
+		given :
+			def client = Mock(HttpClient)
+			def results = (1..5).collect { result(it) }
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			1 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 404 }
+			0 * client.postOnce(_, _)
+			poster.stats.posted == 0
+			poster.stats.failed == 5
+			poster.stats.deferred == 0
+	}
+	
+	
+	def "should send a shared stack trace once per request"(){
+		
+		given :
+			def client = Mock(HttpClient)
+			def message = new FailureMessages().format("expected 1 but was 2", "java.lang.AssertionError\n\tat my.tests.Test.failure(Test.java:42)")
+			def results = (1..3).collect { result(it) }
+			results.each {
+				it.status = ExecutionStatus.FAILURE
+				it.failure = message
+			}
+		
+		when :
+			poster.postTo server, client, results.iterator()
+		
+		then :
+			2 * client.postOnce(_, _) >> { String url, JsonWritable batch -> receive batch, 200 }
+			bodies[0]*.message == [message.text, message.referringTo("/job/Test/test1")]
+			
+			// the test that carries the trace was sent in another request
+			bodies[1]*.message == [message.text]
+	}
+	
+	
+	private TestResult result(int index){
+		new TestResult(name : "test$index", testID : "/job/Test/test$index", path : "/job/Test/test$index", 
+						status : ExecutionStatus.SUCCESS, projectName : "job")
+	}
+	
+	// writes the batch as the http client would, and answers with the given code
+	private receive(JsonWritable batch, int code){
+		def writer = new StringWriter()
+		def generator = new JsonFactory().createGenerator writer
+		batch.writeJson generator
+		generator.close()
+		bodies << new JsonSlurper().parseText(writer.toString())
+		
+		new BasicStatusLine(HttpVersion.HTTP_1_1, code, "")
+	}
+	
+}
@@ -0,0 +1,71 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class TMServerRegistryTest extends Specification{
+	
+	@Unroll("should canonicalize #url to #canonical")
+	def "should canonicalize the urls"(){
+		
+		expect :
+			TMServerRegistry.canonicalize(url) == canonical
+		
+		where :
+		url										|	canonical
+		"http://localhost:8080/squash"			|	"http://localhost:8080/squash"
+		"http://localhost:8080/squash//"		|	"http://localhost:8080/squash"
+		"HTTP://LocalHost:8080/squash/"			|	"http://localhost:8080/squash"
+		"http://tm:80/squash"					|	"http://tm/squash"
+		"https://tm:443/"						|	"https://tm"
+		"  http://tm/squash "					|	"http://tm/squash"
+		"not an url/"							|	"not an url"
+		null									|	null
+	}
+	
+	def "should find the servers by url and by identifier"(){
+		
+		given :
+			def registry = new TMServerRegistry([
+				server("tm-1", "http://tm1:8080/squash"),
+				server("tm-2", "http://tm2:8080/squash/"),
+				server("tm-2bis", "HTTP://TM2:8080/squash")
+			])
+		
+		expect :
+			registry.findByUrl("http://tm2:8080/squash").identifier == "tm-2"
+			registry.findByUrl("http://tm3:8080/squash") == null
+			registry.findByIdentifier("tm-1").url == "http://tm1:8080/squash"
+			registry.findAllByIdentifiers(["tm-2bis", "tm-1", "unknown"])*.identifier == ["tm-1", "tm-2bis"]
+			registry.servers.size() == 3
+	}
+	
+	
+	private TMServer server(String identifier, String url){
+		new TMServer(identifier, url, "admin", "admin")
+	}
+	
+}
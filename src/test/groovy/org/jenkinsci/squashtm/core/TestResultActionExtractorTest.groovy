@@ -213,6 +213,140 @@ class TestResultActionExtractorTest extends Specification{
 	}
 	
 	
+	def "should merge the children of an aggregated project in order and drop the duplicates"(){
+		
+		given :
+			def infos = mockInfos()
+			def results = mockResults()
+			
+		and : "many children, each reporting the same success"
+			def childbuilds = (1..10).collect{ idx ->
+				def skipped = (idx == 5) ? [results.notrun] : []
+				def failed = (idx == 10) ? [results.failure] : []
+				[run : mockChildRun([results.success], skipped, failed)]
+			}
+			
+			def mainaction = Mock(AggregatedTestResultAction)
+			mainaction.childReports >> childbuilds
+			
+			def mainbuild = mockRun([url : 'job/25/', action : mainaction])
+		
+		when :
+			def extractor = new TestResultActionExtractor(build : mainbuild, info : infos)
+			def output = extractor.collectResults()
+		
+		then :
+			output*.testID == ['/my-job/my/tests/Test/success', '/my-job/my/tests/Test/notrun', '/my-job/my/tests/Test/failure']
+			extractor.duplicatePaths as List == ['/my-job/my/tests/Test/success']
+	}
+	
+	def "should extract only the tests accepted by the filter"(){
+		
+		given :
+			def infos = mockInfos()
+			def results = mockResults()
+			
+			def action = Mock(AbstractTestResultAction)
+			action.passedTests >> [results.success]
+			action.skippedTests >> [results.notrun]
+			action.failedTests >> [results.failure]
+			action.getTestResultPath(_) >> { it -> "testReport/${it[0].fullName}" }
+			
+			def build = mockRun([url : 'job/25/', action : action])
+			
+			def extractor = new TestResultActionExtractor(build : build, info : infos)
+			
+		when :
+			def output = extractor.iterateResults { it.endsWith '/success' }.toList()
+			
+		then :
+			output*.testID == ['/my-job/my/tests/Test/success']
+			0 * results.failure.getErrorStackTrace()
+	}
+	
+	def "should collect the same results in a batch"(){
+		
+		given :
+			def infos = mockInfos()
+			def results = mockResults()
+			
+			def action = Mock(AbstractTestResultAction)
+			action.passedTests >> [results.success]
+			action.skippedTests >> [results.notrun]
+			action.failedTests >> [results.failure]
+			action.getTestResultPath(_) >> { it -> "testReport/${it[0].fullName}" }
+			
+			def build = mockRun([url : 'job/25/', action : action])
+			
+			def extractor = new TestResultActionExtractor(build : build, info : infos)
+			
+		when :
+			def batch = extractor.collectBatch()
+			
+		then :
+			batch.size() == 3
+			batch.paths == extractor.collectPaths()
+			batch.iterator().toList()*.toString() == extractor.collectResults()*.toString()
+	}
+	
+	def "should collect the paths only"(){
+		
+		given :
+			def infos = mockInfos()
+			def results = mockResults()
+			
+			def action = Mock(AbstractTestResultAction)
+			action.passedTests >> [results.success]
+			action.skippedTests >> [results.notrun]
+			action.failedTests >> [results.failure]
+			
+			def build = mockRun([url : 'job/25/', action : action])
+			
+			def extractor = new TestResultActionExtractor(build : build, info : infos)
+			
+		when :
+			def paths = extractor.collectPaths()
+			
+		then :
+			paths == ['/my-job/my/tests/Test/success', '/my-job/my/tests/Test/notrun', '/my-job/my/tests/Test/failure']
+			0 * action.getTestResultPath(_)
+	}
+	
+	
+	def "should skip the tests sent already and collect the paths of the others"(){
+		
+		given :
+			def infos = mockInfos()
+			def results = mockResults()
+			
+			def action = Mock(AbstractTestResultAction)
+			action.passedTests >> [results.success]
+			action.skippedTests >> [results.notrun]
+			action.failedTests >> [results.failure]
+			action.getTestResultPath(_) >> { it -> "testReport/${it[0].fullName}" }
+			
+			def build = mockRun([url : 'job/25/', action : action])
+			
+		and :
+			def watermark = new ProgressWatermark()
+			watermark.markSent(['/my-job/my/tests/Test/success'])
+			
+			def extractor = new TestResultActionExtractor(build : build, info : infos, watermark : watermark, 
+															extractedPaths : new HashSet<String>())
+			
+		when :
+			def filtered = []
+			def output = extractor.iterateResults { filtered << it; ! it.endsWith('/notrun') }.toList()
+			
+		then :
+			output*.testID == ['/my-job/my/tests/Test/failure']
+			extractor.extractedPaths == ['/my-job/my/tests/Test/failure'] as Set
+			
+			// the tests sent already don't reach the filter
+			filtered == ['/my-job/my/tests/Test/notrun', '/my-job/my/tests/Test/failure']
+	}
+	
+	
 	// *************** utils ****************
 	
 	def mockInfos(){
@@ -252,6 +386,16 @@ class TestResultActionExtractorTest extends Specification{
 	}
 	
 	
+	def mockChildRun(passed, skipped, failed){
+		def subaction = Mock(AbstractTestResultAction)
+		subaction.passedTests >> passed
+		subaction.skippedTests >> skipped
+		subaction.failedTests >> failed
+		subaction.getTestResultPath(_) >> { it -> "testReport/${it[0].fullName}" }
+		
+		return mockRun([url : 'job/25/', action : subaction])
+	}
+	
 	// Ubergenericized types with no default constructors are such a pleasure to work with
 	def mockRun(params){
 		
@@ -0,0 +1,228 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.core
+
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+
+import spock.lang.Specification
+
+class TestResultBatchTest extends Specification{
+	
+	static final String HOST = "http://jenkins:8080"
+	
+	static final String PREFIX = "${HOST}/job/TheJob/12/".toString()
+	
+	
+	def "should give back the results it was given"(){
+		
+		given :
+			def batch = new TestResultBatch("sut-1.0", "TheJob", HOST, PREFIX)
+			def results = [
+				result("/TheJob/my/tests/MyTest/success", "success", ExecutionStatus.SUCCESS, ""),
+				result("/TheJob/my/tests/MyTest/failure", "failure", ExecutionStatus.FAILURE, "<p>boom</p>"),
+				result("/TheJob/my/tests/OtherTest/trailing/", null, null, null)
+			]
+			results[2].resultURL = "http://elsewhere/report"
+			results[2].testID = "custom-id"
+		
+		when :
+			results.each { batch.add it }
+		
+		then :
+			batch.size() == 3
+			batch.iterator().toList() == [results[0], results[1], result(results[2], "")]
+			batch.iterator().toList()*.message == ["", "<p>boom</p>", ""]
+			batch.paths == results*.path
+	}
+	
+	def "should keep the rows that don't share the common values as they are"(){
+		
+		given :
+			def batch = new TestResultBatch()
+			def first = result("/TheJob/MyTest/first", "first", ExecutionStatus.SUCCESS, "")
+			def other = result("/OtherJob/MyTest/second", "second", ExecutionStatus.BLOCKED, "")
+			other.projectName = "OtherJob"
+		
+		when :
+			batch.add first
+			batch.add other
+		
+		then :
+			batch.projectName == "TheJob"
+			batch.iterator().toList() == [first, other]
+			batch.iterator().toList()*.message == ["", ""]
+			batch.paths == [first.path, other.path]
+	}
+	
+	def "should format a message once, when it is first read"(){
+		
+		given :
+			def batch = new TestResultBatch("sut-1.0", "TheJob", HOST, PREFIX)
+			int calls = 0
+			def res = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.FAILURE, null)
+			res.messageSupplier = { calls++; "<p>boom</p>" }
+		
+		when :
+			batch.add res
+		
+		then :
+			calls == 0
+		
+		when :
+			def cursor = batch.cursor()
+			cursor.next()
+			def fromCursor = cursor.message
+			def fromResult = batch.iterator().next().message
+		
+		then :
+			calls == 1
+			fromCursor == "<p>boom</p>"
+			fromResult == "<p>boom</p>"
+	}
+	
+	def "should give back results equal to those it was given, whether their message was formatted or not"(){
+		
+		given :
+			def batch = new TestResultBatch("sut-1.0", "TheJob", HOST, PREFIX)
+			def res = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.FAILURE, null)
+			res.messageSupplier = { "<p>boom</p>" }
+			
+			def formatted = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.FAILURE, "<p>boom</p>")
+		
+		when :
+			batch.add res
+			def copy = batch.iterator().next()
+		
+		then :
+			copy == formatted
+			formatted == copy
+			copy.hashCode() == formatted.hashCode()
+			copy.message == formatted.message
+	}
+	
+	def "should compare the results without formatting their message"(){
+		
+		given :
+			int calls = 0
+			def res = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.FAILURE, null)
+			res.messageSupplier = { calls++; "<p>boom</p>" }
+			
+			def same = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.FAILURE, "<p>boom</p>")
+			def passed = result("/TheJob/MyTest/failure", "failure", ExecutionStatus.SUCCESS, "")
+		
+		expect :
+			res == same
+			res.hashCode() == same.hashCode()
+			res != passed
+			calls == 0
+	}
+	
+	def "should read the rows with a cursor"(){
+		
+		given :
+			def batch = new TestResultBatch("sut-1.0", "TheJob", HOST, PREFIX)
+			batch.add "/TheJob/MyTest/first", "first", ExecutionStatus.SUCCESS, "", "${PREFIX}testReport/MyTest/first".toString()
+			batch.add "/TheJob/MyTest/second", "second", ExecutionStatus.NOT_RUN, null, "${PREFIX}testReport/MyTest/second".toString()
+		
+		when :
+			def cursor = batch.cursor()
+			def rows = []
+			while (cursor.next()){
+				rows << [cursor.path, cursor.testID, cursor.name, cursor.status, cursor.message, cursor.resultURL]
+			}
+		
+		then :
+			rows == [
+				["/TheJob/MyTest/first", "/TheJob/MyTest/first", "first", ExecutionStatus.SUCCESS, "", "${PREFIX}testReport/MyTest/first".toString()],
+				["/TheJob/MyTest/second", "/TheJob/MyTest/second", "second", ExecutionStatus.NOT_RUN, "", "${PREFIX}testReport/MyTest/second".toString()]
+			]
+			! cursor.next()
+	}
+	
+	def "should be much smaller than the results once serialized"(){
+		
+		given :
+			def batch = new TestResultBatch("sut-1.0", "TheJob", HOST, PREFIX)
+			def results = new ArrayList<TestResult>()
+			
+			10000.times{
+				def res = result("/TheJob/my/tests/package${it % 10}/MyTest${it % 100}/test${it}", "test${it}", ExecutionStatus.SUCCESS, "")
+				results << res
+				batch.add res
+			}
+		
+		when :
+			def deserialized = copyOf(batch)
+		
+		then :
+			serializedSize(batch) * 3 < serializedSize(results)
+			deserialized.iterator().toList() == results
+			deserialized.iterator().toList()*.message == results*.message
+	}
+	
+	
+	// ***************** utils ********************
+	
+	def result(String path, String name, ExecutionStatus status, String message){
+		new TestResult(
+			systemUnderTest : "sut-1.0",
+			projectName : "TheJob",
+			host : HOST,
+			testID : path,
+			path : path,
+			name : name,
+			status : status,
+			message : message,
+			resultURL : "${PREFIX}testReport${path.substring('/TheJob'.length())}".toString()
+		)
+	}
+	
+	// a copy whose message reads as the batch gives it back
+	def result(TestResult original, String message){
+		new TestResult(
+			systemUnderTest : original.systemUnderTest,
+			projectName : original.projectName,
+			host : original.host,
+			testID : original.testID,
+			path : original.path,
+			name : original.name,
+			status : original.status,
+			message : message,
+			resultURL : original.resultURL
+		)
+	}
+	
+	int serializedSize(Object object){
+		def bytes = new ByteArrayOutputStream()
+		new ObjectOutputStream(bytes).withStream { it.writeObject object }
+		return bytes.size()
+	}
+	
+	TestResultBatch copyOf(TestResultBatch batch){
+		def bytes = new ByteArrayOutputStream()
+		new ObjectOutputStream(bytes).withStream { it.writeObject batch }
+		new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).withStream { it.readObject() }
+	}
+	
+}
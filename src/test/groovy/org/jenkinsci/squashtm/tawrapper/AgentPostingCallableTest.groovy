@@ -0,0 +1,111 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import org.jenkinsci.squashtm.core.PublicationStats
+import org.jenkinsci.squashtm.core.TMServer
+import org.jenkinsci.squashtm.core.TestResult
+import org.jenkinsci.squashtm.core.TestResult.ExecutionStatus
+import org.jenkinsci.squashtm.core.TestResultBatch
+
+import spock.lang.Specification
+
+
+class AgentPostingCallableTest extends Specification {
+	
+	def "should give the agent the authorization header rather than the password"(){
+		
+		given :
+			def server = new TMServer("tm", "http://localhost:8080/squash", "admin", "s3cr3t")
+			def (chunk, testmap) = mockChunk(2)
+		
+		when :
+			def callable = AgentPostingCallable.posting(server, "http://localhost:8080/squash", chunk, testmap, null)
+			
+			def bytes = new ByteArrayOutputStream()
+			def out = new ObjectOutputStream(bytes)
+			out.writeObject callable
+			out.close()
+		
+		then :
+			callable.server.password == null
+			callable.server.url == server.url
+			callable.authorization == "Basic " + "admin:s3cr3t".getBytes("UTF-8").encodeBase64().toString()
+			! new String(bytes.toByteArray(), "ISO-8859-1").contains("s3cr3t")
+	}
+	
+	def "should give the agent the execution id of each result"(){
+		
+		given :
+			def server = new TMServer("tm", "http://localhost:8080/squash", "admin", "admin")
+			def (chunk, testmap) = mockChunk(3)
+		
+		when :
+			def callable = AgentPostingCallable.posting(server, "http://localhost:8080/squash", chunk, testmap, null)
+		
+		then :
+			callable.executionIds as List == ["11", "12", "13"]
+	}
+	
+	def "should add up the figures sent back by the agents"(){
+		
+		given :
+			def stats = new PublicationStats()
+			stats.addPosted 2
+			stats.recordRequest 100
+			
+			def remote = new PublicationStats()
+			remote.addPosted 3
+			remote.addFailed 1
+			remote.recordRequest 300
+		
+		when :
+			stats.merge remote
+		
+		then :
+			stats.posted == 5
+			stats.failed == 1
+			stats.requests == 2
+			stats.meanRequestTime == 200
+			stats.maxRequestTime == 300
+	}
+	
+	
+	// ************ utils *****************
+	
+	def mockChunk(int size){
+		def chunk = new TestResultBatch()
+		(1..size).each{
+			chunk.add new TestResult(name : "test$it", testID : "/heroquest-test/test$it", path : "/heroquest-test/test$it", 
+									status : ExecutionStatus.SUCCESS)
+		}
+		
+		def testmap = (1..size).collectEntries{
+			[("/heroquest-test/test$it".toString()) : "${10 + it}".toString()]
+		}
+		
+		return [chunk, testmap]
+	}
+	
+}
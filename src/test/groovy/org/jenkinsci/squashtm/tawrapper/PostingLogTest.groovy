@@ -0,0 +1,154 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import java.util.zip.GZIPInputStream
+
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+
+import spock.lang.Specification
+
+class PostingLogTest extends Specification{
+	
+	ByteArrayOutputStream console = new ByteArrayOutputStream()
+	
+	PostingLog log = new PostingLog(logger : new PrintStream(console, true), verbose : false, 
+									maxFailures : 2, maxSkips : 3, progressSeconds : 3600)
+	
+	
+	def "should only detail the first failures and skips on the console"(){
+		
+		when :
+			10.times{ int i -> log.sent(statusLine(201)){ "sent $i" } }
+			5.times{ int i -> log.failed(statusLine(503)){ "failed $i" } }
+			5.times{ int i -> log.skipped { "skipped $i" } }
+			log.finish()
+		
+		then :
+			lines() == [
+				"failed 0", "failed 1",
+				"skipped 0", "skipped 1", "skipped 2",
+				"[TM-PLUGIN] : 20 test(s) processed : 10 sent, 5 skipped, 5 failed (HTTP 201 : 10, HTTP 503 : 5)",
+				"[TM-PLUGIN] : 3 failed and 2 skipped test(s) were not detailed here"
+			]
+	}
+	
+	def "should write every line in verbose mode"(){
+		
+		given :
+			log.verbose = true
+		
+		when :
+			3.times{ int i -> log.sent(statusLine(201)){ "sent $i" } }
+			3.times{ int i -> log.failed(new IOException("down")){ "failed $i" } }
+			log.finish()
+		
+		then :
+			lines() == [
+				"sent 0", "sent 1", "sent 2",
+				"failed 0", "failed 1", "failed 2",
+				"[TM-PLUGIN] : 6 test(s) processed : 3 sent, 0 skipped, 3 failed (HTTP 201 : 3, IOException : 3)"
+			]
+	}
+	
+	def "should only build the lines that are written"(){
+		
+		given :
+			int built = 0
+		
+		when :
+			100.times{ log.sent(statusLine(201)){ built++; "sent" } }
+		
+		then :
+			built == 0
+	}
+	
+	def "should print the progress periodically"(){
+		
+		given :
+			log.progressSeconds = 0
+		
+		when :
+			log.sent(statusLine(201), 10){ "chunk 1" }
+			log.sent(statusLine(201), 10){ "chunk 2" }
+		
+		then :
+			lines() == [
+				"[TM-PLUGIN] : progress : 10 test(s) processed, 10 sent, 0 skipped, 0 failed",
+				"[TM-PLUGIN] : progress : 20 test(s) processed, 20 sent, 0 skipped, 0 failed"
+			]
+	}
+	
+	def "should write every line to the detail file, which only keeps the last publication"(){
+		
+		given :
+			File detailFile = File.createTempFile('test', '.log.gz')
+			detailFile.delete()
+		
+		when :
+			log.detailFile = detailFile
+			log.sent(statusLine(201)){ "first publication" }
+			log.finish()
+			
+			def next = new PostingLog(logger : new PrintStream(console, true), detailFile : detailFile)
+			next.failed(statusLine(500)){ "second publication" }
+			next.finish()
+		
+		then :
+			new GZIPInputStream(new FileInputStream(detailFile)).withReader("UTF-8"){ it.readLines() } == 
+				["second publication"]
+		
+		cleanup :
+			detailFile.delete()
+	}
+	
+	def "should add up the counters of the agents"(){
+		
+		given :
+			def remote = new PostingLog.Counters()
+			remote.add PostingLog.Counters.SENT, "HTTP 201", 5
+			remote.add PostingLog.Counters.FAILED, "HTTP 503", 1
+		
+		when :
+			log.sent(statusLine(201), 2){ "chunk" }
+			log.merge remote
+		
+		then :
+			log.counters.total == 8
+			log.counters.describe() == "7 sent, 0 skipped, 1 failed (HTTP 201 : 7, HTTP 503 : 1)"
+	}
+	
+	
+	// ****************** utils **********************
+	
+	def statusLine(int code){
+		new BasicStatusLine(HttpVersion.HTTP_1_1, code, "")
+	}
+	
+	List<String> lines(){
+		console.toString("UTF-8").readLines()
+	}
+	
+}
@@ -34,7 +34,11 @@ import org.jenkinsci.squashtm.testutils.NullPrintStream;
 
 import static org.jenkinsci.squashtm.tawrapper.TA.*
 
+import hudson.remoting.VirtualChannel
 import org.apache.commons.fileupload.FileItem;
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+import org.jenkinsci.squashtm.utils.HttpClient
 
 import spock.lang.Specification;
 
@@ -94,6 +98,7 @@ public class SquashTAPosterTest extends Specification{
 				     "/heroquest-test/org/bsiri/heroquest/interfaces/MapCoordinateTest/testRelativeLocations",
 				     "/heroquest-test/org/bsiri/heroquest/heroes/MainTest/thisTestIsASuccess"
 			] as Set
+			tests["/heroquest-test/org/bsiri/heroquest/altdorf/AltdorfSewersTest/test"] == "87"
 		
 	}
 	
@@ -101,7 +106,7 @@ public class SquashTAPosterTest extends Specification{
 		
 		given :
 			def testmap = 
-				['/heroquest-test/org/bsiri/heroquest/heroes/MainTest/omgThereIsAnError' : [id:"5"]]
+				['/heroquest-test/org/bsiri/heroquest/heroes/MainTest/omgThereIsAnError' : "5"]
 			
 			def testresult = new TestResult(name : "omgThereIsAnError", 
 					testID : '/heroquest-test/org/bsiri/heroquest/heroes/MainTest/omgThereIsAnError',
@@ -124,8 +129,126 @@ public class SquashTAPosterTest extends Specification{
 		
 	}
 	
+	def "should post the test statuses in chunks"(){
+		
+		given :
+			def (results, testmap) = mockTestRun(5)
+		
+		and : "a client that sends its requests synchronously"
+			HttpClient client = Spy()
+			poster.httpclient = client
+		
+		when :
+			poster.postInBatches results.iterator(), testmap, 2
+		
+		then :
+			3 * client.post(ENDPOINT_URL + "/automated-executions/test-status", { it instanceof List }) >> statusLine(200)
+			0 * client.post(_, _ as TATestStatus)
+			
+			poster.stats.posted == 5
+			poster.stats.failed == 0
+			poster.stats.requests == 3
+		
+	}
+	
+	def "should fall back to one request per test when the bulk form is rejected"(){
+		
+		given :
+			def (results, testmap) = mockTestRun(5)
+		
+		and : "a client that sends its requests synchronously"
+			HttpClient client = Spy()
+			poster.httpclient = client
+		
+		when :
+			poster.postInBatches results.iterator(), testmap, 2
+		
+		then :
+			1 * client.post(ENDPOINT_URL + "/automated-executions/test-status", _) >> statusLine(404)
+			5 * client.post({ it ==~ /.*\/automated-executions\/\d+\/test-status/ }, _ as TATestStatus) >> statusLine(200)
+		
+	}
+	
+	def "should fail only the chunk whose payload was refused, and keep posting in bulk"(){
+		
+		given :
+			def (results, testmap) = mockTestRun(5)
+		
+		and : "a client that sends its requests synchronously"
+			HttpClient client = Spy()
+			poster.httpclient = client
+		
+		when :
+			poster.postInBatches results.iterator(), testmap, 2
+		
+		then :
+			1 * client.post(ENDPOINT_URL + "/automated-executions/test-status", _) >> statusLine(400)
+			2 * client.post(ENDPOINT_URL + "/automated-executions/test-status", _) >> statusLine(200)
+			0 * client.post(_, _ as TATestStatus)
+			
+			poster.stats.posted == 3
+			poster.stats.failed == 2
+	}
+	
+	def "should post from the controller when the agent can't be reached"(){
+		
+		given :
+			def (results, testmap) = mockTestRun(3)
+			poster.server = poster.identifyServer()
+			poster.testmap = testmap
+		
+		and : "an agent that is gone"
+			VirtualChannel channel = Mock()
+			poster.agentChannel = channel
+		
+		and : "a client that sends its requests synchronously"
+			HttpClient client = Spy()
+			poster.httpclient = client
+		
+		when :
+			poster.postFromAgent results.iterator()
+		
+		then :
+			1 * channel.call(_) >> { throw new IOException("channel is closed") }
+			3 * client.post({ it ==~ /.*\/automated-executions\/\d+\/test-status/ }, _ as TATestStatus) >> statusLine(200)
+			
+			poster.stats.posted == 3
+	}
+	
+	def "should count the tests filtered out in the posting log as well"(){
+		
+		given :
+			def (results, testmap) = mockTestRun(2)
+			poster.testmap = testmap
+		
+		when :
+			def filter = poster.pathFilter
+			def accepted = ["/heroquest-test/test1", "/heroquest-test/unknown", "/heroquest-test/other"].findAll(filter)
+		
+		then :
+			accepted == ["/heroquest-test/test1"]
+			poster.notInSuite.get() == 2
+			poster.postingLog.counters.skipped == 2
+	}
+	
 	// ************ utils *****************
 	
+	def mockTestRun(int size){
+		def results = (1..size).collect{
+			new TestResult(name : "test$it", testID : "/heroquest-test/test$it", status : ExecutionStatus.SUCCESS)
+		}
+		
+		def testmap = (1..size).collectEntries{
+			[("/heroquest-test/test$it".toString()) : "$it".toString()]
+		}
+		
+		return [results, testmap]
+	}
+	
+	def statusLine(int code){
+		new BasicStatusLine(HttpVersion.HTTP_1_1, code, "")
+	}
+	
 	
 	def mockKnownServers(){
 		[
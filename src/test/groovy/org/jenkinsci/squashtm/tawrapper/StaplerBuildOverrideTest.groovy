@@ -31,7 +31,10 @@ import net.sf.json.JSONObject
 import org.jenkinsci.squashtm.tawrapper.TAParametersAction.StringBuildParameter
 import org.kohsuke.stapler.StaplerRequest
 
+import hudson.model.ParameterDefinition
 import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterValue
+import org.apache.commons.fileupload.FileItem
 import spock.lang.Specification
 
 class StaplerBuildOverrideTest extends Specification{
@@ -133,8 +136,151 @@ class StaplerBuildOverrideTest extends Specification{
 	}
 	
 	
+	def "should hide the parameters without altering the submitted list"(){
+		
+		given :
+			JSONArray submitted = JSONArray.fromObject([
+				[name : "operation", value : "list"],
+				[name : "bogus", value : "whatever"]
+			])
+			
+		and :
+			ParametersDefinitionProperty jobParams = Mock()
+			jobParams.getParameterDefinitionNames() >> ['bogus']
+			
+		and :
+			TAParametersAction reqParams = new TAParametersAction(
+				parameters : [ [name : "operation", value : "list"] as StringBuildParameter ]	
+			)
+			
+		when :
+			def newRequest = override.hideNonExplicitParameters Mock(StaplerRequest), jobParams, reqParams, submitted
+		
+		then :
+			newRequest.submittedForm.getJSONArray("parameter").collect { it.getString "name" } == ["bogus"]
+			submitted.size() == 2
+	}
+	
+	
+	def "should prepare the runs of a bulk build request"(){
+		
+		given :
+			StaplerRequest request = Mock()
+			request.getFileItem("file0") >> Mock(FileItem)
+			
+		and :
+			JSONObject form = JSONObject.fromObject([
+				runs : [
+					[ parameter : runParameters("job-1", "file0") ],
+					[ parameter : [
+						[name : "operation", value : "list"],
+						[name : "externalJobId", value : "job-2"]	
+					]],
+					[ parameter : runParameters("job-3", "missing") ]
+				]	
+			])
+			
+		when :
+			def runs = override.prepareRuns form, request, null
+		
+		then :
+			runs*.externalJobId == ["job-1", "job-2", "job-3"]
+			
+			runs[0].error == null
+			runs[0].taAction.isTestRunBuild()
+			runs[0].parametersAction == null
+			
+			runs[1].error != null
+			runs[2].error != null
+	}
+	
+	
+	def "should turn the explicit parameters of a bulk run into parameter values"(){
+		
+		given :
+			StaplerRequest request = Mock()
+			request.getFileItem("file0") >> Mock(FileItem)
+			
+		and :
+			ParameterDefinition bogusDef = Mock()
+			bogusDef.createValue(_, _) >> new StringParameterValue("bogus", "whatever")
+			
+			ParametersDefinitionProperty jobParams = Mock()
+			jobParams.getParameterDefinition("bogus") >> bogusDef
+			
+		and :
+			def accepted = runParameters("job-1", "file0") + [[name : "bogus", value : "whatever"]]
+			def unknown = runParameters("job-2", "file0") + [[name : "unknown", value : "whatever"]]
+			
+			JSONObject form = JSONObject.fromObject([
+				runs : [ [ parameter : accepted ], [ parameter : unknown ] ]	
+			])
+			
+		when :
+			def runs = override.prepareRuns form, request, jobParams
+		
+		then :
+			runs[0].error == null
+			runs[0].parametersAction.parameters*.name == ["bogus"]
+			runs[0].actions.any { it.is runs[0].taAction }
+			
+			runs[1].error.contains "unknown"
+	}
+	
+	
+	def "should schedule every run of a parameterless job on its own, unless it repeats another one"(){
+		
+		given :
+			StaplerRequest request = Mock()
+			request.getFileItem("file0") >> Mock(FileItem)
+			
+		and :
+			JSONObject form = JSONObject.fromObject([
+				runs : [
+					[ parameter : runParameters("job-1", "file0") ],
+					[ parameter : runParameters("job-2", "file0") ],
+					[ parameter : runParameters("job-1", "file0") ],
+					[ parameter : runParameters("job-1", "file0") ]
+				]	
+			])
+			
+		when :
+			def runs = override.prepareRuns form, request, null
+			
+			// what ParameterInjector.resolveTestsuiteFile would have done with the test suite store
+			["abc", "abc", "abc", "def"].eachWithIndex { digest, i -> 
+				runs[i].taAction.getParameter(PRM_TEST_SUITE_JSON).digest = digest
+			}
+		
+		then :
+			runs*.parametersAction == [null] * 4
+			
+			// another execution of the same test suite
+			runs[0].taAction.shouldSchedule runs[1].actions
+			runs[1].taAction.shouldSchedule runs[0].actions
+			
+			// the very same run submitted twice
+			! runs[0].taAction.shouldSchedule(runs[2].actions)
+			
+			// the same execution id, but another test suite
+			runs[0].taAction.shouldSchedule runs[3].actions
+			
+			// not a Squash TA build at all
+			runs[0].taAction.shouldSchedule([])
+	}
+	
+	
 	// ***************** utilities ****************************
 	
+	def runParameters(jobId, file){
+		[
+			[name : "operation", value : "run"],
+			[name : "externalJobId", value : jobId],
+			[name : "notificationURL", value : "http://localhost/squash"],
+			[name : "testsuite.json", file : file]
+		]
+	}
+	
 	def jsonobject(name, value) {
 		JSONObject obj = new JSONObject()
 		obj.put "name", name
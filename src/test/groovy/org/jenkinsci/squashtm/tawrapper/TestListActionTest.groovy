@@ -0,0 +1,135 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import org.jenkinsci.squashtm.tawrapper.TestListAction.GzipCache
+import org.kohsuke.stapler.StaplerRequest
+import org.kohsuke.stapler.StaplerResponse
+
+import java.util.zip.GZIPInputStream
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class TestListActionTest extends Specification{
+	
+	
+	@Unroll("should tell whether the client has the last version : #description")
+	def "should tell whether the client has the last version"(){
+		
+		given :
+			def req = Mock(StaplerRequest)
+			req.getHeader("If-None-Match") >> ifNoneMatch
+			req.getDateHeader("If-Modified-Since") >> ifModifiedSince
+		
+		expect :
+			new TestListAction().isNotModified(req, '"abc-12"', 10500) == notModified
+		
+		where :
+		description							| ifNoneMatch				| ifModifiedSince	| notModified
+		"same etag"							| '"abc-12"'				| -1				| true
+		"one of the etags"					| '"zzz-1", W/"abc-12"'		| -1				| true
+		"other etag"						| '"zzz-1"'					| 20000				| false
+		"no validator"						| null						| -1				| false
+		"modified since"					| null						| 9000				| false
+		"not modified since (same second)"	| null						| 10000				| true
+	}
+	
+	def "should answer 304 when the file did not change"(){
+		
+		given :
+			File file = File.createTempFile 'testTree', '.json'
+			file.deleteOnExit()
+			file.text = '{}'
+			
+			def etag = "\"${Long.toHexString(file.lastModified())}-2\"".toString()
+		
+		and :
+			def req = Mock(StaplerRequest)
+			req.getHeader("If-None-Match") >> etag
+			def rsp = Mock(StaplerResponse)
+		
+		when :
+			new TestListAction().serve "job", file, req, rsp
+		
+		then :
+			1 * rsp.setHeader("ETag", etag)
+			1 * rsp.setStatus(304)
+			0 * rsp.getOutputStream()
+		
+		cleanup :
+			file.delete()
+	}
+	
+	def "should cache the gzipped file until it changes"(){
+		
+		given :
+			File file = File.createTempFile 'testTree', '.json'
+			file.deleteOnExit()
+			file.text = '{"name":"tests"}'
+			
+			def cache = new GzipCache(1024)
+		
+		when :
+			def first = cache.get("job", file, 1000, file.length())
+			def second = cache.get("job", file, 1000, file.length())
+			file.text = '{"name":"other tests"}'
+			def third = cache.get("job", file, 2000, file.length())
+		
+		then :
+			first.is(second)
+			new GZIPInputStream(new ByteArrayInputStream(first)).text == '{"name":"tests"}'
+			new GZIPInputStream(new ByteArrayInputStream(third)).text == '{"name":"other tests"}'
+			cache.size == third.length
+		
+		cleanup :
+			file.delete()
+	}
+	
+	def "should evict the least recently used entries"(){
+		
+		given :
+			File file = File.createTempFile 'testTree', '.json'
+			file.deleteOnExit()
+			file.text = '{"name":"tests"}'
+			
+			def entrySize = new GzipCache(1024).get("probe", file, 1000, file.length()).length
+			def cache = new GzipCache(entrySize * 2)
+		
+		when :
+			cache.get("job1", file, 1000, file.length())
+			cache.get("job2", file, 1000, file.length())
+			cache.get("job1", file, 1000, file.length())
+			cache.get("job3", file, 1000, file.length())
+		
+		then :
+			cache.contains("job1")
+			! cache.contains("job2")
+			cache.contains("job3")
+		
+		cleanup :
+			file.delete()
+	}
+	
+}
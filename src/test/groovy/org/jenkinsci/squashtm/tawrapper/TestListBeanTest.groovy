@@ -87,4 +87,35 @@ class TestListBeanTest extends Specification{
 			test_mike.contents == null
 	}
 	
-}
\ No newline at end of file
+	def "should order the siblings as the sorted full paths would"(){
+		
+		given :
+			def paths = ['/project/folder-x/bob', '/project/folder/mike', '/project/folder.a']
+		
+		when :
+			def bean = new TestListBean()
+			bean.populateWithPaths paths
+		
+		then :
+			bean.contents*.name == ['folder-x', 'folder.a', 'folder']
+			bean.contents*.contents*.name == [['bob'], null, ['mike']]
+	}
+	
+	def "should write the test list as compact json"(){
+		
+		given :
+			def bean = new TestListBean()
+			bean.populateWithPaths(['/project/folder/bob', '/project/a'])
+			bean.timestamp = 'now'
+			
+			def out = new ByteArrayOutputStream()
+		
+		when :
+			bean.writeTo out
+		
+		then :
+			out.toString('UTF-8') == '{"timestamp":"now","name":"tests","contents":[{"name":"a","contents":null},'+
+										'{"name":"folder","contents":[{"name":"bob","contents":null}]}]}'
+	}
+	
+}
@@ -0,0 +1,120 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import spock.lang.Specification
+
+class TestListHistoryTest extends Specification{
+	
+	File dir
+	TestListHistory history
+	
+	def setup(){
+		// Files.createTempDirectory fails, so I'm doing it the old way
+		dir = File.createTempFile 'test', 'tmp'
+		dir.delete()
+		dir.mkdir()
+		
+		history = new TestListHistory(dir)
+	}
+	
+	def cleanup(){
+		dir.deleteDir()
+	}
+	
+	
+	def "should fingerprint the path set"(){
+		
+		expect :
+			TestListHistory.fingerprint(['a', 'b/c']) == TestListHistory.fingerprint(['a', 'b/c'])
+			TestListHistory.fingerprint(['a', 'b/c']) != TestListHistory.fingerprint(['a', 'b', 'c'])
+	}
+	
+	def "should record the fingerprint and the paths"(){
+		
+		when :
+			history.record(['a', 'b'], 'fp', 1000)
+		
+		then :
+			history.fingerprint == 'fp'
+			history.readPaths() == ['a', 'b']
+			history.delta(500) == [full : true, timestamp : 1000]
+			history.delta(1000) == [full : false, timestamp : 1000, added : [], removed : []]
+	}
+	
+	def "should tell what changed since a given time"(){
+		
+		given :
+			history.record(['a', 'b', 'c'], 'fp1', 1000)
+			history.record(['a', 'c', 'd'], 'fp2', 2000)
+			history.record(['a', 'b', 'e'], 'fp3', 3000)
+		
+		expect :
+			history.delta(1000) == [full : false, timestamp : 3000, added : ['e'], removed : ['c']]
+			history.delta(2000) == [full : false, timestamp : 3000, added : ['b', 'e'], removed : ['c', 'd']]
+			history.delta(3000) == [full : false, timestamp : 3000, added : [], removed : []]
+	}
+	
+	def "should ask for the full list when the history is too short"(){
+		
+		given :
+			(0..TestListHistory.MAX_CHANGES + 1).each{
+				history.record(["test$it".toString()], "fp$it".toString(), 1000 * (it + 1))
+			}
+		
+		expect :
+			history.delta(1000).full
+			! history.delta(2000).full
+	}
+	
+	def "should record big changes as a reset"(){
+		
+		given :
+			def before = (1..10).collect { "a$it".toString() }
+			def after = (1..TestListHistory.MAX_CHANGE_SIZE).collect { "b$it".toString() }.sort()
+		
+		when :
+			def change = history.diff(before, after, 1000)
+		
+		then :
+			change == [timestamp : 1000, reset : true]
+	}
+	
+	def "should not lose a change when two builds record at the same time"(){
+		
+		given :
+			history.record(['a'], 'fp-0', 1000)
+		
+		when :
+			def threads = (1..10).collect{ int i ->
+				Thread.start{ new TestListHistory(dir).record(['a', "b$i".toString()], "fp-$i".toString(), 1000 + i) }
+			}
+			threads*.join()
+		
+		then :
+			history.readHistory().changes.size() == 10
+			dir.list().findAll{ it.endsWith '.tmp' }.isEmpty()
+	}
+	
+}
@@ -77,4 +77,31 @@ class TestListSaverTest extends Specification{
 	}
 	
 	
+	def "should not rewrite the test list when the tests did not change"(){
+		
+		given :
+			File testDir = File.createTempFile 'test', 'tmp'
+			testDir.delete()
+			testDir.mkdir()
+			
+			def output = new ByteArrayOutputStream()
+			PrintStream logger = new PrintStream(output, true)
+			
+			def saver = new TestListSaver(new JobInformations(buildPath : testDir), logger)
+			
+		when :
+			saver.saveTestPaths(['/project/folder/bob', '/project/a'])
+			def firstText = new File(testDir, 'testTree.json').text
+			
+			saver.saveTestPaths(['/project/a', '/project/folder/bob'])
+		
+		then :
+			new File(testDir, 'testTree.json').text == firstText
+			output.toString().contains "the test list did not change"
+			new TestListHistory(testDir).readPaths() == ['a', 'folder/bob']
+		
+		cleanup :
+			testDir.deleteDir()
+	}
+	
 }
@@ -0,0 +1,65 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import spock.lang.Specification
+
+
+class TestSuiteIndexCallableTest extends Specification {
+
+	def "should index the tests by script, ignoring the rest"(){
+		
+		given :
+			def json = '''{
+				"project" : { "name" : "heroquest", "tags" : [ "a", "b" ] },
+				"test" : [
+					{ "param" : { "TC_REFERENCE" : "", "nested" : [ { "id" : "0" } ] }, "id" : "87", "script" : "altdorf/AltdorfSewersTest/test" },
+					{ "id" : 88, "script" : "heroes/BotchedTest/test" },
+					{ "id" : "89" }
+				]
+			}'''
+			
+			def callable = new TestSuiteIndexCallable(prefix : "/heroquest-test/")
+		
+		when :
+			def index = callable.index(new ByteArrayInputStream(json.getBytes("UTF-8")))
+		
+		then :
+			index == [
+				"/heroquest-test/altdorf/AltdorfSewersTest/test" : "87",
+				"/heroquest-test/heroes/BotchedTest/test" : "88"
+			]
+	}
+	
+	def "should index the test suite file"(){
+		
+		when :
+			def index = new TestSuiteIndexCallable().invoke(new File("src/test/resources/json-tests/heroquest-ta-testsuite.json"), null)
+		
+		then :
+			index.size() == 9
+			index["org/bsiri/heroquest/altdorf/AltdorfSewersTest/test"] == "87"
+	}
+	
+}
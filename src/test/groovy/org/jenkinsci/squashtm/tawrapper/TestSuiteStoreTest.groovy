@@ -0,0 +1,154 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.tawrapper
+
+import org.apache.commons.fileupload.FileItem
+
+import spock.lang.Specification
+
+class TestSuiteStoreTest extends Specification{
+	
+	static final String SUITE = '{"test" : [ {"id" : "1", "script" : "A/test"}, {"id" : "2", "script" : "B/test"} ]}'
+	
+	static final long HOUR = 60 * 60 * 1000L
+	
+	File root
+	
+	TestSuiteStore store
+	
+	def setup(){
+		// Files.createTempDirectory fails, so I'm doing it the old way
+		root = File.createTempFile 'test', 'tmp'
+		root.delete()
+		root.mkdir()
+		
+		store = new TestSuiteStore(root)
+	}
+	
+	def cleanup(){
+		root.deleteDir()
+	}
+	
+	
+	def "should store identical test suites only once"(){
+		
+		when :
+			def first = store.store upload(SUITE)
+			def second = store.store upload(SUITE)
+			def other = store.store upload('{"test" : []}')
+		
+		then :
+			first == second
+			first != other
+			first.length() == 64
+			
+			root.listFiles()*.name.sort() == [first + ".json", other + ".json"].sort()
+			store.fileOf(first).text == SUITE
+	}
+	
+	def "should parse a test suite once per prefix"(){
+		
+		given :
+			def digest = store.store upload(SUITE)
+		
+		when :
+			def index = store.index digest, "/job/"
+		
+		then :
+			index == ["/job/A/test" : "1", "/job/B/test" : "2"]
+			store.index(digest, "/job/").is(index)
+			store.index(digest, "/other/") == ["/other/A/test" : "1", "/other/B/test" : "2"]
+	}
+	
+	def "should evict the expired test suites"(){
+		
+		given :
+			def old = store.store upload(SUITE)
+			def recent = store.store upload('{"test" : []}')
+			
+			store.fileOf(old).setLastModified System.currentTimeMillis() - 10 * HOUR
+			store.fileOf(recent).setLastModified System.currentTimeMillis() - 2 * HOUR
+		
+		when :
+			int deleted = store.evict 5 * HOUR, Long.MAX_VALUE
+		
+		then :
+			deleted == 1
+			! store.fileOf(old).exists()
+			store.fileOf(recent).exists()
+	}
+	
+	def "should evict the least recently used test suites beyond the size limit, but not those used lately"(){
+		
+		given :
+			def digests = (1..4).collect { store.store upload("{\"test\" : [], \"n\" : ${it}}") }
+			long length = store.fileOf(digests[0]).length()
+			
+			// the first is the most recent, the last one was used a few minutes ago
+			long now = System.currentTimeMillis()
+			store.fileOf(digests[0]).setLastModified now - 2 * HOUR
+			store.fileOf(digests[1]).setLastModified now - 3 * HOUR
+			store.fileOf(digests[2]).setLastModified now - 4 * HOUR
+			store.fileOf(digests[3]).setLastModified now - 5 * 60 * 1000L
+		
+		when :
+			int deleted = store.evict 100 * HOUR, 2 * length
+		
+		then :
+			deleted == 2
+			store.fileOf(digests[3]).exists()
+			store.fileOf(digests[0]).exists()
+			! store.fileOf(digests[1]).exists()
+			! store.fileOf(digests[2]).exists()
+	}
+	
+	
+	def "should keep the test suites still in use, however old they are"(){
+		
+		given :
+			def queued = store.store upload(SUITE)
+			def unused = store.store upload('{"test" : []}')
+			
+			store.fileOf(queued).setLastModified System.currentTimeMillis() - 10 * HOUR
+			store.fileOf(unused).setLastModified System.currentTimeMillis() - 10 * HOUR
+		
+		when :
+			int deleted = store.evict 5 * HOUR, 0, [queued] as Set
+		
+		then :
+			deleted == 1
+			store.fileOf(queued).exists()
+			! store.fileOf(unused).exists()
+	}
+	
+	
+	// ***************** utilities ****************************
+	
+	def upload(String content){
+		FileItem item = Mock(FileItem)
+		item.getInputStream() >> { new ByteArrayInputStream(content.getBytes("UTF-8")) }
+		return item
+	}
+	
+}
@@ -0,0 +1,58 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import org.jenkinsci.squashtm.core.TMServer
+
+import spock.lang.Specification
+
+class HttpClientTest extends Specification{
+	
+	
+	def "should keep a retired client open until its users are done with it"(){
+		
+		given :
+			def server = new TMServer("tm", "http://localhost:8080/squash-retired", "admin", "admin")
+			HttpClient retired
+			boolean openWhileUsed
+		
+		when : "the configuration changes while a build posts"
+			HttpClient.withServer(server){ HttpClient client ->
+				retired = client
+				HttpClient.closeAll()
+				openWhileUsed = ! client.executor.isShutdown()
+			}
+		
+		then :
+			openWhileUsed
+			retired.executor.isShutdown()
+		
+		and : "the next users get a new client"
+			HttpClient.withServer(server){ HttpClient client -> client } != retired
+		
+		cleanup :
+			HttpClient.closeAll()
+	}
+	
+}
@@ -0,0 +1,125 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import groovy.json.JsonSlurper
+import net.sf.json.JSONSerializer
+import org.jenkinsci.squashtm.tawrapper.TATestStatus
+
+import java.util.zip.GZIPInputStream
+
+import spock.lang.Specification
+
+class JsonPayloadWriterTest extends Specification{
+	
+	def "should write a test status the same way json-lib does"(){
+		
+		given :
+			def status = new TATestStatus(status : 'SUCCESS', resultUrl : 'http://jenkins/job/1/testReport', 
+										statusMessage : 'légende "quoted"', testName : 'test')
+		
+		expect :
+			parse(JsonPayloadWriter.toJson(status)) == parse(JSONSerializer.toJSON(status).toString())
+	}
+	
+	def "should write the payload of the bulk endpoint"(){
+		
+		given :
+			def payload = [[id : '12', testStatus : new TATestStatus(status : 'FAILURE')], 
+						   [id : 13, testStatus : new TATestStatus(status : 'SUCCESS')]]
+		
+		when :
+			def json = parse JsonPayloadWriter.toJson(payload)
+		
+		then :
+			json.size() == 2
+			json[0].id == '12'
+			json[0].testStatus.status == 'FAILURE'
+			json[0].testStatus.testName == ''
+			json[1].id == 13
+			json[1].testStatus.status == 'SUCCESS'
+	}
+	
+	def "should gzip the body of the request"(){
+		
+		given :
+			def entity = new JsonEntity([status : 'SUCCESS', tests : [1, 2, null]], true)
+		
+		when :
+			def out = new ByteArrayOutputStream()
+			entity.writeTo out
+			def text = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).getText('UTF-8')
+		
+		then :
+			entity.contentEncoding.value == 'gzip'
+			entity.contentType.value == JsonEntity.CONTENT_TYPE
+			parse(text) == [status : 'SUCCESS', tests : [1, 2, null]]
+	}
+	
+	def "should send a json string as is"(){
+		
+		given :
+			def entity = new JsonEntity('{"id":"12"}')
+		
+		expect :
+			entity.content.getText('UTF-8') == '{"id":"12"}'
+			entity.contentEncoding == null
+	}
+	
+	
+	def "should send a small body with its length and stream a large one"(){
+		
+		given :
+			def small = new JsonEntity([status : 'SUCCESS'], false, true, 1024)
+			def large = new JsonEntity((1..1000).collect{ [id : it, status : 'SUCCESS'] }, false, true, 1024)
+			def once = new JsonEntity([status : 'SUCCESS'], false, false, 1024)
+		
+		expect :
+			! small.chunked
+			small.contentLength == '{"status":"SUCCESS"}'.length()
+			parse(small.content.getText('UTF-8')) == [status : 'SUCCESS']
+			
+			large.chunked
+			large.contentLength == -1
+			parse(large.content.getText('UTF-8')).size() == 1000
+			
+			once.chunked
+			once.contentLength == -1
+	}
+	
+	def "should send a json string with its length"(){
+		
+		given :
+			def entity = new JsonEntity('{"id":"12"}', false, true, 4)
+		
+		expect :
+			! entity.chunked
+			entity.contentLength == 11
+	}
+	
+	private parse(String json){
+		new JsonSlurper().parseText json
+	}
+	
+}
@@ -0,0 +1,70 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import spock.lang.Specification
+
+class LatencyHistogramTest extends Specification{
+	
+	def "should sort the durations in their buckets"(){
+		
+		given :
+			def histogram = new LatencyHistogram()
+		
+		when :
+			[3, 5, 6, 80, 100, 70000].each { histogram.record it }
+		
+		then :
+			def buckets = histogram.toMap().buckets
+			buckets.le_5 == 2
+			buckets.le_10 == 1
+			buckets.le_100 == 2
+			buckets.gt_60000 == 1
+			buckets.values().sum() == 6
+	}
+	
+	def "should compute the figures"(){
+		
+		given :
+			def histogram = new LatencyHistogram()
+		
+		when :
+			(1..100).each { histogram.record it }
+		
+		then :
+			histogram.count == 100
+			histogram.mean == 50
+			histogram.max == 100
+			histogram.percentile(50) == 50
+			histogram.percentile(95) == 100
+			histogram.percentile(99) == 100
+	}
+	
+	def "should report an empty histogram"(){
+		
+		expect :
+			new LatencyHistogram().toMap().subMap(['count', 'mean', 'max', 'p50']) == [count : 0, mean : 0, max : 0, p50 : 0]
+	}
+	
+}
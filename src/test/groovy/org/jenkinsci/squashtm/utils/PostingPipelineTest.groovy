@@ -0,0 +1,85 @@
+/*
+ *     The MIT License
+ *
+ *     Copyright (C) 2016-2017 Henix, henix.fr
+ *
+ *     Permission is hereby granted, free of charge, to any person obtaining a copy
+ *     of this software and associated documentation files (the "Software"), to deal
+ *     in the Software without restriction, including without limitation the rights
+ *     to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *     copies of the Software, and to permit persons to whom the Software is
+ *     furnished to do so, subject to the following conditions:
+ *
+ *     The above copyright notice and this permission notice shall be included in
+ *     all copies or substantial portions of the Software.
+ *
+ *     THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *     IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *     FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *     AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *     LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *     OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *     THE SOFTWARE.
+ */
+package org.jenkinsci.squashtm.utils
+
+import org.apache.http.HttpVersion
+import org.apache.http.message.BasicStatusLine
+
+import java.util.concurrent.Executors
+
+import spock.lang.Specification
+
+class PostingPipelineTest extends Specification{
+	
+	
+	def "should report the outcomes in the order of submission"(){
+		
+		given : "a client that answers slower to the first requests"
+			HttpClient client = Spy()
+			client.maxConcurrentRequests = 4
+			client.executor = Executors.newFixedThreadPool(4)
+			client.post(_, _) >> { args ->
+				int num = args[1] as int
+				sleep((10 - num) * 10)
+				new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "request $num")
+			}
+		
+		and :
+			def pipeline = new PostingPipeline(client)
+			def reported = []
+			
+		when :
+			(0..9).each{ num ->
+				pipeline.submit("http://somewhere/$num", num){ reported << it.reasonPhrase }
+			}
+			pipeline.awaitAll()
+		
+		then :
+			reported == (0..9).collect{ "request $it".toString() }
+		
+		cleanup :
+			client.executor.shutdownNow()
+	}
+	
+	def "should report the exceptions too"(){
+		
+		given :
+			HttpClient client = Spy()
+			client.post(_, _) >> { throw new IOException("connection refused") }
+		
+		and :
+			def pipeline = new PostingPipeline(client)
+			def reported = []
+			
+		when :
+			pipeline.submit("http://somewhere", "data"){ reported << it }
+			pipeline.report { reported << "not posted" }
+			pipeline.awaitAll()
+		
+		then :
+			reported[0] instanceof IOException
+			reported[1] == "not posted"
+	}
+	
+}